@@ -20,7 +20,6 @@
 package de.catma.document;
 
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
 import java.util.SortedSet;
 
@@ -35,7 +34,6 @@ public class Range implements Comparable<Range> {
 
 	private int startPoint;
 	private int endPoint;
-	private int hashCode;
 	
 	/**
 	 * @param startPoint the point before the first character.
@@ -44,10 +42,6 @@ public class Range implements Comparable<Range> {
 	public Range( int startPoint, int endPoint ) {
 		this.startPoint = Math.min(startPoint, endPoint);
 		this.endPoint = Math.max(startPoint, endPoint);
-		this.hashCode = 
-			(String.valueOf(this.startPoint ) 
-			+ "-" 
-			+ String.valueOf(this.endPoint)).hashCode();
 	}
 
 	/**
@@ -86,7 +80,7 @@ public class Range implements Comparable<Range> {
 	 */
 	@Override
 	public int hashCode() {
-		return this.hashCode;
+		return 31 * startPoint + endPoint;
 	}
 	
 	/**
@@ -285,35 +279,14 @@ public class Range implements Comparable<Range> {
     }
     
     /**
-     * Merges the contiguous ranges of the given set.
+     * Merges the contiguous ranges of the given set. The merge runs on a 
+     * packed {@link RangeList}, use {@link RangeList#mergeRanges()} directly 
+     * to avoid the creation of the Range objects.
      * @param sortedRanges the ranges to merge
-     * @return the merged ranges.
+     * @return a modifiable list of the merged ranges
      */
     public static List<Range> mergeRanges(SortedSet<Range> sortedRanges) {
-        List<Range> result = new ArrayList<Range>();
-
-        Range curRange = null;
-
-        Iterator<Range> rangeIterator = sortedRanges.iterator();
-
-        if (rangeIterator.hasNext()) {
-            curRange = rangeIterator.next();
-
-            while (rangeIterator.hasNext()) {
-                Range range = rangeIterator.next();
-
-                if (curRange.getEndPoint() == range.getStartPoint()) { // merge
-                    curRange = new Range(curRange.getStartPoint(), range.getEndPoint());
-                }
-                else {
-                    result.add(curRange);
-                    curRange = range;
-                }
-            }
-            result.add(curRange);
-        }
-
-        return result;
+        return new ArrayList<Range>(new RangeList(sortedRanges).mergeRanges());
     }
 
     /**
@@ -321,6 +294,10 @@ public class Range implements Comparable<Range> {
      * @return a range that encloses all given ranges
      */
     public static Range getEnclosingRange(List<Range> ranges) {
+    	if (ranges instanceof RangeList) {
+    		return ((RangeList)ranges).getEnclosingRange();
+    	}
+    	
     	int startPoint = Integer.MAX_VALUE;
     	int endPoint = 0;
     	
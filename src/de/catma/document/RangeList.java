@@ -0,0 +1,252 @@
+/*
+ *   CATMA Computer Aided Text Markup and Analysis
+ *
+ *   Copyright (C) 2009-2013  University Of Hamburg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.catma.document;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * A compact list of {@link Range}s. Each range is packed into a single
+ * <code>long</code> with the start point in the upper and the end point in the
+ * lower 32 bits, so a list of ranges costs 8 bytes per range instead of
+ * one object per range. {@link Range} objects are materialized only on
+ * {@link #get(int) demand}.
+ * <p>
+ * Since points are never negative the natural order of the packed values is
+ * the order of {@link Range#compareTo(Range)}.
+ * </p>
+ *
+ * @author marco.petris@web.de
+ *
+ */
+public class RangeList extends AbstractList<Range> {
+
+	private static final int DEFAULT_CAPACITY = 10;
+
+	private long[] ranges;
+	private int size;
+
+	public RangeList() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param initialCapacity number of ranges this list can hold before it has to grow
+	 */
+	public RangeList(int initialCapacity) {
+		ranges = new long[Math.max(initialCapacity, 1)];
+	}
+
+	/**
+	 * @param ranges the initial content of this list
+	 */
+	public RangeList(Collection<Range> ranges) {
+		this(ranges.size());
+		for (Range range : ranges) {
+			add(range);
+		}
+	}
+
+	/**
+	 * @param startPoint
+	 * @param endPoint
+	 * @return the packed representation of the given range
+	 */
+	public static long pack(int startPoint, int endPoint) {
+		return (((long)Math.min(startPoint, endPoint)) << 32)
+				| (Math.max(startPoint, endPoint) & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * @param range a {@link #pack(int, int) packed} range
+	 * @return the start point
+	 */
+	public static int unpackStartPoint(long range) {
+		return (int)(range >>> 32);
+	}
+
+	/**
+	 * @param range a {@link #pack(int, int) packed} range
+	 * @return the end point
+	 */
+	public static int unpackEndPoint(long range) {
+		return (int)range;
+	}
+
+	/**
+	 * Adds a range without creating a {@link Range} object.
+	 * @param startPoint the point before the first character.
+	 * @param endPoint the point after the last character.
+	 */
+	public void add(int startPoint, int endPoint) {
+		ensureCapacity(size+1);
+		ranges[size++] = pack(startPoint, endPoint);
+		modCount++;
+	}
+
+	@Override
+	public boolean add(Range range) {
+		add(range.getStartPoint(), range.getEndPoint());
+		return true;
+	}
+
+	/**
+	 * @param capacity the minimum number of ranges this list should be able
+	 * to hold without growing
+	 */
+	public void ensureCapacity(int capacity) {
+		if (capacity > ranges.length) {
+			ranges = Arrays.copyOf(
+					ranges, Math.max(capacity, ranges.length + (ranges.length >> 1)));
+		}
+	}
+
+	/**
+	 * Shrinks the internal storage to the current size.
+	 */
+	public void trimToSize() {
+		if (size < ranges.length) {
+			ranges = Arrays.copyOf(ranges, Math.max(size, 1));
+		}
+	}
+
+	/**
+	 * @param index
+	 * @return a newly materialized {@link Range} for the given index
+	 */
+	@Override
+	public Range get(int index) {
+		checkIndex(index);
+		return new Range(
+			unpackStartPoint(ranges[index]), unpackEndPoint(ranges[index]));
+	}
+
+	/**
+	 * @param index
+	 * @return the start point of the range at the given index
+	 */
+	public int getStartPoint(int index) {
+		checkIndex(index);
+		return unpackStartPoint(ranges[index]);
+	}
+
+	/**
+	 * @param index
+	 * @return the end point of the range at the given index
+	 */
+	public int getEndPoint(int index) {
+		checkIndex(index);
+		return unpackEndPoint(ranges[index]);
+	}
+
+	@Override
+	public Range set(int index, Range range) {
+		Range oldRange = get(index);
+		ranges[index] = pack(range.getStartPoint(), range.getEndPoint());
+		return oldRange;
+	}
+
+	@Override
+	public Range remove(int index) {
+		Range oldRange = get(index);
+		int numMoved = size - index - 1;
+		if (numMoved > 0) {
+			System.arraycopy(ranges, index+1, ranges, index, numMoved);
+		}
+		size--;
+		modCount++;
+		return oldRange;
+	}
+
+	@Override
+	public void clear() {
+		size = 0;
+		modCount++;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Sorts the ranges of this list according to {@link Range#compareTo(Range)}.
+	 */
+	public void sort() {
+		Arrays.sort(ranges, 0, size);
+		modCount++;
+	}
+
+	/**
+	 * @return a range that encloses all ranges of this list
+	 * @see Range#getEnclosingRange(java.util.List)
+	 */
+	public Range getEnclosingRange() {
+		int startPoint = Integer.MAX_VALUE;
+		int endPoint = 0;
+
+		for (int i=0; i<size; i++) {
+			startPoint = Math.min(unpackStartPoint(ranges[i]), startPoint);
+			endPoint = Math.max(unpackEndPoint(ranges[i]), endPoint);
+		}
+
+		return new Range(startPoint, endPoint);
+	}
+
+	/**
+	 * Merges the contiguous ranges of this list, the list has to be {@link #sort() sorted}.
+	 * @return a new list with the merged ranges
+	 * @see Range#mergeRanges(java.util.SortedSet)
+	 */
+	public RangeList mergeRanges() {
+		RangeList result = new RangeList(size);
+
+		if (size > 0) {
+			int curStartPoint = unpackStartPoint(ranges[0]);
+			int curEndPoint = unpackEndPoint(ranges[0]);
+
+			for (int i=1; i<size; i++) {
+				long range = ranges[i];
+				if (range == ranges[i-1]) {
+					continue; // a sorted set would not contain duplicates
+				}
+				if (curEndPoint == unpackStartPoint(range)) { // merge
+					curEndPoint = unpackEndPoint(range);
+				}
+				else {
+					result.add(curStartPoint, curEndPoint);
+					curStartPoint = unpackStartPoint(range);
+					curEndPoint = unpackEndPoint(range);
+				}
+			}
+			result.add(curStartPoint, curEndPoint);
+		}
+
+		result.trimToSize();
+		return result;
+	}
+
+	private void checkIndex(int index) {
+		if ((index < 0) || (index >= size)) {
+			throw new IndexOutOfBoundsException(
+				"Index: " + index + ", Size: " + size);
+		}
+	}
+}
@@ -0,0 +1,354 @@
+/*
+ *   CATMA Computer Aided Text Markup and Analysis
+ *
+ *   Copyright (C) 2009-2013  University Of Hamburg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.catma.document;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * A set of text positions represented as a sorted list of disjoint, non adjacent
+ * {@link Range}s. This class is immutable.
+ * <p>
+ * The ranges are kept in two sorted primitive arrays. Overlapping and adjacent
+ * input ranges are merged and {@link Range#isSinglePoint() single point} ranges
+ * are dropped since they do not cover any text. All set operations are computed by
+ * a linear merge of the two operands, i. e. in O(n+m).
+ * </p>
+ *
+ * @author marco.petris@web.de
+ *
+ */
+public class RangeSet {
+
+	/**
+	 * The set without any ranges.
+	 */
+	public static final RangeSet EMPTY = new RangeSet(new int[0], new int[0], 0);
+
+	private final int[] startPoints;
+	private final int[] endPoints;
+	private final int size;
+
+	private RangeSet(int[] startPoints, int[] endPoints, int size) {
+		this.startPoints = startPoints;
+		this.endPoints = endPoints;
+		this.size = size;
+	}
+
+	/**
+	 * @param ranges the ranges of the new set in any order
+	 */
+	public RangeSet(Collection<Range> ranges) {
+		this(new RangeList(ranges));
+	}
+
+	/**
+	 * @param ranges the ranges of the new set in any order, the list is not modified
+	 */
+	public RangeSet(RangeList ranges) {
+		long[] packed = new long[ranges.size()];
+		for (int i=0; i<packed.length; i++) {
+			packed[i] = RangeList.pack(ranges.getStartPoint(i), ranges.getEndPoint(i));
+		}
+		Arrays.sort(packed);
+
+		int[] startPoints = new int[packed.length];
+		int[] endPoints = new int[packed.length];
+		int size = 0;
+
+		for (long range : packed) {
+			int startPoint = RangeList.unpackStartPoint(range);
+			int endPoint = RangeList.unpackEndPoint(range);
+			if (startPoint == endPoint) {
+				continue;
+			}
+			if ((size > 0) && (startPoint <= endPoints[size-1])) { // merge
+				endPoints[size-1] = Math.max(endPoints[size-1], endPoint);
+			}
+			else {
+				startPoints[size] = startPoint;
+				endPoints[size] = endPoint;
+				size++;
+			}
+		}
+
+		this.startPoints = startPoints;
+		this.endPoints = endPoints;
+		this.size = size;
+	}
+
+	/**
+	 * @param range
+	 * @return a set with the single given range
+	 */
+	public static RangeSet valueOf(Range range) {
+		if (range.isSinglePoint()) {
+			return EMPTY;
+		}
+		return new RangeSet(
+			new int[] {range.getStartPoint()}, new int[] {range.getEndPoint()}, 1);
+	}
+
+	/**
+	 * @param other
+	 * @return all positions covered by this set or by the other set
+	 */
+	public RangeSet union(RangeSet other) {
+		Builder builder = new Builder(size + other.size);
+		int i = 0;
+		int j = 0;
+
+		while ((i < size) || (j < other.size)) {
+			if ((j >= other.size)
+					|| ((i < size) && (startPoints[i] <= other.startPoints[j]))) {
+				builder.append(startPoints[i], endPoints[i]);
+				i++;
+			}
+			else {
+				builder.append(other.startPoints[j], other.endPoints[j]);
+				j++;
+			}
+		}
+
+		return builder.build();
+	}
+
+	/**
+	 * @param other
+	 * @return all positions covered by this set and by the other set
+	 */
+	public RangeSet intersection(RangeSet other) {
+		Builder builder = new Builder(size + other.size);
+		int i = 0;
+		int j = 0;
+
+		while ((i < size) && (j < other.size)) {
+			int startPoint = Math.max(startPoints[i], other.startPoints[j]);
+			int endPoint = Math.min(endPoints[i], other.endPoints[j]);
+			if (startPoint < endPoint) {
+				builder.append(startPoint, endPoint);
+			}
+			if (endPoints[i] < other.endPoints[j]) {
+				i++;
+			}
+			else {
+				j++;
+			}
+		}
+
+		return builder.build();
+	}
+
+	/**
+	 * @param other
+	 * @return all positions covered by this set but not by the other set
+	 */
+	public RangeSet difference(RangeSet other) {
+		Builder builder = new Builder(size + other.size);
+		int j = 0;
+
+		for (int i=0; i<size; i++) {
+			int startPoint = startPoints[i];
+			int endPoint = endPoints[i];
+
+			// skip all ranges of the other set that end before the current range
+			while ((j < other.size) && (other.endPoints[j] <= startPoint)) {
+				j++;
+			}
+
+			int k = j;
+			while ((k < other.size) && (other.startPoints[k] < endPoint)) {
+				if (other.startPoints[k] > startPoint) {
+					builder.append(startPoint, other.startPoints[k]);
+				}
+				startPoint = Math.max(startPoint, other.endPoints[k]);
+				k++;
+			}
+
+			if (startPoint < endPoint) {
+				builder.append(startPoint, endPoint);
+			}
+		}
+
+		return builder.build();
+	}
+
+	/**
+	 * @param documentRange the range of the whole document
+	 * @return all positions of the document range that are not covered by this set
+	 */
+	public RangeSet complement(Range documentRange) {
+		return valueOf(documentRange).difference(this);
+	}
+
+	/**
+	 * @return the number of characters covered by this set
+	 */
+	public long getCoverage() {
+		long coverage = 0;
+		for (int i=0; i<size; i++) {
+			coverage += endPoints[i] - startPoints[i];
+		}
+		return coverage;
+	}
+
+	/**
+	 * @param point
+	 * @return <code>true</code> if the character after the given point is covered by this set
+	 */
+	public boolean contains(int point) {
+		int index = Arrays.binarySearch(startPoints, 0, size, point);
+		if (index >= 0) {
+			return true;
+		}
+		index = -index - 2; // the last range starting before the point
+		return (index >= 0) && (point < endPoints[index]);
+	}
+
+	/**
+	 * @return the number of disjoint ranges of this set
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return <code>true</code> if this set does not cover any text
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * @param index
+	 * @return the start point of the range at the given index
+	 */
+	public int getStartPoint(int index) {
+		checkIndex(index);
+		return startPoints[index];
+	}
+
+	/**
+	 * @param index
+	 * @return the end point of the range at the given index
+	 */
+	public int getEndPoint(int index) {
+		checkIndex(index);
+		return endPoints[index];
+	}
+
+	/**
+	 * @return the sorted disjoint ranges of this set
+	 */
+	public RangeList getRanges() {
+		RangeList ranges = new RangeList(size);
+		for (int i=0; i<size; i++) {
+			ranges.add(startPoints[i], endPoints[i]);
+		}
+		return ranges;
+	}
+
+	private void checkIndex(int index) {
+		if ((index < 0) || (index >= size)) {
+			throw new IndexOutOfBoundsException(
+				"Index: " + index + ", Size: " + size);
+		}
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder("RangeSet[");
+		for (int i=0; i<size; i++) {
+			if (i>0) {
+				builder.append(",");
+			}
+			builder.append("[" + startPoints[i] + "," + endPoints[i] + "]");
+		}
+		builder.append("]");
+		return builder.toString();
+	}
+
+	@Override
+	public int hashCode() {
+		int result = 1;
+		for (int i=0; i<size; i++) {
+			result = 31 * result + startPoints[i];
+			result = 31 * result + endPoints[i];
+		}
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof RangeSet)) {
+			return false;
+		}
+		RangeSet other = (RangeSet) obj;
+		if (size != other.size) {
+			return false;
+		}
+		for (int i=0; i<size; i++) {
+			if ((startPoints[i] != other.startPoints[i])
+					|| (endPoints[i] != other.endPoints[i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Collects ranges that arrive ordered by their start points and merges
+	 * overlapping and adjacent ones.
+	 */
+	private static class Builder {
+		private int[] startPoints;
+		private int[] endPoints;
+		private int size;
+
+		private Builder(int capacity) {
+			startPoints = new int[Math.max(capacity, 1)];
+			endPoints = new int[Math.max(capacity, 1)];
+		}
+
+		private void append(int startPoint, int endPoint) {
+			if ((size > 0) && (startPoint <= endPoints[size-1])) {
+				endPoints[size-1] = Math.max(endPoints[size-1], endPoint);
+			}
+			else {
+				if (size == startPoints.length) {
+					startPoints = Arrays.copyOf(startPoints, size*2);
+					endPoints = Arrays.copyOf(endPoints, size*2);
+				}
+				startPoints[size] = startPoint;
+				endPoints[size] = endPoint;
+				size++;
+			}
+		}
+
+		private RangeSet build() {
+			if (size == 0) {
+				return EMPTY;
+			}
+			return new RangeSet(startPoints, endPoints, size);
+		}
+	}
+}
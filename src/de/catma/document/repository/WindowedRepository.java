@@ -0,0 +1,78 @@
+/*   
+ *   CATMA Computer Aided Text Markup and Analysis
+ *   
+ *   Copyright (C) 2009-2013  University Of Hamburg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.catma.document.repository;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import de.catma.document.Range;
+import de.catma.document.standoffmarkup.usermarkup.TagReference;
+import de.catma.document.standoffmarkup.usermarkup.UserMarkupCollectionManager;
+import de.catma.document.standoffmarkup.usermarkup.UserMarkupCollectionReference;
+import de.catma.document.standoffmarkup.usermarkup.WindowedUserMarkupCollection;
+import de.catma.tag.TagInstance;
+
+/**
+ * A {@link Repository} that is able to load windows of User Markup Collections, 
+ * see {@link WindowedUserMarkupCollection}. 
+ * <p>
+ * Callers choose windowed loading per collection by loading it with 
+ * {@link #getUserMarkupCollection(UserMarkupCollectionReference, int)} instead 
+ * of {@link Repository#getUserMarkupCollection(UserMarkupCollectionReference)}.
+ * A {@link UserMarkupCollectionManager} reloads evicted windowed collections 
+ * as windowed collections again.
+ * </p>
+ * 
+ * @author marco.petris@web.de
+ *
+ */
+public interface WindowedRepository extends Repository {
+	/**
+	 * @param userMarkupCollectionReference
+	 * @param windowSize the minimum length of a window in characters
+	 * @return the windowed User Markup Collection for the given reference, 
+	 * no window is loaded yet
+	 * @throws IOException
+	 */
+	public WindowedUserMarkupCollection getUserMarkupCollection(
+			UserMarkupCollectionReference userMarkupCollectionReference, 
+			int windowSize) throws IOException;
+	/**
+	 * Loads a window of a User Markup Collection.
+	 * @param userMarkupCollectionReference
+	 * @param range the window of text
+	 * @return the Tag References of the collection that 
+	 * {@link Range#hasOverlappingRange(Range) overlap} the given range
+	 * @throws IOException
+	 */
+	public List<TagReference> getTagReferences(
+			UserMarkupCollectionReference userMarkupCollectionReference, Range range) 
+					throws IOException;
+	/**
+	 * @param userMarkupCollectionReference
+	 * @return the {@link Range#getEnclosingRange(List) enclosing range} of the Tag
+	 * References of each Tag Instance of the collection, keyed by the 
+	 * {@link TagInstance#getUuid() uuid} of the instance
+	 * @throws IOException
+	 */
+	public Map<String,Range> getTagInstanceRanges(
+			UserMarkupCollectionReference userMarkupCollectionReference) 
+					throws IOException;
+}
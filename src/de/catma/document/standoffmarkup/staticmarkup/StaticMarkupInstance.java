@@ -21,24 +21,25 @@ package de.catma.document.standoffmarkup.staticmarkup;
 import java.util.List;
 
 import de.catma.document.Range;
+import de.catma.document.RangeList;
 import de.catma.util.Pair;
 
 public class StaticMarkupInstance {
-	private Range range;
+	private long range; // packed, see RangeList
 	private String path; // path -> z.B. /TEI/teiHeader/fileDesc/sourceDesc/p
 	private List<Pair<String,String>> attributes;
 	public StaticMarkupInstance(Range range, String path,
 			List<Pair<String, String>> attributes) {
 		super();
-		this.range = range;
+		setRange(range);
 		this.path = path;
 		this.attributes = attributes;
 	}
 	public Range getRange() {
-		return range;
+		return new Range(RangeList.unpackStartPoint(range), RangeList.unpackEndPoint(range));
 	}
 	public void setRange(Range range) {
-		this.range = range;
+		this.range = RangeList.pack(range.getStartPoint(), range.getEndPoint());
 	}
 	public String getPath() {
 		return path;
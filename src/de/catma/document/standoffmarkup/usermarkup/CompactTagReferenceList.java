@@ -0,0 +1,388 @@
+/*
+ *   CATMA Computer Aided Text Markup and Analysis
+ *
+ *   Copyright (C) 2009-2013  University Of Hamburg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.catma.document.standoffmarkup.usermarkup;
+
+import java.net.URI;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.catma.tag.TagInstance;
+
+/**
+ * A columnar list of {@link TagReference}s for very large
+ * {@link UserMarkupCollection}s. All references of the list share a single
+ * target and each reference is stored as three ints: the index of its
+ * {@link TagInstance} in a dictionary of instances, its start point and its
+ * end point.
+ * <p>
+ * TagReferences are created as lightweight views on {@link #get(int) access},
+ * they are equal to the references that have been added but not identical.
+ * The dictionary holds a single TagInstance per uuid: if references with 
+ * different TagInstance objects of the same uuid get added, the views of all of
+ * them return the TagInstance that has been added first (as long as any 
+ * reference of that uuid remains in the list).
+ * </p>
+ * <p>
+ * The entries of the dictionary are reference counted. An entry is released
+ * as soon as the last reference of its TagInstance gets removed and the 
+ * dictionary gets compacted once more than half of its entries are released.
+ * Pass an instance of this list to
+ * {@link UserMarkupCollection#UserMarkupCollection(String, de.catma.document.source.ContentInfoSet, de.catma.tag.TagLibrary, List, de.catma.document.AccessMode)}
+ * to get a collection with a compact backing store, the collection copies 
+ * the list into a compact list of its own.
+ * </p>
+ * This class is not thread safe.
+ *
+ * @author marco.petris@web.de
+ *
+ */
+public class CompactTagReferenceList extends AbstractList<TagReference> {
+
+	private static final int DEFAULT_CAPACITY = 10;
+	private static final int MIN_RELEASED_TAG_INSTANCES = 16;
+
+	private URI target;
+	// the dictionary, released entries are null
+	private List<TagInstance> tagInstances;
+	// number of references per dictionary entry
+	private int[] tagInstanceReferenceCounts;
+	private int releasedTagInstances;
+	private Map<String,Integer> tagInstanceIndexByID;
+	private int[] tagInstanceIndices;
+	private int[] startPoints;
+	private int[] endPoints;
+	private int size;
+
+	public CompactTagReferenceList() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param initialCapacity number of references this list can hold before it has to grow
+	 */
+	public CompactTagReferenceList(int initialCapacity) {
+		int capacity = Math.max(initialCapacity, 1);
+		tagInstances = new ArrayList<TagInstance>();
+		tagInstanceReferenceCounts = new int[DEFAULT_CAPACITY];
+		releasedTagInstances = 0;
+		tagInstanceIndexByID = new HashMap<String, Integer>();
+		tagInstanceIndices = new int[capacity];
+		startPoints = new int[capacity];
+		endPoints = new int[capacity];
+	}
+
+	/**
+	 * @param tagReferences the initial content of this list
+	 */
+	public CompactTagReferenceList(Collection<TagReference> tagReferences) {
+		this(tagReferences.size());
+		addAll(tagReferences);
+	}
+
+	/**
+	 * @param tagReference the reference to add
+	 * @throws IllegalArgumentException if the target of the reference differs
+	 * from the target of the references already in this list
+	 */
+	@Override
+	public boolean add(TagReference tagReference) throws IllegalArgumentException {
+		checkTarget(tagReference);
+		ensureCapacity(size+1);
+		tagInstanceIndices[size] = getTagInstanceIndex(tagReference.getTagInstance());
+		startPoints[size] = tagReference.getStartPoint();
+		endPoints[size] = tagReference.getEndPoint();
+		size++;
+		modCount++;
+		return true;
+	}
+
+	@Override
+	public TagReference set(int index, TagReference tagReference) {
+		checkIndex(index);
+		checkTarget(tagReference);
+		TagReference oldReference = get(index);
+		int oldTagInstanceIndex = tagInstanceIndices[index];
+		tagInstanceIndices[index] = getTagInstanceIndex(tagReference.getTagInstance());
+		startPoints[index] = tagReference.getStartPoint();
+		endPoints[index] = tagReference.getEndPoint();
+		release(oldTagInstanceIndex);
+		compactTagInstances();
+		return oldReference;
+	}
+
+	private void checkTarget(TagReference tagReference) {
+		if (size == 0) {
+			target = tagReference.getTarget();
+		}
+		else if (!target.equals(tagReference.getTarget())) {
+			throw new IllegalArgumentException(
+				"all references of this list need to have the same target "
+				+ target + ", incoming reference: " + tagReference);
+		}
+	}
+
+	/**
+	 * @param tagInstance
+	 * @return the index of the dictionary entry of the given instance, the 
+	 * reference count of the entry has been incremented
+	 */
+	private int getTagInstanceIndex(TagInstance tagInstance) {
+		Integer index = tagInstanceIndexByID.get(tagInstance.getUuid());
+		if (index == null) {
+			index = tagInstances.size();
+			tagInstances.add(tagInstance);
+			tagInstanceIndexByID.put(tagInstance.getUuid(), index);
+			if (index == tagInstanceReferenceCounts.length) {
+				tagInstanceReferenceCounts = Arrays.copyOf(
+					tagInstanceReferenceCounts, 
+					tagInstanceReferenceCounts.length + (tagInstanceReferenceCounts.length >> 1));
+			}
+		}
+		tagInstanceReferenceCounts[index]++;
+		return index;
+	}
+	
+	/**
+	 * Decrements the reference count of the given dictionary entry and 
+	 * releases the entry if it is not referenced anymore.
+	 * @param tagInstanceIndex
+	 */
+	private void release(int tagInstanceIndex) {
+		if (--tagInstanceReferenceCounts[tagInstanceIndex] == 0) {
+			TagInstance tagInstance = tagInstances.set(tagInstanceIndex, null);
+			tagInstanceIndexByID.remove(tagInstance.getUuid());
+			releasedTagInstances++;
+		}
+	}
+	
+	/**
+	 * Removes the released entries from the dictionary if more than half of
+	 * the entries have been released.
+	 */
+	private void compactTagInstances() {
+		if ((releasedTagInstances < MIN_RELEASED_TAG_INSTANCES)
+				|| (releasedTagInstances*2 <= tagInstances.size())) {
+			return;
+		}
+		
+		// old entry index -> new entry index
+		int[] newTagInstanceIndices = new int[tagInstances.size()];
+		List<TagInstance> newTagInstances = 
+				new ArrayList<TagInstance>(tagInstances.size()-releasedTagInstances);
+		for (int tagInstanceIndex=0; 
+				tagInstanceIndex<tagInstances.size(); tagInstanceIndex++) {
+			TagInstance tagInstance = tagInstances.get(tagInstanceIndex);
+			if (tagInstance != null) {
+				int newTagInstanceIndex = newTagInstances.size();
+				newTagInstanceIndices[tagInstanceIndex] = newTagInstanceIndex;
+				tagInstanceReferenceCounts[newTagInstanceIndex] = 
+						tagInstanceReferenceCounts[tagInstanceIndex];
+				newTagInstances.add(tagInstance);
+				tagInstanceIndexByID.put(tagInstance.getUuid(), newTagInstanceIndex);
+			}
+		}
+		for (int index=0; index<size; index++) {
+			tagInstanceIndices[index] = newTagInstanceIndices[tagInstanceIndices[index]];
+		}
+		Arrays.fill(
+			tagInstanceReferenceCounts, newTagInstances.size(), 
+			tagInstances.size(), 0);
+		tagInstances = newTagInstances;
+		releasedTagInstances = 0;
+	}
+	
+	/**
+	 * @return the number of entries of the dictionary of TagInstances 
+	 * including released entries that have not been compacted yet
+	 */
+	int getTagInstanceDictionarySize() {
+		return tagInstances.size();
+	}
+
+	/**
+	 * @param capacity the minimum number of references this list should be able
+	 * to hold without growing
+	 */
+	public void ensureCapacity(int capacity) {
+		if (capacity > startPoints.length) {
+			int newCapacity =
+					Math.max(capacity, startPoints.length + (startPoints.length >> 1));
+			tagInstanceIndices = Arrays.copyOf(tagInstanceIndices, newCapacity);
+			startPoints = Arrays.copyOf(startPoints, newCapacity);
+			endPoints = Arrays.copyOf(endPoints, newCapacity);
+		}
+	}
+
+	/**
+	 * Shrinks the internal storage to the current size.
+	 */
+	public void trimToSize() {
+		if (size < startPoints.length) {
+			int newCapacity = Math.max(size, 1);
+			tagInstanceIndices = Arrays.copyOf(tagInstanceIndices, newCapacity);
+			startPoints = Arrays.copyOf(startPoints, newCapacity);
+			endPoints = Arrays.copyOf(endPoints, newCapacity);
+		}
+	}
+
+	/**
+	 * @param index
+	 * @return a newly created view of the reference at the given index
+	 */
+	@Override
+	public TagReference get(int index) {
+		checkIndex(index);
+		return new TagReference(
+			tagInstances.get(tagInstanceIndices[index]), target,
+			startPoints[index], endPoints[index]);
+	}
+
+	/**
+	 * Column access without creating a view, see {@link TagReferenceIndex}.
+	 * @param index
+	 * @return the TagInstance of the reference at the given index
+	 */
+	TagInstance getTagInstance(int index) {
+		checkIndex(index);
+		return tagInstances.get(tagInstanceIndices[index]);
+	}
+	
+	/**
+	 * @param index
+	 * @return the start point of the reference at the given index
+	 */
+	int getStartPoint(int index) {
+		checkIndex(index);
+		return startPoints[index];
+	}
+	
+	/**
+	 * @param index
+	 * @return the end point of the reference at the given index
+	 */
+	int getEndPoint(int index) {
+		checkIndex(index);
+		return endPoints[index];
+	}
+
+	@Override
+	public TagReference remove(int index) {
+		TagReference oldReference = get(index);
+		int oldTagInstanceIndex = tagInstanceIndices[index];
+		int numMoved = size - index - 1;
+		if (numMoved > 0) {
+			System.arraycopy(tagInstanceIndices, index+1, tagInstanceIndices, index, numMoved);
+			System.arraycopy(startPoints, index+1, startPoints, index, numMoved);
+			System.arraycopy(endPoints, index+1, endPoints, index, numMoved);
+		}
+		size--;
+		modCount++;
+		release(oldTagInstanceIndex);
+		compactTagInstances();
+		return oldReference;
+	}
+
+	/**
+	 * Removes all matching references in a single compacting pass.
+	 * @see java.util.AbstractCollection#removeAll(java.util.Collection)
+	 */
+	@Override
+	public boolean removeAll(Collection<?> c) {
+		int newSize = 0;
+		for (int index=0; index<size; index++) {
+			if (!c.contains(get(index))) {
+				tagInstanceIndices[newSize] = tagInstanceIndices[index];
+				startPoints[newSize] = startPoints[index];
+				endPoints[newSize] = endPoints[index];
+				newSize++;
+			}
+			else {
+				release(tagInstanceIndices[index]);
+			}
+		}
+		boolean modified = (newSize != size);
+		if (modified) {
+			size = newSize;
+			modCount++;
+			compactTagInstances();
+		}
+		return modified;
+	}
+
+	/**
+	 * Removes the given rows in a single compacting pass without creating 
+	 * views, see {@link TagReferenceIndex}.
+	 * @param newRows old row -> new row or <code>-1</code> for removed rows, 
+	 * the new rows of the remaining rows are ascending without gaps
+	 * @param newSize the number of remaining rows
+	 */
+	void removeRows(int[] newRows, int newSize) {
+		for (int index=0; index<size; index++) {
+			int newIndex = newRows[index];
+			if (newIndex != -1) {
+				tagInstanceIndices[newIndex] = tagInstanceIndices[index];
+				startPoints[newIndex] = startPoints[index];
+				endPoints[newIndex] = endPoints[index];
+			}
+			else {
+				release(tagInstanceIndices[index]);
+			}
+		}
+		if (newSize != size) {
+			size = newSize;
+			modCount++;
+			compactTagInstances();
+		}
+	}
+
+	@Override
+	public void clear() {
+		size = 0;
+		tagInstances.clear();
+		Arrays.fill(tagInstanceReferenceCounts, 0);
+		releasedTagInstances = 0;
+		tagInstanceIndexByID.clear();
+		modCount++;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the target shared by all references of this list or
+	 * <code>null</code> if the list has been empty so far
+	 */
+	public URI getTarget() {
+		return target;
+	}
+
+	private void checkIndex(int index) {
+		if ((index < 0) || (index >= size)) {
+			throw new IndexOutOfBoundsException(
+				"Index: " + index + ", Size: " + size);
+		}
+	}
+}
@@ -18,9 +18,14 @@
  */
 package de.catma.document.standoffmarkup.usermarkup;
 
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.Comparator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import de.catma.document.Range;
 import de.catma.tag.PropertyDefinition;
@@ -28,7 +33,18 @@ import de.catma.tag.TagDefinition;
 import de.catma.tag.TagInstance;
 
 /**
- * A {@link Range} of text referenced by a {@link TagInstance}.
+ * A {@link Range} of text referenced by a {@link TagInstance}. 
+ * <p>
+ * TagReferences are immutable and equal if they have the same TagInstance 
+ * (by uuid), the same range and the same target. Value equality is needed 
+ * because a {@link CompactTagReferenceList} does not store the added references
+ * but creates new ones on each access, a reference obtained from such a list 
+ * has to match itself when it gets removed later on. As a consequence two
+ * references of the same instance to the same range count as one in hash 
+ * based collections and {@link UserMarkupCollection#removeTagReferences(java.util.List) removal} 
+ * removes all of them. Such duplicates do not carry any information, an 
+ * instance either references a range or it does not.
+ * </p>
  * 
  * @author marco.petris@web.de
  *
@@ -46,30 +62,122 @@ public class TagReference {
 		 */
 		@Override
 		public int compare(TagReference o1, TagReference o2) {
-			return o1.getRange().compareTo(o2.getRange());
+			if (o1.startPoint != o2.startPoint) {
+				return (o1.startPoint < o2.startPoint) ? -1 : 1;
+			}
+			if (o1.endPoint != o2.endPoint) {
+				return (o1.endPoint < o2.endPoint) ? -1 : 1;
+			}
+			return 0;
 		}
 	}
 	
+	/**
+	 * A weakly held target that knows its key in {@link TagReference#TARGETS}.
+	 */
+	private static class TargetReference extends WeakReference<URI> {
+		private final String uri;
+
+		private TargetReference(String uri, URI target, ReferenceQueue<URI> queue) {
+			super(target, queue);
+			this.uri = uri;
+		}
+	}
+	
+	// all references of a collection point to the same source document, 
+	// so targets are parsed once and shared afterwards. The targets are held 
+	// weakly, the entries of collected targets get removed on the next miss.
+	// Lookups do not lock, so concurrent loads of collections do not contend.
+	private static final ConcurrentMap<String, TargetReference> TARGETS = 
+			new ConcurrentHashMap<String, TargetReference>();
+	private static final ReferenceQueue<URI> COLLECTED_TARGETS = 
+			new ReferenceQueue<URI>();
+	
 	private TagInstance tagInstance;
-	private Range range;
+	// the range is kept unboxed, Range objects are created on demand only 
+	private int startPoint;
+	private int endPoint;
 	private URI target;
 
 	/**
 	 * @param tagInstance the referencing instance
-	 * @param uri a reference to the source document
+	 * @param uri a reference to the source document, the parsed target is
+	 * shared with all other references to the same document, see {@link #getTarget(String)}
 	 * @param range the referenced range of text
 	 * @throws URISyntaxException
 	 */
 	public TagReference(TagInstance tagInstance, String uri, Range range) 
 			throws URISyntaxException {
+		this(tagInstance, getTarget(uri), range);
+	}
+	
+	/**
+	 * @param tagInstance the referencing instance
+	 * @param target an already parsed reference to the source document
+	 * @param range the referenced range of text
+	 */
+	public TagReference(TagInstance tagInstance, URI target, Range range) {
+		this(tagInstance, target, range.getStartPoint(), range.getEndPoint());
+	}
+	
+	/**
+	 * Creates a reference without parsing the target.
+	 * @param tagInstance the referencing instance
+	 * @param target a reference to the source document
+	 * @param startPoint the start point of the referenced text
+	 * @param endPoint the end point of the referenced text
+	 */
+	TagReference(TagInstance tagInstance, URI target, int startPoint, int endPoint) {
 		this.tagInstance = tagInstance;
-		this.target = new URI(uri);
-		this.range = range;
+		this.target = target;
+		this.startPoint = startPoint;
+		this.endPoint = endPoint;
+	}
+	
+	/**
+	 * @param uri a reference to a source document
+	 * @return the canonical parsed target for the given reference, the reference
+	 * gets parsed only if its target is not in use already 
+	 * @throws URISyntaxException
+	 */
+	public static URI getTarget(String uri) throws URISyntaxException {
+		TargetReference targetReference = TARGETS.get(uri);
+		URI target = (targetReference == null) ? null : targetReference.get();
+		if (target != null) {
+			return target;
+		}
+		
+		removeCollectedTargets();
+		URI newTarget = new URI(uri);
+		TargetReference newTargetReference = 
+				new TargetReference(uri, newTarget, COLLECTED_TARGETS);
+		while (true) {
+			targetReference = TARGETS.putIfAbsent(uri, newTargetReference);
+			if (targetReference == null) {
+				return newTarget;
+			}
+			target = targetReference.get();
+			if (target != null) {
+				// another thread has been faster
+				return target;
+			}
+			if (TARGETS.replace(uri, targetReference, newTargetReference)) {
+				return newTarget;
+			}
+		}
+	}
+	
+	private static void removeCollectedTargets() {
+		Reference<? extends URI> collected;
+		while ((collected = COLLECTED_TARGETS.poll()) != null) {
+			// a new entry for the same uri stays
+			TARGETS.remove(((TargetReference)collected).uri, collected);
+		}
 	}
 	
 	@Override
 	public String toString() {
-		return tagInstance + "@" + target + "#" + range;
+		return tagInstance + "@" + target + "#" + getRange();
 	}
 
 	/**
@@ -90,7 +198,21 @@ public class TagReference {
 	 * @return referenced text
 	 */
 	public Range getRange() {
-		return range;
+		return new Range(startPoint, endPoint);
+	}
+	
+	/**
+	 * @return the start point of the referenced text
+	 */
+	public int getStartPoint() {
+		return startPoint;
+	}
+	
+	/**
+	 * @return the end point of the referenced text
+	 */
+	public int getEndPoint() {
+		return endPoint;
 	}
 	
 	/**
@@ -99,8 +221,7 @@ public class TagReference {
 	 */
 	public String getColor() {
 		return tagInstance.getSystemProperty(
-			tagInstance.getTagDefinition().getPropertyDefinitionByName(
-					PropertyDefinition.SystemPropertyName.catma_displaycolor.name()).getUuid()).
+			tagInstance.getTagDefinition().getDisplayColorPropertyDefinition().getUuid()).
 				getPropertyValueList().getFirstValue();
 	}
 	
@@ -117,4 +238,29 @@ public class TagReference {
 	public URI getTarget() {
 		return target;
 	}
+	
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + tagInstance.getUuid().hashCode();
+		result = prime * result + startPoint;
+		result = prime * result + endPoint;
+		return result;
+	}
+	
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof TagReference)) {
+			return false;
+		}
+		TagReference other = (TagReference) obj;
+		return (startPoint == other.startPoint)
+				&& (endPoint == other.endPoint)
+				&& tagInstance.getUuid().equals(other.tagInstance.getUuid())
+				&& target.equals(other.target);
+	}
 }
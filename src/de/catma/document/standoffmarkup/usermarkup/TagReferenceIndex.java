@@ -0,0 +1,869 @@
+/*   
+ *   CATMA Computer Aided Text Markup and Analysis
+ *   
+ *   Copyright (C) 2009-2013  University Of Hamburg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.catma.document.standoffmarkup.usermarkup;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import de.catma.document.Range;
+import de.catma.tag.TagDefinition;
+import de.catma.tag.TagInstance;
+import de.catma.tag.TagLibrary;
+import de.catma.tag.TagsetDefinition;
+
+/**
+ * The lookup indexes of a {@link UserMarkupCollection} by {@link Range}, by 
+ * {@link TagInstance} and by {@link TagDefinition}. The indexes 
+ * do not hold any references but int row indices into the backing list of the
+ * collection. The range and the TagDefinition index are arrays of rows sorted 
+ * by their keys, rows with equal keys are kept in the order of the backing list.
+ * <p>
+ * The TagDefinition index is sorted by the rank of the TagDefinitions in 
+ * {@link TagsetDefinition#getTagDefinitionsInHierarchyOrder() hierarchy order}
+ * of the collection's {@link TagLibrary}, so the rows of a TagDefinition, of its 
+ * subtree and of a whole TagsetDefinition are a contiguous range each. Counts 
+ * are the difference of two binary searches and run in O(log n), lookups in
+ * O(log n + k). TagDefinitions that are not part of the library are ranked
+ * behind the others on first sight. The ranks get rebuilt and the rows 
+ * re-sorted lazily after the {@link TagLibrary#getHierarchyVersion() hierarchy} 
+ * has changed.
+ * </p>
+ * <p>
+ * The TagInstance index is a hash map from the uuid of an instance to its rows
+ * in ascending order, lookups by instance run in O(1) plus the number of 
+ * references of the instance. The map is kept up to date on each append.
+ * </p>
+ * <p>
+ * The range index is a list of runs, each run is an implicit interval tree 
+ * over a contiguous block of rows. The rows of a run sorted by range form a 
+ * balanced search tree with the middle of each subarray as the root of the 
+ * subtree and a parallel array holds the maximum end point of each subtree.
+ * Appended rows form a new run that gets merged with the newest runs as long 
+ * as these are not larger than the new run (logarithmic method), so there are 
+ * at most log n + 1 runs of geometrically shrinking sizes and appending costs 
+ * O(log n) amortized. Overlap queries run in O(log^2 n + k log log n) with k 
+ * being the number of matches, or in O(log n + k) if there is a single run, 
+ * e. g. after a {@link #merge()} or a removal.
+ * </p>
+ * <p>
+ * Rows appended to the backing list stay an unsorted tail of pending rows for 
+ * the TagDefinition index. The tail gets merged into the sorted array in a 
+ * single pass as soon as it grows beyond the square root of the number of 
+ * indexed rows, so appending costs O(sqrt(n)) amortized for this index and 
+ * its lookups scan the tail linearly. Removals shift the rows of the backing 
+ * list and get compacted in a single linear pass.
+ * </p>
+ * The backing list is owned by the collection and this index, it must not be 
+ * shared with other code since {@link #removeAll(Collection) removals} compact 
+ * it in place. The collection copies the list it has been built with.
+ * This class is not thread safe. Queries modify the index only to re-sort 
+ * the TagDefinition index after a change of the hierarchy, modifications of 
+ * the backing list have to be reported by the collection.
+ *
+ * @author marco.petris@web.de
+ *
+ */
+class TagReferenceIndex {
+	
+	private static final int MIN_PENDING_ROWS = 32;
+	private static final int[] NO_ROWS = new int[0];
+	private static final Comparator<TagReference> RANGE_COMPARATOR = 
+			new TagReference.RangeComparator();
+	
+	private static interface RowComparator {
+		int compare(int row1, int row2);
+	}
+	
+	/**
+	 * The rows of a TagInstance in ascending order.
+	 */
+	private static class TagInstanceRows {
+		private int[] rows;
+		private int size;
+		
+		private TagInstanceRows() {
+			// most instances have a single reference
+			this.rows = new int[1];
+			this.size = 0;
+		}
+		
+		private void add(int row) {
+			if (size == rows.length) {
+				int[] newRows = new int[size*2];
+				System.arraycopy(rows, 0, newRows, 0, size);
+				rows = newRows;
+			}
+			rows[size++] = row;
+		}
+	}
+	
+	/**
+	 * A run of the range index: rows sorted by range and the maximum end 
+	 * points of the subtrees of the implicit interval tree.
+	 */
+	private static class RangeRun {
+		private final int[] rows;
+		private final int[] maxEndPoints;
+		
+		private RangeRun(int[] rows) {
+			this.rows = rows;
+			this.maxEndPoints = new int[rows.length];
+		}
+	}
+	
+	private final List<TagReference> tagReferences;
+	// allocation free access to the columns or null
+	private final CompactTagReferenceList compactTagReferences;
+	
+	// the runs of the range index, the oldest and largest run first
+	private final List<RangeRun> rangeRuns;
+	// rows [0, rangeIndexedSize) are part of the range index
+	private int rangeIndexedSize;
+	
+	// rows [0, indexedSize) are part of the sorted TagDefinition index, 
+	// the others are pending
+	private int indexedSize;
+	private int[] rowsByTagDefinition;
+	
+	// TagInstance uuid -> rows of the instance
+	private final Map<String,TagInstanceRows> rowsByTagInstance;
+	// rows [0, tagInstanceIndexedSize) are part of the TagInstance index
+	private int tagInstanceIndexedSize;
+	
+	// the library that defines the order of the TagDefinition index or null
+	private TagLibrary tagLibrary;
+	// TagDefinition uuid -> rank, null if the ranks need to be rebuilt
+	private Map<String,Integer> ranksByTagDefinitionID;
+	// TagsetDefinition uuid -> rank of its first TagDefinition
+	private Map<String,Integer> firstRanksByTagsetDefinitionID;
+	// the rank of the next TagDefinition that is not part of the library
+	private int nextRank;
+	private int rankedHierarchyVersion;
+	
+	private final RowComparator rangeComparator = new RowComparator() {
+		@Override
+		public int compare(int row1, int row2) {
+			int startPoint1 = getStartPoint(row1);
+			int startPoint2 = getStartPoint(row2);
+			if (startPoint1 != startPoint2) {
+				return (startPoint1 < startPoint2) ? -1 : 1;
+			}
+			int endPoint1 = getEndPoint(row1);
+			int endPoint2 = getEndPoint(row2);
+			if (endPoint1 != endPoint2) {
+				return (endPoint1 < endPoint2) ? -1 : 1;
+			}
+			return 0;
+		}
+	};
+	
+	private final RowComparator tagDefinitionComparator = new RowComparator() {
+		@Override
+		public int compare(int row1, int row2) {
+			int rank1 = getTagDefinitionRank(row1);
+			int rank2 = getTagDefinitionRank(row2);
+			if (rank1 != rank2) {
+				return (rank1 < rank2) ? -1 : 1;
+			}
+			return 0;
+		}
+	};
+	
+	/**
+	 * Builds the indexes over the current content of the given list.
+	 * @param tagReferences the backing list of a collection, owned by the 
+	 * collection and this index
+	 * @param tagLibrary the library of the collection or <code>null</code>
+	 */
+	TagReferenceIndex(List<TagReference> tagReferences, TagLibrary tagLibrary) {
+		this.tagReferences = tagReferences;
+		this.tagLibrary = tagLibrary;
+		this.compactTagReferences = 
+			(tagReferences instanceof CompactTagReferenceList) ?
+				(CompactTagReferenceList)tagReferences : null;
+		this.rowsByTagInstance = new HashMap<String, TagInstanceRows>();
+		this.rangeRuns = new ArrayList<RangeRun>();
+		rebuild();
+	}
+	
+	/**
+	 * Discards the indexes and rebuilds them over the current content of the 
+	 * backing list.
+	 */
+	void rebuild() {
+		rangeRuns.clear();
+		rangeIndexedSize = 0;
+		indexedSize = 0;
+		rowsByTagDefinition = NO_ROWS;
+		rowsByTagInstance.clear();
+		tagInstanceIndexedSize = 0;
+		ranksByTagDefinitionID = null;
+		merge();
+	}
+	
+	/**
+	 * @param tagLibrary the new library of the collection, the TagDefinition 
+	 * index gets re-sorted on the next access
+	 */
+	void setTagLibrary(TagLibrary tagLibrary) {
+		this.tagLibrary = tagLibrary;
+		this.ranksByTagDefinitionID = null;
+	}
+	
+	/**
+	 * Ranks the TagDefinitions of the library in hierarchy order and re-sorts
+	 * the TagDefinition index if the hierarchy has changed since the last 
+	 * ranking. The ranks of the TagDefinitions of a TagsetDefinition 
+	 * are its offset plus their positions in hierarchy order.
+	 */
+	private void ensureHierarchyOrder() {
+		if ((ranksByTagDefinitionID != null) 
+				&& ((tagLibrary == null) 
+					|| (tagLibrary.getHierarchyVersion() == rankedHierarchyVersion))) {
+			return;
+		}
+		ranksByTagDefinitionID = new HashMap<String, Integer>();
+		firstRanksByTagsetDefinitionID = new HashMap<String, Integer>();
+		int rank = 0;
+		if (tagLibrary != null) {
+			rankedHierarchyVersion = tagLibrary.getHierarchyVersion();
+			for (TagsetDefinition tagsetDefinition : tagLibrary) {
+				firstRanksByTagsetDefinitionID.put(tagsetDefinition.getUuid(), rank);
+				for (TagDefinition tagDefinition 
+						: tagsetDefinition.getTagDefinitionsInHierarchyOrder()) {
+					// a uuid that the library assigns to another TagsetDefinition
+					// leaves a gap
+					if (tagLibrary.getTagsetDefinition(tagDefinition) == tagsetDefinition) {
+						ranksByTagDefinitionID.put(tagDefinition.getUuid(), rank);
+					}
+					rank++;
+				}
+			}
+		}
+		nextRank = rank;
+		sort(rowsByTagDefinition, tagDefinitionComparator);
+	}
+	
+	/**
+	 * Has to be called after references have been appended to the backing
+	 * list, adds them to the range index as a new run and merges the pending 
+	 * rows of the TagDefinition index if there are too many of them.
+	 */
+	void added() {
+		indexTagInstances();
+		indexRanges();
+		int pendingRows = tagReferences.size() - indexedSize;
+		if (pendingRows > Math.max(MIN_PENDING_ROWS, (int)Math.sqrt(indexedSize))) {
+			merge();
+		}
+	}
+	
+	/**
+	 * Merges all runs of the range index into a single run and all pending 
+	 * rows into the TagDefinition index.
+	 */
+	void merge() {
+		indexTagInstances();
+		indexRanges();
+		mergeRangeRuns();
+		int size = tagReferences.size();
+		if (size == indexedSize) {
+			return;
+		}
+		int[] pendingRows = new int[size-indexedSize];
+		for (int i=0; i<pendingRows.length; i++) {
+			pendingRows[i] = indexedSize+i;
+		}
+		ensureHierarchyOrder();
+		sort(pendingRows, tagDefinitionComparator);
+		rowsByTagDefinition = merge(rowsByTagDefinition, pendingRows, tagDefinitionComparator);
+		indexedSize = size;
+	}
+	
+	/**
+	 * Adds the rows that are not part of the range index yet as a new run. 
+	 * The newest runs get merged into the new run as long as they are not 
+	 * larger than the new run, so each row takes part in at most log n merges.
+	 */
+	private void indexRanges() {
+		int size = tagReferences.size();
+		if (size == rangeIndexedSize) {
+			return;
+		}
+		int[] rows = new int[size-rangeIndexedSize];
+		for (int i=0; i<rows.length; i++) {
+			rows[i] = rangeIndexedSize+i;
+		}
+		sort(rows, rangeComparator);
+		int runCount = rangeRuns.size();
+		while ((runCount > 0) 
+				&& (rangeRuns.get(runCount-1).rows.length <= rows.length)) {
+			rows = merge(rangeRuns.remove(--runCount).rows, rows, rangeComparator);
+		}
+		rangeRuns.add(createRangeRun(rows));
+		rangeIndexedSize = size;
+	}
+	
+	/**
+	 * Merges all runs of the range index into a single run, the runs shrink 
+	 * geometrically so merging the newest runs first takes linear time.
+	 */
+	private void mergeRangeRuns() {
+		int runCount = rangeRuns.size();
+		if (runCount > 1) {
+			int[] rows = rangeRuns.remove(--runCount).rows;
+			while (runCount > 0) {
+				rows = merge(rangeRuns.remove(--runCount).rows, rows, rangeComparator);
+			}
+			rangeRuns.add(createRangeRun(rows));
+		}
+	}
+	
+	/**
+	 * Adds the rows that are not part of the TagInstance index yet.
+	 */
+	private void indexTagInstances() {
+		int size = tagReferences.size();
+		for (int row=tagInstanceIndexedSize; row<size; row++) {
+			String tagInstanceID = getTagInstance(row).getUuid();
+			TagInstanceRows tagInstanceRows = rowsByTagInstance.get(tagInstanceID);
+			if (tagInstanceRows == null) {
+				tagInstanceRows = new TagInstanceRows();
+				rowsByTagInstance.put(tagInstanceID, tagInstanceRows);
+			}
+			tagInstanceRows.add(row);
+		}
+		tagInstanceIndexedSize = size;
+	}
+	
+	/**
+	 * @param sortedRows rows sorted by the given comparator
+	 * @param sortedPendingRows rows sorted by the given comparator, greater 
+	 * than all rows of the sorted rows
+	 * @param comparator
+	 * @return all rows sorted by the given comparator, equal rows in 
+	 * ascending order
+	 */
+	private int[] merge(
+			int[] sortedRows, int[] sortedPendingRows, RowComparator comparator) {
+		int[] result = new int[sortedRows.length + sortedPendingRows.length];
+		int i = 0;
+		int j = 0;
+		int k = 0;
+		while ((i < sortedRows.length) && (j < sortedPendingRows.length)) {
+			// equal keys: the smaller row comes from the sorted rows
+			if (comparator.compare(sortedPendingRows[j], sortedRows[i]) < 0) {
+				result[k++] = sortedPendingRows[j++];
+			}
+			else {
+				result[k++] = sortedRows[i++];
+			}
+		}
+		while (i < sortedRows.length) {
+			result[k++] = sortedRows[i++];
+		}
+		while (j < sortedPendingRows.length) {
+			result[k++] = sortedPendingRows[j++];
+		}
+		return result;
+	}
+	
+	/**
+	 * Stable merge sort.
+	 * @param rows
+	 * @param comparator
+	 */
+	private static void sort(int[] rows, RowComparator comparator) {
+		if (rows.length > 1) {
+			sort(rows.clone(), rows, 0, rows.length, comparator);
+		}
+	}
+	
+	/**
+	 * Sorts the given range of the source into the target.
+	 * @param source 
+	 * @param target the same content as the source within the given range
+	 * @param from 
+	 * @param to
+	 * @param comparator
+	 */
+	private static void sort(
+			int[] source, int[] target, int from, int to, RowComparator comparator) {
+		if (to - from < 8) {
+			// insertion sort for short ranges
+			for (int i=from+1; i<to; i++) {
+				int row = target[i];
+				int j = i;
+				while ((j > from) && (comparator.compare(target[j-1], row) > 0)) {
+					target[j] = target[j-1];
+					j--;
+				}
+				target[j] = row;
+			}
+			return;
+		}
+		
+		int middle = (from + to) >>> 1;
+		// source and target switch roles on each level
+		sort(target, source, from, middle, comparator);
+		sort(target, source, middle, to, comparator);
+		
+		int i = from;
+		int j = middle;
+		for (int k=from; k<to; k++) {
+			if ((j >= to) 
+					|| ((i < middle) && (comparator.compare(source[i], source[j]) <= 0))) {
+				target[k] = source[i++];
+			}
+			else {
+				target[k] = source[j++];
+			}
+		}
+	}
+	
+	/**
+	 * @param rows rows sorted by range
+	 * @return a run over the given rows with up to date maximum end points
+	 */
+	private RangeRun createRangeRun(int[] rows) {
+		RangeRun rangeRun = new RangeRun(rows);
+		updateMaxEndPoints(rangeRun, 0, rows.length);
+		return rangeRun;
+	}
+	
+	/**
+	 * @param rangeRun
+	 * @param from
+	 * @param to
+	 * @return the maximum end point of the subtree [from,to)
+	 */
+	private int updateMaxEndPoints(RangeRun rangeRun, int from, int to) {
+		if (from >= to) {
+			return Integer.MIN_VALUE;
+		}
+		int middle = (from + to) >>> 1;
+		int maxEndPoint = Math.max(
+			getEndPoint(rangeRun.rows[middle]),
+			Math.max(
+				updateMaxEndPoints(rangeRun, from, middle), 
+				updateMaxEndPoints(rangeRun, middle+1, to)));
+		rangeRun.maxEndPoints[middle] = maxEndPoint;
+		return maxEndPoint;
+	}
+	
+	/**
+	 * Removes all references contained in the given collection from the 
+	 * backing list and compacts the indexes. The rows to be removed are looked
+	 * up via the TagInstance index and compared column by column, so the 
+	 * references of the backing list do not get accessed, and the backing list 
+	 * gets compacted in a single pass.
+	 * @param toBeRemoved
+	 * @return <code>true</code> if the backing list has been modified
+	 */
+	boolean removeAll(Collection<TagReference> toBeRemoved) {
+		indexTagInstances();
+		indexRanges();
+		int size = tagReferences.size();
+		// old row -> new row or -1 for removed rows 
+		int[] newRows = new int[size];
+		boolean modified = false;
+		for (TagReference tagReference : toBeRemoved) {
+			TagInstanceRows tagInstanceRows = 
+					rowsByTagInstance.get(tagReference.getTagInstanceID());
+			if (tagInstanceRows != null) {
+				for (int i=0; i<tagInstanceRows.size; i++) {
+					int row = tagInstanceRows.rows[i];
+					if ((newRows[row] != -1) 
+							&& (getStartPoint(row) == tagReference.getStartPoint())
+							&& (getEndPoint(row) == tagReference.getEndPoint())
+							&& getTarget(row).equals(tagReference.getTarget())) {
+						newRows[row] = -1;
+						modified = true;
+					}
+				}
+			}
+		}
+		if (!modified) {
+			return false;
+		}
+		// the runs get compacted as a single run, 
+		// merging has to access the rows before the backing list gets compacted
+		mergeRangeRuns();
+		
+		int newSize = 0;
+		int newIndexedSize = 0;
+		for (int row=0; row<size; row++) {
+			if (newRows[row] != -1) {
+				newRows[row] = newSize++;
+				if (row < indexedSize) {
+					newIndexedSize++;
+				}
+			}
+		}
+		
+		if (compactTagReferences != null) {
+			compactTagReferences.removeRows(newRows, newSize);
+		}
+		else {
+			for (int row=0; row<size; row++) {
+				int newRow = newRows[row];
+				if ((newRow != -1) && (newRow != row)) {
+					tagReferences.set(newRow, tagReferences.get(row));
+				}
+			}
+			tagReferences.subList(newSize, size).clear();
+		}
+		
+		rangeRuns.set(0, createRangeRun(compact(rangeRuns.get(0).rows, newRows, newSize)));
+		rangeIndexedSize = newSize;
+		rowsByTagDefinition = compact(rowsByTagDefinition, newRows, newIndexedSize);
+		indexedSize = newIndexedSize;
+		
+		Iterator<TagInstanceRows> iterator = rowsByTagInstance.values().iterator();
+		while (iterator.hasNext()) {
+			TagInstanceRows tagInstanceRows = iterator.next();
+			int k = 0;
+			for (int i=0; i<tagInstanceRows.size; i++) {
+				int newRow = newRows[tagInstanceRows.rows[i]];
+				if (newRow != -1) {
+					tagInstanceRows.rows[k++] = newRow;
+				}
+			}
+			if (k == 0) {
+				iterator.remove();
+			}
+			tagInstanceRows.size = k;
+		}
+		tagInstanceIndexedSize = newSize;
+		return true;
+	}
+	
+	private int[] compact(int[] rows, int[] newRows, int newLength) {
+		int[] result = new int[newLength];
+		int k = 0;
+		for (int row : rows) {
+			if (newRows[row] != -1) {
+				result[k++] = newRows[row];
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Overlap is defined as in {@link Range#hasOverlappingRange(Range)}.
+	 * Each run gets queried in O(log n + k), the ordered matches of 
+	 * neighbouring runs get merged pairwise.
+	 * @param range the range to test
+	 * @return all references that overlap the given range, ordered by their ranges
+	 */
+	List<TagReference> getOverlappingTagReferences(Range range) {
+		int startPoint = range.getStartPoint();
+		int endPoint = range.getEndPoint();
+		List<List<TagReference>> matchesByRun = 
+				new ArrayList<List<TagReference>>(rangeRuns.size());
+		for (RangeRun rangeRun : rangeRuns) {
+			List<TagReference> matches = new ArrayList<TagReference>();
+			collectOverlapping(
+				rangeRun, 0, rangeRun.rows.length, startPoint, endPoint, matches);
+			matchesByRun.add(matches);
+		}
+		if (matchesByRun.isEmpty()) {
+			return new ArrayList<TagReference>();
+		}
+		
+		// log log n rounds, each match takes part in one merge per round 
+		while (matchesByRun.size() > 1) {
+			List<List<TagReference>> mergedMatches = 
+				new ArrayList<List<TagReference>>((matchesByRun.size()+1)/2);
+			for (int i=0; i<matchesByRun.size(); i+=2) {
+				if (i+1 < matchesByRun.size()) {
+					mergedMatches.add(
+						merge(matchesByRun.get(i), matchesByRun.get(i+1)));
+				}
+				else {
+					mergedMatches.add(matchesByRun.get(i));
+				}
+			}
+			matchesByRun = mergedMatches;
+		}
+		return matchesByRun.get(0);
+	}
+	
+	/**
+	 * @param matches ordered by range
+	 * @param newerMatches ordered by range, rows greater than all rows of 
+	 * the matches
+	 * @return both lists merged, equal ranges in the order of the backing list
+	 */
+	private List<TagReference> merge(
+			List<TagReference> matches, List<TagReference> newerMatches) {
+		List<TagReference> result = 
+			new ArrayList<TagReference>(matches.size()+newerMatches.size());
+		int i = 0;
+		int j = 0;
+		while ((i < matches.size()) && (j < newerMatches.size())) {
+			if (RANGE_COMPARATOR.compare(newerMatches.get(j), matches.get(i)) < 0) {
+				result.add(newerMatches.get(j++));
+			}
+			else {
+				result.add(matches.get(i++));
+			}
+		}
+		result.addAll(matches.subList(i, matches.size()));
+		result.addAll(newerMatches.subList(j, newerMatches.size()));
+		return result;
+	}
+	
+	private void collectOverlapping(
+			RangeRun rangeRun, int from, int to, int startPoint, int endPoint, 
+			List<TagReference> result) {
+		// iterative descent to the right, recursion to the left keeps the
+		// result ordered
+		while (from < to) {
+			int middle = (from + to) >>> 1;
+			if (rangeRun.maxEndPoints[middle] <= startPoint) {
+				return;
+			}
+			
+			collectOverlapping(rangeRun, from, middle, startPoint, endPoint, result);
+			
+			int row = rangeRun.rows[middle];
+			if (getStartPoint(row) >= endPoint) {
+				// all rows of the right subtree start even later
+				return;
+			}
+			if (getEndPoint(row) > startPoint) {
+				result.add(tagReferences.get(row));
+			}
+			from = middle+1;
+		}
+	}
+	
+	/**
+	 * @param result receives the references of the given TagInstance in the 
+	 * order of the backing list
+	 * @param tagInstanceID
+	 */
+	void addTagReferencesByTagInstance(
+			List<TagReference> result, String tagInstanceID) {
+		TagInstanceRows tagInstanceRows = rowsByTagInstance.get(tagInstanceID);
+		if (tagInstanceRows != null) {
+			for (int i=0; i<tagInstanceRows.size; i++) {
+				result.add(tagReferences.get(tagInstanceRows.rows[i]));
+			}
+		}
+	}
+	
+	/**
+	 * @param result receives the references of the given TagDefinition, 
+	 * the references of a single TagDefinition are in the order of the 
+	 * backing list, subtrees are in hierarchy order
+	 * @param tagDefinitionID
+	 * @param withChildReferences <code>true</code> to include the references
+	 * of the whole subtree of the TagDefinition
+	 */
+	void addTagReferencesByTagDefinition(
+			List<TagReference> result, String tagDefinitionID, 
+			boolean withChildReferences) {
+		ensureHierarchyOrder();
+		int rank = getRank(tagDefinitionID);
+		addTagReferences(
+			result, rank, 
+			withChildReferences ? getSubtreeEndRank(tagDefinitionID, rank) : rank);
+	}
+	
+	/**
+	 * @param tagDefinitionID
+	 * @param withChildReferences <code>true</code> to include the references
+	 * of the whole subtree of the TagDefinition
+	 * @return the number of references of the given TagDefinition
+	 */
+	int getTagReferenceCountByTagDefinition(
+			String tagDefinitionID, boolean withChildReferences) {
+		ensureHierarchyOrder();
+		int rank = getRank(tagDefinitionID);
+		return addTagReferences(
+			null, rank, 
+			withChildReferences ? getSubtreeEndRank(tagDefinitionID, rank) : rank);
+	}
+	
+	/**
+	 * @param result receives the references of the TagDefinitions of the 
+	 * given TagsetDefinition of the library in hierarchy order
+	 * @param tagsetDefinitionID
+	 */
+	void addTagReferencesByTagsetDefinition(
+			List<TagReference> result, String tagsetDefinitionID) {
+		ensureHierarchyOrder();
+		Integer firstRank = firstRanksByTagsetDefinitionID.get(tagsetDefinitionID);
+		if (firstRank != null) {
+			int size = tagLibrary.getTagsetDefinition(
+				tagsetDefinitionID).getTagDefinitionsInHierarchyOrder().size();
+			if (size > 0) {
+				addTagReferences(result, firstRank, firstRank+size-1);
+			}
+		}
+	}
+	
+	/**
+	 * @param tagDefinitionID
+	 * @param rank the rank of the TagDefinition
+	 * @return the rank of the last TagDefinition of the subtree of the 
+	 * given TagDefinition
+	 */
+	private int getSubtreeEndRank(String tagDefinitionID, int rank) {
+		if (tagLibrary != null) {
+			TagDefinition tagDefinition = tagLibrary.getTagDefinition(tagDefinitionID);
+			if (tagDefinition != null) {
+				return rank + tagLibrary.getChildren(tagDefinition).size();
+			}
+		}
+		return rank;
+	}
+	
+	/**
+	 * @param result receives the references with ranks within the given 
+	 * range or <code>null</code> to count only
+	 * @param firstRank 
+	 * @param lastRank inclusive
+	 * @return the number of references with ranks within the given range
+	 */
+	private int addTagReferences(
+			List<TagReference> result, int firstRank, int lastRank) {
+		int from = lowerBound(firstRank);
+		int to = lowerBound(lastRank+1);
+		if (result != null) {
+			for (int i=from; i<to; i++) {
+				result.add(tagReferences.get(rowsByTagDefinition[i]));
+			}
+		}
+		int count = to - from;
+		int size = tagReferences.size();
+		for (int row=indexedSize; row<size; row++) {
+			int rank = getTagDefinitionRank(row);
+			if ((rank >= firstRank) && (rank <= lastRank)) {
+				if (result != null) {
+					result.add(tagReferences.get(row));
+				}
+				count++;
+			}
+		}
+		return count;
+	}
+	
+	/**
+	 * @param tagInstanceID
+	 * @return <code>true</code> if there is a reference of the given TagInstance
+	 */
+	boolean hasTagInstance(String tagInstanceID) {
+		return rowsByTagInstance.containsKey(tagInstanceID);
+	}
+	
+	/**
+	 * @param tagInstanceID
+	 * @return the first reference of the given TagInstance or <code>null</code>
+	 */
+	TagReference getFirstTagReference(String tagInstanceID) {
+		int row = getFirstRow(tagInstanceID);
+		return (row == -1) ? null : tagReferences.get(row);
+	}
+	
+	private int getFirstRow(String tagInstanceID) {
+		TagInstanceRows tagInstanceRows = rowsByTagInstance.get(tagInstanceID);
+		return (tagInstanceRows == null) ? -1 : tagInstanceRows.rows[0];
+	}
+	
+	/**
+	 * @param rank
+	 * @return the position of the first row of the TagDefinition index with a 
+	 * rank greater than or equal to the given rank
+	 */
+	private int lowerBound(int rank) {
+		int low = 0;
+		int high = rowsByTagDefinition.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (getTagDefinitionRank(rowsByTagDefinition[middle]) < rank) {
+				low = middle+1;
+			}
+			else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+	
+	private int getTagDefinitionRank(int row) {
+		return getRank(getTagInstance(row).getTagDefinition().getUuid());
+	}
+	
+	/**
+	 * @param tagDefinitionID
+	 * @return the rank of the given TagDefinition, TagDefinitions that are not 
+	 * part of the library get ranked on first sight
+	 */
+	private int getRank(String tagDefinitionID) {
+		Integer rank = ranksByTagDefinitionID.get(tagDefinitionID);
+		if (rank == null) {
+			rank = nextRank++;
+			ranksByTagDefinitionID.put(tagDefinitionID, rank);
+		}
+		return rank;
+	}
+	
+	/**
+	 * @return a non modifiable view of the distinct uuids of the 
+	 * TagInstances, {@link Set#contains(Object)} runs in O(1)
+	 */
+	Set<String> getTagInstanceIDs() {
+		return Collections.unmodifiableSet(rowsByTagInstance.keySet());
+	}
+	
+	private int getStartPoint(int row) {
+		return (compactTagReferences != null) ? 
+				compactTagReferences.getStartPoint(row) 
+				: tagReferences.get(row).getStartPoint();
+	}
+	
+	private int getEndPoint(int row) {
+		return (compactTagReferences != null) ? 
+				compactTagReferences.getEndPoint(row) 
+				: tagReferences.get(row).getEndPoint();
+	}
+	
+	private URI getTarget(int row) {
+		return (compactTagReferences != null) ? 
+				compactTagReferences.getTarget() 
+				: tagReferences.get(row).getTarget();
+	}
+	
+	private TagInstance getTagInstance(int row) {
+		return (compactTagReferences != null) ? 
+				compactTagReferences.getTagInstance(row) 
+				: tagReferences.get(row).getTagInstance();
+	}
+}
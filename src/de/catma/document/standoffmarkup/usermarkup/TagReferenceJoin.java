@@ -0,0 +1,341 @@
+/*
+ *   CATMA Computer Aided Text Markup and Analysis
+ *
+ *   Copyright (C) 2009-2013  University Of Hamburg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.catma.document.standoffmarkup.usermarkup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import de.catma.document.Range;
+
+/**
+ * A join of two lists of {@link TagReference}s that refer to the same
+ * {@link de.catma.document.source.SourceDocument}, e. g. the references of two
+ * {@link UserMarkupCollection}s or of two {@link de.catma.tag.TagDefinition}s.
+ * <p>
+ * Both sides get sorted by their {@link Range}s and are then merged by a
+ * sweep line, so a join runs in O((n+m) log(n+m) + k) instead of comparing
+ * every pair of references.
+ * </p>
+ *
+ * @author marco.petris@web.de
+ *
+ */
+public class TagReferenceJoin {
+
+	/**
+	 * The condition a pair of references has to meet to be part of the result.
+	 */
+	public static enum JoinPredicate {
+		/**
+		 * The ranges overlap, see {@link Range#hasOverlappingRange(Range)}.
+		 * The matching range is the overlapping range.
+		 */
+		OVERLAP,
+		/**
+		 * The range of the right reference lies within the range of the left
+		 * reference, see {@link Range#isInBetween(Range)}. The matching range
+		 * is the range of the right reference.
+		 */
+		CONTAINMENT,
+		/**
+		 * The ranges are adjacent to each other, see {@link Range#isAdjacentTo(Range)}.
+		 * The matching range is the single point both ranges share.
+		 */
+		ADJACENCY,
+		;
+	}
+
+	/**
+	 * Receives the pairs of a join.
+	 */
+	public static interface MatchHandler {
+		/**
+		 * @param left the reference of the left side
+		 * @param right the reference of the right side
+		 * @param range the matching range, see {@link JoinPredicate}
+		 */
+		public void match(TagReference left, TagReference right, Range range);
+	}
+
+	private static final Comparator<TagReference> END_POINT_COMPARATOR =
+			new Comparator<TagReference>() {
+		@Override
+		public int compare(TagReference o1, TagReference o2) {
+			if (o1.getEndPoint() == o2.getEndPoint()) {
+				return 0;
+			}
+			return (o1.getEndPoint() < o2.getEndPoint()) ? -1 : 1;
+		}
+	};
+
+	private JoinPredicate joinPredicate;
+
+	/**
+	 * @param joinPredicate the condition for matching pairs
+	 */
+	public TagReferenceJoin(JoinPredicate joinPredicate) {
+		this.joinPredicate = joinPredicate;
+	}
+
+	/**
+	 * Joins the references of the given collections.
+	 * @param left
+	 * @param right
+	 * @param matchHandler receives all matching pairs
+	 */
+	public void join(
+			UserMarkupCollection left, UserMarkupCollection right,
+			MatchHandler matchHandler) {
+		join(left.getTagReferences(), right.getTagReferences(), matchHandler);
+	}
+
+	/**
+	 * Joins the given lists of references. The lists are not modified.
+	 * @param left
+	 * @param right
+	 * @param matchHandler receives all matching pairs
+	 */
+	public void join(
+			List<TagReference> left, List<TagReference> right,
+			MatchHandler matchHandler) {
+
+		switch (joinPredicate) {
+		case OVERLAP : {
+			sweep(sortByRange(left), sortByRange(right), matchHandler);
+			break;
+		}
+		case CONTAINMENT : {
+			sweepContainment(sortByRange(left), sortByRange(right), matchHandler);
+			break;
+		}
+		case ADJACENCY : {
+			joinAdjacent(left, right, matchHandler);
+			break;
+		}
+		}
+	}
+
+	private TagReference[] sortByRange(List<TagReference> tagReferences) {
+		TagReference[] sorted =
+				tagReferences.toArray(new TagReference[tagReferences.size()]);
+		Arrays.sort(sorted, new TagReference.RangeComparator());
+		return sorted;
+	}
+
+	/**
+	 * Merges both sorted sides by their start points. Each side keeps the
+	 * references that are still active at the current start point,
+	 * a pair is tested when the later of the two references gets visited.
+	 * Active references overlap the visited reference unless it is empty, 
+	 * so the tests are bounded by the number of matches.
+	 *
+	 * @param left sorted by range
+	 * @param right sorted by range
+	 * @param matchHandler
+	 */
+	private void sweep(
+			TagReference[] left, TagReference[] right,
+			MatchHandler matchHandler) {
+
+		List<TagReference> activeLeft = new ArrayList<TagReference>();
+		List<TagReference> activeRight = new ArrayList<TagReference>();
+
+		int i = 0;
+		int j = 0;
+
+		while ((i < left.length) || (j < right.length)) {
+			if ((j >= right.length)
+					|| ((i < left.length)
+						&& (left[i].getStartPoint() <= right[j].getStartPoint()))) {
+				TagReference current = left[i++];
+
+				removeInactive(activeRight, current.getStartPoint());
+				for (TagReference candidate : activeRight) {
+					test(current, candidate, matchHandler);
+				}
+				activeLeft.add(current);
+			}
+			else {
+				TagReference current = right[j++];
+
+				removeInactive(activeLeft, current.getStartPoint());
+				for (TagReference candidate : activeLeft) {
+					test(candidate, current, matchHandler);
+				}
+				activeRight.add(current);
+			}
+		}
+	}
+
+	private void removeInactive(List<TagReference> active, int point) {
+		int size = active.size();
+		int index = 0;
+		while (index < size) {
+			int endPoint = active.get(index).getEndPoint();
+			if (endPoint <= point) {
+				// swap remove, the order of the active references is irrelevant
+				active.set(index, active.get(size-1));
+				active.remove(size-1);
+				size--;
+			}
+			else {
+				index++;
+			}
+		}
+	}
+
+	private void test(
+			TagReference left, TagReference right, MatchHandler matchHandler) {
+		int startPoint = Math.max(left.getStartPoint(), right.getStartPoint());
+		int endPoint = Math.min(left.getEndPoint(), right.getEndPoint());
+		if ((left.getStartPoint() < right.getEndPoint())
+				&& (right.getStartPoint() < left.getEndPoint())) {
+			matchHandler.match(left, right, new Range(startPoint, endPoint));
+		}
+	}
+	
+	/**
+	 * Merges both sorted sides by their start points. Only the left side 
+	 * keeps active references, ordered by their end points. Left references 
+	 * get visited before right references with the same start point, so a 
+	 * visited right reference lies within exactly those active left 
+	 * references that end at or behind its end point. Only these get visited, 
+	 * left references that end before the current start point get dropped.
+	 * This runs in O((n+m) log n + k).
+	 * 
+	 * @param left sorted by range
+	 * @param right sorted by range
+	 * @param matchHandler
+	 */
+	private void sweepContainment(
+			TagReference[] left, TagReference[] right,
+			MatchHandler matchHandler) {
+		
+		TreeMap<Integer, List<TagReference>> activeLeftByEndPoint = 
+				new TreeMap<Integer, List<TagReference>>();
+		
+		int i = 0;
+		
+		for (TagReference current : right) {
+			int startPoint = current.getStartPoint();
+			
+			// equal start points: the left references come first
+			while ((i < left.length) && (left[i].getStartPoint() <= startPoint)) {
+				TagReference tagReference = left[i++];
+				List<TagReference> active = 
+						activeLeftByEndPoint.get(tagReference.getEndPoint());
+				if (active == null) {
+					active = new ArrayList<TagReference>(1);
+					activeLeftByEndPoint.put(tagReference.getEndPoint(), active);
+				}
+				active.add(tagReference);
+			}
+			
+			activeLeftByEndPoint.headMap(startPoint, false).clear();
+			
+			// created once per contained reference and only if there is a match
+			Range range = null;
+			for (Map.Entry<Integer, List<TagReference>> entry 
+					: activeLeftByEndPoint.tailMap(current.getEndPoint(), true).entrySet()) {
+				for (TagReference candidate : entry.getValue()) {
+					if (range == null) {
+						range = new Range(startPoint, current.getEndPoint());
+					}
+					matchHandler.match(candidate, current, range);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Two merges over the sorted end points of one side and the sorted start
+	 * points of the other side.
+	 */
+	private void joinAdjacent(
+			List<TagReference> left, List<TagReference> right,
+			MatchHandler matchHandler) {
+		TagReference[] leftByStartPoint = sortByRange(left);
+		TagReference[] rightByStartPoint = sortByRange(right);
+		TagReference[] leftByEndPoint =
+				left.toArray(new TagReference[left.size()]);
+		Arrays.sort(leftByEndPoint, END_POINT_COMPARATOR);
+		TagReference[] rightByEndPoint =
+				right.toArray(new TagReference[right.size()]);
+		Arrays.sort(rightByEndPoint, END_POINT_COMPARATOR);
+
+		// left ends where right starts
+		mergeAdjacent(leftByEndPoint, rightByStartPoint, true, matchHandler);
+		// right ends where left starts
+		mergeAdjacent(rightByEndPoint, leftByStartPoint, false, matchHandler);
+	}
+
+	private void mergeAdjacent(
+			TagReference[] byEndPoint, TagReference[] byStartPoint,
+			boolean endPointsFromLeft, MatchHandler matchHandler) {
+		int i = 0;
+		int j = 0;
+		while ((i < byEndPoint.length) && (j < byStartPoint.length)) {
+			int point = byEndPoint[i].getEndPoint();
+			int startPoint = byStartPoint[j].getStartPoint();
+
+			if (point < startPoint) {
+				i++;
+			}
+			else if (point > startPoint) {
+				j++;
+			}
+			else {
+				int iEnd = i;
+				while ((iEnd < byEndPoint.length)
+						&& (byEndPoint[iEnd].getEndPoint() == point)) {
+					iEnd++;
+				}
+				int jEnd = j;
+				while ((jEnd < byStartPoint.length)
+						&& (byStartPoint[jEnd].getStartPoint() == point)) {
+					jEnd++;
+				}
+
+				Range range = new Range(point, point);
+				for (int k=i; k<iEnd; k++) {
+					for (int l=j; l<jEnd; l++) {
+						TagReference endingHere = byEndPoint[k];
+						TagReference startingHere = byStartPoint[l];
+
+						if (endPointsFromLeft) {
+							matchHandler.match(endingHere, startingHere, range);
+						}
+						// pairs of single points at the same position are
+						// adjacent in both directions, they get reported by the first merge
+						else if (!(endingHere.getStartPoint() == point
+								&& startingHere.getEndPoint() == point)) {
+							matchHandler.match(startingHere, endingHere, range);
+						}
+					}
+				}
+				i = iEnd;
+				j = jEnd;
+			}
+		}
+	}
+}
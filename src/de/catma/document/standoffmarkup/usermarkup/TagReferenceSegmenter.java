@@ -0,0 +1,217 @@
+/*
+ *   CATMA Computer Aided Text Markup and Analysis
+ *
+ *   Copyright (C) 2009-2013  University Of Hamburg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.catma.document.standoffmarkup.usermarkup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import de.catma.document.Range;
+
+/**
+ * Splits the text covered by {@link TagReference}s into a minimal list of
+ * disjoint segments. Each segment carries the IDs of all the
+ * {@link de.catma.tag.TagInstance}s that cover it, so overlapping markup can
+ * be rendered segment by segment.
+ * <p>
+ * The segmentation is done in a single sweep over the sorted start and end
+ * points of the references. A segmentation can be restricted to a viewport,
+ * in that case only the references that overlap the viewport are fetched from
+ * the {@link UserMarkupCollection#getTagReferences(Range) range index} of
+ * the collections.
+ * </p>
+ *
+ * @author marco.petris@web.de
+ *
+ */
+public class TagReferenceSegmenter {
+
+	/**
+	 * A segment of text with the {@link de.catma.tag.TagInstance}s that cover it.
+	 * This class is immutable.
+	 */
+	public static class Segment {
+		private Range range;
+		private Set<String> tagInstanceIDs;
+
+		private Segment(Range range, Set<String> tagInstanceIDs) {
+			this.range = range;
+			this.tagInstanceIDs = Collections.unmodifiableSet(tagInstanceIDs);
+		}
+
+		/**
+		 * @return the range of this segment
+		 */
+		public Range getRange() {
+			return range;
+		}
+
+		/**
+		 * @return non modifiable set of the uuids of the covering
+		 * {@link de.catma.tag.TagInstance}s
+		 */
+		public Set<String> getTagInstanceIDs() {
+			return tagInstanceIDs;
+		}
+
+		@Override
+		public String toString() {
+			return "SEGMENT" + range + tagInstanceIDs;
+		}
+	}
+
+	private static final Comparator<TagReference> END_POINT_COMPARATOR =
+			new Comparator<TagReference>() {
+		@Override
+		public int compare(TagReference o1, TagReference o2) {
+			if (o1.getEndPoint() == o2.getEndPoint()) {
+				return 0;
+			}
+			return (o1.getEndPoint() < o2.getEndPoint()) ? -1 : 1;
+		}
+	};
+
+	/**
+	 * @param userMarkupCollections
+	 * @return the segments of all references of the given collections
+	 */
+	public List<Segment> segment(
+			Collection<UserMarkupCollection> userMarkupCollections) {
+		List<TagReference> tagReferences = new ArrayList<TagReference>();
+		for (UserMarkupCollection userMarkupCollection : userMarkupCollections) {
+			tagReferences.addAll(userMarkupCollection.getTagReferences());
+		}
+		return segment(tagReferences, null);
+	}
+
+	/**
+	 * @param userMarkupCollections
+	 * @param viewport the range of text to segment
+	 * @return the segments within the given viewport
+	 */
+	public List<Segment> segment(
+			Collection<UserMarkupCollection> userMarkupCollections, Range viewport) {
+		List<TagReference> tagReferences = new ArrayList<TagReference>();
+		for (UserMarkupCollection userMarkupCollection : userMarkupCollections) {
+			tagReferences.addAll(userMarkupCollection.getTagReferences(viewport));
+		}
+		return segment(tagReferences, viewport);
+	}
+
+	/**
+	 * @param tagReferences the references to segment, the list is not modified
+	 * @param viewport the range of text to segment or <code>null</code> for
+	 * the whole text
+	 * @return the segments ordered by their ranges, adjacent segments
+	 * always differ in their tag instances
+	 */
+	public List<Segment> segment(List<TagReference> tagReferences, Range viewport) {
+		int lowerBound = (viewport == null) ? Integer.MIN_VALUE : viewport.getStartPoint();
+		int upperBound = (viewport == null) ? Integer.MAX_VALUE : viewport.getEndPoint();
+
+		List<TagReference> relevant = new ArrayList<TagReference>(tagReferences.size());
+		for (TagReference tagReference : tagReferences) {
+			// single points and references outside of the viewport do not cover any text
+			if ((Math.max(tagReference.getStartPoint(), lowerBound)
+					< Math.min(tagReference.getEndPoint(), upperBound))) {
+				relevant.add(tagReference);
+			}
+		}
+
+		TagReference[] byStartPoint =
+				relevant.toArray(new TagReference[relevant.size()]);
+		Arrays.sort(byStartPoint, new TagReference.RangeComparator());
+		TagReference[] byEndPoint =
+				relevant.toArray(new TagReference[relevant.size()]);
+		Arrays.sort(byEndPoint, END_POINT_COMPARATOR);
+
+		List<Segment> result = new ArrayList<Segment>();
+		// instance ID -> number of active references of that instance
+		Map<String,Integer> active = new HashMap<String, Integer>();
+		Set<String> previousIDs = null;
+		int previousEndPoint = 0;
+		int i = 0;
+		int j = 0;
+
+		while (j < byEndPoint.length) {
+			int point = byEndPoint[j].getEndPoint();
+			if (i < byStartPoint.length) {
+				point = Math.min(point, byStartPoint[i].getStartPoint());
+			}
+
+			while ((j < byEndPoint.length) && (byEndPoint[j].getEndPoint() == point)) {
+				String tagInstanceID = byEndPoint[j++].getTagInstanceID();
+				int count = active.get(tagInstanceID);
+				if (count == 1) {
+					active.remove(tagInstanceID);
+				}
+				else {
+					active.put(tagInstanceID, count-1);
+				}
+			}
+
+			while ((i < byStartPoint.length) && (byStartPoint[i].getStartPoint() == point)) {
+				String tagInstanceID = byStartPoint[i++].getTagInstanceID();
+				Integer count = active.get(tagInstanceID);
+				active.put(tagInstanceID, (count == null) ? 1 : count+1);
+			}
+
+			if (active.isEmpty() || (j >= byEndPoint.length)) {
+				previousIDs = null;
+				continue;
+			}
+
+			int nextPoint = byEndPoint[j].getEndPoint();
+			if (i < byStartPoint.length) {
+				nextPoint = Math.min(nextPoint, byStartPoint[i].getStartPoint());
+			}
+
+			int startPoint = Math.max(point, lowerBound);
+			int endPoint = Math.min(nextPoint, upperBound);
+			
+			if (startPoint >= endPoint) { // outside of the viewport
+				previousIDs = null;
+				continue;
+			}
+
+			if ((previousIDs != null)
+					&& (previousEndPoint == startPoint)
+					&& previousIDs.equals(active.keySet())) {
+				// only references of the same instances met, extend the segment
+				Segment previous = result.remove(result.size()-1);
+				startPoint = previous.getRange().getStartPoint();
+			}
+			else {
+				previousIDs = new HashSet<String>(active.keySet());
+			}
+
+			result.add(new Segment(new Range(startPoint, endPoint), previousIDs));
+			previousEndPoint = endPoint;
+		}
+
+		return result;
+	}
+}
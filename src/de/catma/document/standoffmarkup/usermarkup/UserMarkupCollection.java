@@ -28,6 +28,7 @@ import java.util.Map;
 import java.util.Set;
 
 import de.catma.document.AccessMode;
+import de.catma.document.Range;
 import de.catma.document.source.ContentInfoSet;
 import de.catma.tag.Property;
 import de.catma.tag.PropertyValueList;
@@ -35,12 +36,19 @@ import de.catma.tag.TagDefinition;
 import de.catma.tag.TagInstance;
 import de.catma.tag.TagLibrary;
 import de.catma.tag.TagsetDefinition;
+import de.catma.tag.TagsetDefinitionChangeSet;
 import de.catma.util.IDGenerator;
 import de.catma.util.Pair;
 
 /**
  * A collection of user generated markup in the form of {@link TagReference}s.
- * 
+ * <p>
+ * The lookup indexes hold int row indices into the backing list of references
+ * only, see {@link TagReferenceIndex}. They are built when the collection
+ * is created and kept up to date by the modifying methods, queries do not
+ * modify the collection. For very large collections the backing list can be a 
+ * {@link CompactTagReferenceList}.
+ * </p>
  * @author marco.petris@web.de
  *
  */
@@ -50,6 +58,7 @@ public class UserMarkupCollection {
 	private ContentInfoSet contentInfoSet;
 	private TagLibrary tagLibrary;
 	private List<TagReference> tagReferences;
+	private TagReferenceIndex tagReferenceIndex;
 	private AccessMode accessMode;
 	
 	/**
@@ -66,7 +75,10 @@ public class UserMarkupCollection {
 	 * @param id the identifier of the collections (depends on the repository)
 	 * @param contentInfoSet the bibliographical metadata of this collection
 	 * @param tagLibrary the internal library with all relevant {@link TagsetDefinition}s.
-	 * @param tagReferences referenced text ranges and referencing {@link TagInstance}s.
+	 * @param tagReferences referenced text ranges and referencing {@link TagInstance}s,
+	 * the references are copied into a backing list owned by this collection, 
+	 * a {@link CompactTagReferenceList} is copied into a compact backing list.
+	 * The given list is not modified.
 	 */
 	public UserMarkupCollection(
 			String id, ContentInfoSet contentInfoSet, TagLibrary tagLibrary,
@@ -74,8 +86,12 @@ public class UserMarkupCollection {
 		this.id = id;
 		this.contentInfoSet = contentInfoSet;
 		this.tagLibrary = tagLibrary;
-		this.tagReferences = tagReferences;
+		// the index compacts the backing list in place on removals
+		this.tagReferences = (tagReferences instanceof CompactTagReferenceList) ?
+				new CompactTagReferenceList(tagReferences) 
+				: new ArrayList<TagReference>(tagReferences);
 		this.accessMode = accessMode;
+		this.tagReferenceIndex = new TagReferenceIndex(this.tagReferences, tagLibrary);
 	}
 
 
@@ -87,6 +103,8 @@ public class UserMarkupCollection {
 		
 		IDGenerator idGenerator = new IDGenerator();
 		Map<String,TagInstance> copiedTagInstances = new HashMap<String,TagInstance>();
+		List<TagReference> copiedTagReferences = new ArrayList<TagReference>(
+				userMarkupCollection.getTagReferences().size());
 		
 		for (TagReference tr : userMarkupCollection.getTagReferences()) {
 			TagInstance tagInstance = tr.getTagInstance();
@@ -98,6 +116,9 @@ public class UserMarkupCollection {
 					getTagLibrary().getTagDefinition(tagInstance.getTagDefinition().getUuid());
 				copiedInstance = new TagInstance(idGenerator.generate(), tagDefinition);
 				for (Property property : tagInstance.getSystemProperties()) {
+					if (property.isDefault()) {
+						continue; // the copy has the same defaults anyway
+					}
 					copiedInstance.addSystemProperty(
 						new Property(
 							tagDefinition.getPropertyDefinition(
@@ -106,6 +127,9 @@ public class UserMarkupCollection {
 				}
 				
 				for (Property property : tagInstance.getUserDefinedProperties()) {
+					if (property.isDefault()) {
+						continue;
+					}
 					copiedInstance.addSystemProperty(
 						new Property(
 							tagDefinition.getPropertyDefinition(
@@ -116,10 +140,14 @@ public class UserMarkupCollection {
 				copiedTagInstances.put(tagInstance.getUuid(), copiedInstance);
 			}
 		
-			addTagReference( 
-				new TagReference(copiedInstance, tr.getTarget().toString(), tr.getRange()));
+			copiedTagReferences.add(
+				new TagReference(
+					copiedInstance, tr.getTarget(), 
+					tr.getStartPoint(), tr.getEndPoint()));
 		}
-	
+		
+		// the indexes get built in a single pass
+		addTagReferencesInBulk(copiedTagReferences);
 	}
 
 	/**
@@ -136,6 +164,20 @@ public class UserMarkupCollection {
 		return Collections.unmodifiableList(tagReferences);
 	}
 
+	/**
+	 * Overlap is defined as in {@link Range#hasOverlappingRange(Range)}, the 
+	 * lookup is backed by at most log n + 1 interval trees and runs in 
+	 * O(log^2 n + k log log n), references that have been added recently form 
+	 * the smaller trees. After a removal or a bulk addition there is a single
+	 * tree and the lookup runs in O(log n + k).
+	 * 
+	 * @param range the range of text to test
+	 * @return all references that overlap the given range, ordered by their ranges
+	 */
+	public List<TagReference> getTagReferences(Range range) {
+		return tagReferenceIndex.getOverlappingTagReferences(range);
+	}
+
 	/**
 	 * @param tagDefinition return all references with this tagdefinition (<b>excluding</b>
 	 * all references that have a tag definition that is a child of the given definition, i. e.
@@ -148,6 +190,8 @@ public class UserMarkupCollection {
 	}
 	
 	/**
+	 * The subtree of a definition is a contiguous range of the per definition
+	 * index, see {@link TagReferenceIndex}.
 	 * @param tagDefinition return all references with this tagdefinition 
 	 * @param withChildReferences <code>true</code> include child tag definitions as well (deep list) or <code>false</code> exclude
 	 * child tag definitions (shallow list)
@@ -158,22 +202,32 @@ public class UserMarkupCollection {
 		
 		List<TagReference> result = new ArrayList<TagReference>();
 		
-		Set<String> tagDefinitionIDs = new HashSet<String>();
-		tagDefinitionIDs.add(tagDefinition.getUuid());
-		
-		if (withChildReferences) {
-			tagDefinitionIDs.addAll(getChildIDs(tagDefinition));
-		}
-		
-		for (TagReference tr : tagReferences) {
-			if (tagDefinitionIDs.contains(tr.getTagDefinition().getUuid())) {
-				result.add(tr);
-			}
-		}
+		tagReferenceIndex.addTagReferencesByTagDefinition(
+				result, tagDefinition.getUuid(), withChildReferences);
 		
 		return result;
 	}
 	
+	private void addTagReferences(List<TagReference> result, String tagDefinitionID) {
+		tagReferenceIndex.addTagReferencesByTagDefinition(
+				result, tagDefinitionID, false);
+	}
+	
+	/**
+	 * The count is computed from the per definition index in O(log n) and does 
+	 * not create any references, the subtree of a definition is a contiguous 
+	 * range of that index.
+	 * @param tagDefinition
+	 * @param withChildReferences <code>true</code> include child tag definitions 
+	 * as well or <code>false</code> exclude child tag definitions
+	 * @return the number of references with the given tag definition
+	 */
+	public int getTagReferenceCount(
+			TagDefinition tagDefinition, boolean withChildReferences) {
+		return tagReferenceIndex.getTagReferenceCountByTagDefinition(
+				tagDefinition.getUuid(), withChildReferences);
+	}
+	
 	/**
 	 * @param tagDefinition 
 	 * @return a set of {@link TagDefinition#getId() IDs} of tag definitions that
@@ -199,10 +253,53 @@ public class UserMarkupCollection {
 	
 	public void addTagReferences(List<TagReference> tagReferences) {
 		this.tagReferences.addAll(tagReferences);	
+		tagReferenceIndex.added();
 	}
 	
 	public void addTagReference(TagReference tagReference) {
 		this.tagReferences.add(tagReference);
+		tagReferenceIndex.added();
+	}
+	
+	/**
+	 * Adds the references and merges them into the indexes in a single pass.
+	 * @param tagReferences
+	 */
+	void addTagReferencesInBulk(List<TagReference> tagReferences) {
+		this.tagReferences.addAll(tagReferences);
+		tagReferenceIndex.merge();
+	}
+	
+	/**
+	 * @return the number of references that are held in memory by this 
+	 * collection
+	 */
+	int getResidentTagReferenceCount() {
+		return tagReferences.size();
+	}
+	
+	/**
+	 * Pre-sizes the backing list if it supports that.
+	 * @param capacity the expected number of references of this collection
+	 */
+	public void ensureCapacity(int capacity) {
+		if (tagReferences instanceof ArrayList) {
+			((ArrayList<TagReference>)tagReferences).ensureCapacity(capacity);
+		}
+		else if (tagReferences instanceof CompactTagReferenceList) {
+			((CompactTagReferenceList)tagReferences).ensureCapacity(capacity);
+		}
+	}
+	
+	/**
+	 * Replaces all references of this collection without notifying 
+	 * anyone, the indexes get rebuilt.
+	 * @param tagReferences the new content of this collection
+	 */
+	void replaceTagReferences(List<TagReference> tagReferences) {
+		this.tagReferences.clear();
+		this.tagReferences.addAll(tagReferences);
+		tagReferenceIndex.rebuild();
 	}
 	
 	/**
@@ -240,6 +337,7 @@ public class UserMarkupCollection {
 	 */
 	public void setTagLibrary(TagLibrary tagLibrary) {
 		this.tagLibrary = tagLibrary;
+		tagReferenceIndex.setTagLibrary(tagLibrary);
 	}
 
 	public void setId(String id) {
@@ -250,20 +348,63 @@ public class UserMarkupCollection {
 	 * {@link TagInstance#synchronizeProperties() Synchronizes} all the Tag Instances. 
 	 */
 	public void synchronizeTagInstances() {
-		HashSet<TagInstance> tagInstances = new HashSet<TagInstance>();
-		for (TagReference tr : tagReferences) {
-			tagInstances.add(tr.getTagInstance());
-		}
+		List<TagReference> toBeRemoved = new ArrayList<TagReference>();
 		
-		for (TagInstance ti : tagInstances) {
+		for (String instanceID : tagReferenceIndex.getTagInstanceIDs()) {
+			TagInstance ti = 
+				tagReferenceIndex.getFirstTagReference(instanceID).getTagInstance();
 			if (getTagLibrary().getTagsetDefinition(ti.getTagDefinition()) != null) {
 				//TODO: handle move between TagsetDefinitions
 				ti.synchronizeProperties();
 			}
 			else {
-				tagReferences.removeAll(getTagReferences(ti.getUuid()));
+				tagReferenceIndex.addTagReferencesByTagInstance(
+						toBeRemoved, instanceID);
 			}
 		}
+		
+		if (!toBeRemoved.isEmpty()) {
+			removeTagReferences(toBeRemoved);
+		}
+	}
+	
+	/**
+	 * Synchronizes only the Tag Instances affected by the given changes: 
+	 * references of removed TagDefinitions get removed and the properties of
+	 * instances of TagDefinitions with changed PropertyDefinitions get
+	 * {@link TagInstance#synchronizeProperties() synchronized}. All other 
+	 * instances are not touched.
+	 * 
+	 * @param changeSet the result of the synchronization of the 
+	 * corresponding TagsetDefinition of the {@link #getTagLibrary() library}
+	 * @return the references that have been removed
+	 * @see de.catma.tag.TagManager#synchronize(TagsetDefinition, TagsetDefinition)
+	 */
+	public List<TagReference> synchronizeTagInstances(TagsetDefinitionChangeSet changeSet) {
+		List<TagReference> toBeRemoved = new ArrayList<TagReference>();
+		
+		for (String tagDefinitionID : changeSet.getRemovedTagDefinitionIDs()) {
+			addTagReferences(toBeRemoved, tagDefinitionID);
+		}
+		
+		for (String tagDefinitionID : changeSet.getChangedTagDefinitionIDs()) {
+			if (changeSet.hasPropertyDefinitionChanges(tagDefinitionID)) {
+				List<TagReference> definitionReferences = new ArrayList<TagReference>();
+				addTagReferences(definitionReferences, tagDefinitionID);
+				Set<String> synchronizedInstanceIDs = new HashSet<String>();
+				for (TagReference tagReference : definitionReferences) {
+					if (synchronizedInstanceIDs.add(tagReference.getTagInstanceID())) {
+						tagReference.getTagInstance().synchronizeProperties();
+					}
+				}
+			}
+		}
+		
+		if (!toBeRemoved.isEmpty()) {
+			removeTagReferences(toBeRemoved);
+		}
+		
+		return toBeRemoved;
 	}
 
 	
@@ -272,15 +413,10 @@ public class UserMarkupCollection {
 	 * @return all references which belong to the {@link TagInstance} with the given ID
 	 */
 	public List<TagReference> getTagReferences(String tagInstanceID) {
-		List<TagReference> result = new ArrayList<TagReference>();
-		
-		for (TagReference tr : getTagReferences()) {
-			if (tr.getTagInstanceID().equals(tagInstanceID)) {
-				result.add(tr);
-			}
-		}
-		
-		return result;
+		List<TagReference> instanceReferences = new ArrayList<TagReference>();
+		tagReferenceIndex.addTagReferencesByTagInstance(
+				instanceReferences, tagInstanceID);
+		return instanceReferences;
 	}
 
 	/**
@@ -291,42 +427,42 @@ public class UserMarkupCollection {
 		return getTagReferences(ti.getUuid());
 	}
 	
+	/**
+	 * @return non modifiable set of the {@link TagInstance#getUuid() uuids} of all
+	 * TagInstances of this collection
+	 */
+	public Set<String> getTagInstanceIDs() {
+		return tagReferenceIndex.getTagInstanceIDs();
+	}
+	
 	/**
 	 * @param instanceID
 	 * @return <code>true</code> if there is a TagReference with the given TagInstance's ID
 	 */
 	public boolean hasTagInstance(String instanceID) {
-		for (TagReference tr : getTagReferences()) {
-			if (tr.getTagInstanceID().equals(instanceID)) {
-				return true;
-			}
-		}
-		return false;
+		return tagReferenceIndex.hasTagInstance(instanceID);
 	}
 	
 	/**
+	 * Removal is based on {@link TagReference#equals(Object) value equality}, 
+	 * all references equal to one of the given references get removed.
 	 * @param tagReferences references to be removed
 	 */
 	public void removeTagReferences(List<TagReference> tagReferences) {
-		this.tagReferences.removeAll(tagReferences);
+		tagReferenceIndex.removeAll(tagReferences);
 	}
 
 
 	/**
+	 * The TagDefinitions of a TagsetDefinition are a contiguous range of the 
+	 * per definition index, see {@link TagReferenceIndex}.
 	 * @param tagsetDefinition
 	 * @return all references that have TagInstances with the given tag def
 	 */
 	public List<TagReference> getTagReferences(TagsetDefinition tagsetDefinition) {
 		ArrayList<TagReference> result = new ArrayList<TagReference>();
-		if (getTagLibrary().contains(tagsetDefinition)) {
-			for (TagDefinition td : getTagLibrary().getTagsetDefinition(
-					tagsetDefinition.getUuid())) {
-				
-				result.addAll(getTagReferences(td));
-				
-			}
-		}
-		
+		tagReferenceIndex.addTagReferencesByTagsetDefinition(
+				result, tagsetDefinition.getUuid());
 		return result;
 	}
 	
@@ -343,12 +479,11 @@ public class UserMarkupCollection {
 	 * and the corresponding {@link TagInstance}.
 	 */
 	public Pair<String,TagInstance> getInstance(String instanceID) {
-		for (TagReference tr : tagReferences) {
-			if (tr.getTagInstanceID().equals(instanceID)) {
-				return new Pair<String,TagInstance>(
-						this.tagLibrary.getTagPath(tr.getTagDefinition()),
-						tr.getTagInstance());
-			}
+		TagReference tr = tagReferenceIndex.getFirstTagReference(instanceID);
+		if (tr != null) {
+			return new Pair<String,TagInstance>(
+					this.tagLibrary.getTagPath(tr.getTagDefinition()),
+					tr.getTagInstance());
 		}
 		return null;
 	}
@@ -19,40 +19,232 @@
 package de.catma.document.standoffmarkup.usermarkup;
 
 import java.io.IOException;
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.logging.Logger;
+import java.util.stream.Stream;
 
 import de.catma.document.AccessMode;
 import de.catma.document.repository.Repository;
+import de.catma.document.repository.WindowedRepository;
 import de.catma.document.source.ContentInfoSet;
 import de.catma.tag.Property;
 import de.catma.tag.TagInstance;
 import de.catma.tag.TagManager;
 import de.catma.tag.TagsetDefinition;
+import de.catma.tag.TagsetDefinitionChangeSet;
+import de.catma.tag.Version;
 import de.catma.util.Pair;
 
 /**
  * A manager that handles a list of {@link UserMarkupCollection}s. Handles all
  * kinds of operations upon a {@link UserMarkupCollection} and its content.
+ * <p>
+ * Optionally the manager keeps the loaded collections within a 
+ * {@link #setTagReferenceBudget(int) budget}. Then the least recently used 
+ * collections without changes that are still to be passed to the 
+ * {@link Repository} get evicted. They are reloaded from the Repository by 
+ * {@link #load(String)} and by the operations that access them via their 
+ * TagInstances, {@link WindowedUserMarkupCollection windowed} 
+ * collections are reloaded via 
+ * {@link WindowedRepository#getUserMarkupCollection(UserMarkupCollectionReference, int)}. 
+ * An evicted collection that is still referenced 
+ * elsewhere is not reloaded, the manager keeps returning that instance. 
+ * Synchronizations of evicted collections with changed TagsetDefinitions are 
+ * deferred until they are loaded again, see 
+ * {@link #getOutOfSyncUserMarkupCollections(TagsetDefinition)}.
+ * </p>
+ * <p>
+ * The manager is meant to be used by a single thread at a time. The tagset 
+ * synchronization runs its tasks in parallel, but the index of TagInstances
+ * is only updated by the calling thread. That index is a concurrent map, so
+ * it stays consistent for lookups that overlap with these updates.
+ * </p>
+ * <p>
+ * Collections without an ID, e.g. 
+ * {@link UserMarkupCollection#UserMarkupCollection(UserMarkupCollection) copies},
+ * are managed as well, but they are kept out of the index of TagInstances and 
+ * are never evicted. Their TagInstances are looked up by a scan of these 
+ * collections.
+ * </p>
  * 
  * @author marco.petris@web.de
  *
  */
 public class UserMarkupCollectionManager implements Iterable<UserMarkupCollection>{
+	
+	/**
+	 * The collections that share a copy of a TagsetDefinition and the 
+	 * differences between that copy and the incoming TagsetDefinition.
+	 */
+	private static class TagsetSynchronization {
+		private TagsetDefinition tagsetDefinitionCopy;
+		private TagsetDefinitionChangeSet changeSet;
+		private List<UserMarkupCollection> userMarkupCollections;
+		// windowed collection -> all of its references, loaded before forking
+		private Map<UserMarkupCollection,UserMarkupCollection> loadedUserMarkupCollections;
+		private Map<UserMarkupCollection,List<TagReference>> removedTagReferences;
+		
+		private TagsetSynchronization(
+				TagsetDefinition tagsetDefinitionCopy,
+				TagsetDefinitionChangeSet changeSet) {
+			this.tagsetDefinitionCopy = tagsetDefinitionCopy;
+			this.changeSet = changeSet;
+			this.userMarkupCollections = new ArrayList<UserMarkupCollection>();
+			this.loadedUserMarkupCollections = 
+					new IdentityHashMap<UserMarkupCollection, UserMarkupCollection>();
+			this.removedTagReferences = 
+					new IdentityHashMap<UserMarkupCollection, List<TagReference>>();
+		}
+		
+		/**
+		 * Synchronizes the copy and the collections in memory.
+		 * @param tagManager
+		 * @param tagsetDefinition the incoming TagsetDefinition
+		 */
+		private void synchronize(
+				TagManager tagManager, TagsetDefinition tagsetDefinition) {
+			tagManager.synchronize(tagsetDefinitionCopy, tagsetDefinition, changeSet);
+			for (UserMarkupCollection userMarkupCollection : userMarkupCollections) {
+				UserMarkupCollection loadedUserMarkupCollection = 
+						loadedUserMarkupCollections.get(userMarkupCollection);
+				removedTagReferences.put(
+					userMarkupCollection,
+					(loadedUserMarkupCollection == null) ?
+						userMarkupCollection.synchronizeTagInstances(changeSet)
+						: ((WindowedUserMarkupCollection)userMarkupCollection)
+							.synchronizeTagInstances(
+								changeSet, loadedUserMarkupCollection));
+			}
+		}
+	}
+	
+	/**
+	 * Applies a range of independent {@link TagsetSynchronization}s, 
+	 * the range gets split until there is a single synchronization left.
+	 * The tasks share the incoming TagsetDefinition and the change sets for 
+	 * reading only, each copy and each collection is modified by a single task.
+	 * The tasks work in memory and do not access the repository.
+	 */
+	private static class TagsetSynchronizationTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		
+		private TagManager tagManager;
+		private TagsetDefinition tagsetDefinition;
+		private List<TagsetSynchronization> tagsetSynchronizations;
+		private int from;
+		private int to;
+		
+		private TagsetSynchronizationTask(
+				TagManager tagManager, TagsetDefinition tagsetDefinition,
+				List<TagsetSynchronization> tagsetSynchronizations, 
+				int from, int to) {
+			this.tagManager = tagManager;
+			this.tagsetDefinition = tagsetDefinition;
+			this.tagsetSynchronizations = tagsetSynchronizations;
+			this.from = from;
+			this.to = to;
+		}
+		
+		@Override
+		protected void compute() {
+			if (to - from == 1) {
+				tagsetSynchronizations.get(from).synchronize(
+						tagManager, tagsetDefinition);
+			}
+			else {
+				int middle = (from + to) >>> 1;
+				invokeAll(
+					new TagsetSynchronizationTask(
+						tagManager, tagsetDefinition, tagsetSynchronizations, 
+						from, middle),
+					new TagsetSynchronizationTask(
+						tagManager, tagsetDefinition, tagsetSynchronizations, 
+						middle, to));
+			}
+		}
+	}
+	
+	/**
+	 * A collection that has been evicted from the loaded collections. 
+	 */
+	private static class EvictedUserMarkupCollection {
+		private UserMarkupCollectionReference userMarkupCollectionReference;
+		// the window size of windowed collections, zero otherwise
+		private int windowSize;
+		// still valid as long as the collection is referenced elsewhere
+		private WeakReference<UserMarkupCollection> userMarkupCollection;
+		// TagsetDefinition uuid -> digest of the collection's copy at eviction 
+		// time, writable collections only
+		private Map<String,Long> tagsetDefinitionDigests;
+		// TagsetDefinition uuid -> TagsetDefinition to synchronize with on reload
+		private Map<String,TagsetDefinition> pendingTagsetDefinitions;
+		
+		private EvictedUserMarkupCollection(
+				UserMarkupCollection userMarkupCollection) {
+			this.userMarkupCollectionReference = new UserMarkupCollectionReference(
+					userMarkupCollection.getId(), 
+					userMarkupCollection.getContentInfoSet());
+			if (userMarkupCollection instanceof WindowedUserMarkupCollection) {
+				this.windowSize = 
+					((WindowedUserMarkupCollection)userMarkupCollection).getWindowSize();
+			}
+			this.userMarkupCollection = 
+					new WeakReference<UserMarkupCollection>(userMarkupCollection);
+			this.tagsetDefinitionDigests = new HashMap<String, Long>();
+			if (userMarkupCollection.getAccessMode().equals(AccessMode.WRITE)) {
+				for (TagsetDefinition tagsetDefinition 
+						: userMarkupCollection.getTagLibrary()) {
+					tagsetDefinitionDigests.put(
+						tagsetDefinition.getUuid(), tagsetDefinition.getDigest());
+				}
+			}
+			this.pendingTagsetDefinitions = 
+					new LinkedHashMap<String, TagsetDefinition>();
+		}
+	}
+	
+	/**
+	 * Default number of references per repository update of a 
+	 * {@link #addTagReferences(Iterator, int, UserMarkupCollection) bulk ingestion}.
+	 */
+	public static final int DEFAULT_BATCH_SIZE = 10000;
 
 	private Logger logger = Logger.getLogger(this.getClass().getName());
 	private TagManager tagManager;
 	private Repository repository;
 			
-	private List<UserMarkupCollection> userMarkupCollections;
+	// collection ID -> collection, in access order 
+	private Map<String,UserMarkupCollection> userMarkupCollections;
+	private Map<String,EvictedUserMarkupCollection> evictedUserMarkupCollections;
+	// collections without an ID, compared by identity
+	private List<UserMarkupCollection> unidentifiedUserMarkupCollections;
+	private Set<String> modifiedUserMarkupCollectionIDs;
+	// TagInstance ID -> collection ID, concurrent so that instance lookups 
+	// (e.g. from the analyzer) do not race with the updates of this manager
+	private ConcurrentMap<String,String> userMarkupCollectionIDsByTagInstanceID;
+	private int tagReferenceBudget;
+	// collection ID -> number of references of the loaded collection at the 
+	// time of its last modification via this manager
+	private Map<String,Integer> tagReferenceCounts;
+	// sum of the tagReferenceCounts
+	private long tagReferenceCount;
 
 	/**
 	 * @param repository the underlying repository (addition and removal of content 
@@ -61,13 +253,159 @@ public class UserMarkupCollectionManager implements Iterable<UserMarkupCollectio
 	public UserMarkupCollectionManager(Repository repository) {
 		this.tagManager = repository.getTagManager();
 		this.repository = repository;
-		userMarkupCollections = new ArrayList<UserMarkupCollection>();
+		userMarkupCollections = 
+				new LinkedHashMap<String, UserMarkupCollection>(16, 0.75f, true);
+		evictedUserMarkupCollections = 
+				new HashMap<String, EvictedUserMarkupCollection>();
+		unidentifiedUserMarkupCollections = new ArrayList<UserMarkupCollection>();
+		modifiedUserMarkupCollectionIDs = new HashSet<String>();
+		userMarkupCollectionIDsByTagInstanceID = 
+				new ConcurrentHashMap<String, String>();
+		tagReferenceBudget = 0;
+		tagReferenceCounts = new HashMap<String, Integer>();
+		tagReferenceCount = 0;
+	}
+	
+	/**
+	 * @param tagReferenceBudget the maximum number of TagReferences of all 
+	 * loaded collections (as a measure of their memory consumption) before 
+	 * unmodified collections get evicted, a value less than or equal to zero 
+	 * disables eviction
+	 */
+	public void setTagReferenceBudget(int tagReferenceBudget) {
+		this.tagReferenceBudget = tagReferenceBudget;
+		evict();
+	}
+	
+	public int getTagReferenceBudget() {
+		return tagReferenceBudget;
+	}
+	
+	/**
+	 * Evicts least recently used unmodified collections until the loaded
+	 * collections fit into the {@link #setTagReferenceBudget(int) budget}. The 
+	 * most recently used collection is never evicted. 
+	 */
+	private void evict() {
+		if (tagReferenceBudget <= 0) {
+			return;
+		}
+		
+		Iterator<UserMarkupCollection> iterator = 
+				userMarkupCollections.values().iterator();
+		int remaining = userMarkupCollections.size();
+		
+		while ((tagReferenceCount > tagReferenceBudget) && (remaining > 1)) {
+			UserMarkupCollection userMarkupCollection = iterator.next();
+			remaining--;
+			if (!modifiedUserMarkupCollectionIDs.contains(userMarkupCollection.getId())) {
+				logger.info(
+					"Evicting UMC " + userMarkupCollection + "#" 
+					+ userMarkupCollection.getId() 
+					+ " from UserMarkupCollectionManager " + this.hashCode());
+				iterator.remove();
+				unaccount(userMarkupCollection.getId());
+				// the instance index is kept, evicted collections get reloaded on demand
+				evictedUserMarkupCollections.put(
+					userMarkupCollection.getId(), 
+					new EvictedUserMarkupCollection(userMarkupCollection));
+			}
+		}
+	}
+	
+	/**
+	 * Updates the running number of references of the loaded collections
+	 * with the current number of references of the given collection.
+	 * @param userMarkupCollection a loaded collection
+	 */
+	private void account(UserMarkupCollection userMarkupCollection) {
+		if (userMarkupCollections.containsKey(userMarkupCollection.getId())) {
+			int count = userMarkupCollection.getResidentTagReferenceCount();
+			Integer previousCount = tagReferenceCounts.put(
+					userMarkupCollection.getId(), count);
+			tagReferenceCount += 
+					count - ((previousCount == null) ? 0 : previousCount);
+		}
+	}
+	
+	/**
+	 * Removes the references of the given collection from the running number of 
+	 * references of the loaded collections.
+	 * @param userMarkupCollectionId a collection that is not loaded anymore
+	 */
+	private void unaccount(String userMarkupCollectionId) {
+		Integer previousCount = tagReferenceCounts.remove(userMarkupCollectionId);
+		if (previousCount != null) {
+			tagReferenceCount -= previousCount;
+		}
+	}
+	
+	/**
+	 * @param userMarkupCollection a collection that has been changed and must
+	 * not be evicted until the change has been passed to the repository, see
+	 * {@link #setPersisted(UserMarkupCollection)}
+	 */
+	private void setModified(UserMarkupCollection userMarkupCollection) {
+		if (userMarkupCollection.getId() == null) {
+			return;
+		}
+		modifiedUserMarkupCollectionIDs.add(userMarkupCollection.getId());
+		EvictedUserMarkupCollection evictedUserMarkupCollection = 
+				evictedUserMarkupCollections.remove(userMarkupCollection.getId());
+		if (evictedUserMarkupCollection != null) {
+			// the changed instance becomes the resident one 
+			userMarkupCollections.put(
+					userMarkupCollection.getId(), userMarkupCollection);
+			synchronizePending(evictedUserMarkupCollection, userMarkupCollection);
+		}
+		account(userMarkupCollection);
+	}
+	
+	/**
+	 * @param userMarkupCollection a collection whose changes have been passed 
+	 * to the repository, it can be evicted again since a reload 
+	 * contains the changes
+	 */
+	private void setPersisted(UserMarkupCollection userMarkupCollection) {
+		modifiedUserMarkupCollectionIDs.remove(userMarkupCollection.getId());
+	}
+	
+	/**
+	 * Applies the synchronizations that have been deferred while the collection 
+	 * was evicted.
+	 * @param evictedUserMarkupCollection 
+	 * @param userMarkupCollection the loaded collection
+	 */
+	private void synchronizePending(
+			EvictedUserMarkupCollection evictedUserMarkupCollection,
+			UserMarkupCollection userMarkupCollection) {
+		for (TagsetDefinition tagsetDefinition 
+				: evictedUserMarkupCollection.pendingTagsetDefinitions.values()) {
+			TagsetDefinition tagsetDefinitionCopy = 
+				userMarkupCollection.getTagLibrary().getTagsetDefinition(
+						tagsetDefinition.getUuid());
+			if ((tagsetDefinitionCopy != null) 
+					&& !tagsetDefinitionCopy.isSynchronized(tagsetDefinition)) {
+				updateUserMarkupCollections(
+					Collections.singletonList(userMarkupCollection), 
+					tagsetDefinition);
+			}
+		}
 	}
 	
 	/**
 	 * Updates given UserMarkupCollections
 	 * with the TagsetDefinition. That is all the {@link de.catma.tag.TagLibrary TagLibraries}
 	 * and all the {@link TagInstance}s are updated with the new TagsetDefinition.
+	 * Only the TagInstances affected by the changes get updated, see 
+	 * {@link UserMarkupCollection#synchronizeTagInstances(TagsetDefinitionChangeSet)}.
+	 * <p>
+	 * The differences are computed once per distinct state of the collections' 
+	 * copies of the TagsetDefinition and the independent copies are synchronized 
+	 * in parallel. {@link WindowedUserMarkupCollection}s load all their references 
+	 * via the repository on the calling thread beforehand, the parallel part 
+	 * works in memory only.
+	 * </p>
 	 * The actual persistent modifications are made through {@link Repository#update(List, TagsetDefinition)}.
 	 * @param outOfSynchCollections
 	 * @param tagsetDefinition
@@ -76,33 +414,182 @@ public class UserMarkupCollectionManager implements Iterable<UserMarkupCollectio
 			List<UserMarkupCollection> outOfSynchCollections, 
 			TagsetDefinition tagsetDefinition) {
 		
+		logger.info(
+			"synching " + outOfSynchCollections.size() 
+			+ " collections with " + tagsetDefinition);
+		
+		// collections can share a copy, each copy gets synchronized once 
+		Map<TagsetDefinition, TagsetSynchronization> synchronizationsByCopy = 
+				new IdentityHashMap<TagsetDefinition, TagsetSynchronization>();
+		List<TagsetSynchronization> tagsetSynchronizations = 
+				new ArrayList<TagsetSynchronization>();
+		// copies in the same state (equal versions and digests) share the 
+		// same differences
+		Map<Version, Map<Long, TagsetDefinitionChangeSet>> changeSetsByVersion = 
+				new HashMap<Version, Map<Long,TagsetDefinitionChangeSet>>();
+		
 		for (UserMarkupCollection userMarkupCollection : outOfSynchCollections) {
-			logger.info("synching " + userMarkupCollection);
-			tagManager.synchronize(
+			TagsetDefinition tagsetDefinitionCopy = 
 				userMarkupCollection.getTagLibrary().getTagsetDefinition(
-						tagsetDefinition.getUuid()),
-				tagsetDefinition);
+						tagsetDefinition.getUuid());
+			
+			TagsetSynchronization tagsetSynchronization = 
+					synchronizationsByCopy.get(tagsetDefinitionCopy);
+			
+			if (tagsetSynchronization == null) {
+				Map<Long, TagsetDefinitionChangeSet> changeSetsByDigest = 
+						changeSetsByVersion.get(tagsetDefinitionCopy.getVersion());
+				if (changeSetsByDigest == null) {
+					changeSetsByDigest = 
+							new HashMap<Long, TagsetDefinitionChangeSet>();
+					changeSetsByVersion.put(
+						tagsetDefinitionCopy.getVersion(), changeSetsByDigest);
+				}
+				TagsetDefinitionChangeSet changeSet = 
+						changeSetsByDigest.get(tagsetDefinitionCopy.getDigest());
+				if (changeSet == null) {
+					changeSet = tagManager.getChangeSet(
+							tagsetDefinitionCopy, tagsetDefinition);
+					changeSetsByDigest.put(tagsetDefinitionCopy.getDigest(), changeSet);
+				}
+				tagsetSynchronization = new TagsetSynchronization(
+						tagsetDefinitionCopy, changeSet);
+				synchronizationsByCopy.put(tagsetDefinitionCopy, tagsetSynchronization);
+				tagsetSynchronizations.add(tagsetSynchronization);
+			}
 			
-			userMarkupCollection.synchronizeTagInstances();
+			tagsetSynchronization.userMarkupCollections.add(userMarkupCollection);
+			if (userMarkupCollection instanceof WindowedUserMarkupCollection) {
+				tagsetSynchronization.loadedUserMarkupCollections.put(
+					userMarkupCollection, 
+					((WindowedUserMarkupCollection)userMarkupCollection).loadAll());
+			}
+		}
+		
+		if (tagsetSynchronizations.size() == 1) {
+			tagsetSynchronizations.get(0).synchronize(tagManager, tagsetDefinition);
+		}
+		else if (tagsetSynchronizations.size() > 1) {
+			// tagset updates are rare, the pool does not outlive the update
+			ForkJoinPool synchronizationPool = new ForkJoinPool();
+			try {
+				synchronizationPool.invoke(
+					new TagsetSynchronizationTask(
+						tagManager, tagsetDefinition, tagsetSynchronizations, 
+						0, tagsetSynchronizations.size()));
+			}
+			finally {
+				synchronizationPool.shutdown();
+			}
+		}
+		
+		for (TagsetSynchronization tagsetSynchronization : tagsetSynchronizations) {
+			for (Map.Entry<UserMarkupCollection, List<TagReference>> entry 
+					: tagsetSynchronization.removedTagReferences.entrySet()) {
+				unregisterTagInstances(entry.getValue(), entry.getKey());
+				setModified(entry.getKey());
+			}
 		}
 
 		repository.update(outOfSynchCollections, tagsetDefinition);
+		
+		for (UserMarkupCollection userMarkupCollection : outOfSynchCollections) {
+			setPersisted(userMarkupCollection);
+		}
 	}
 	
 
+	/**
+	 * Adds the given collection unless a collection with the same ID is 
+	 * already managed. A collection without an ID is added unless this 
+	 * very instance is already managed, it is kept out of the index of 
+	 * TagInstances. 
+	 * @param userMarkupCollection
+	 */
 	public void add(UserMarkupCollection userMarkupCollection) {
-		if (!this.userMarkupCollections.contains(userMarkupCollection)) {
+		if (userMarkupCollection.getId() == null) {
+			if (indexOfUnidentified(userMarkupCollection) == -1) {
+				logger.info(
+					"Adding UMC " + userMarkupCollection + " without ID" 
+					+ " to UserMarkupCollectionManager " + this.hashCode());
+				unidentifiedUserMarkupCollections.add(userMarkupCollection);
+			}
+		}
+		else if (!this.userMarkupCollections.containsKey(userMarkupCollection.getId())) {
 			logger.info(
 					"Adding UMC " + userMarkupCollection + "#" 
 					+ ((userMarkupCollection == null)?"N/A":userMarkupCollection.getId())
 					+ " to UserMarkupCollectionManager " + this.hashCode());
-			this.userMarkupCollections.add(userMarkupCollection);
+			EvictedUserMarkupCollection evictedUserMarkupCollection =
+				evictedUserMarkupCollections.remove(userMarkupCollection.getId());
+			this.userMarkupCollections.put(
+					userMarkupCollection.getId(), userMarkupCollection);
+			account(userMarkupCollection);
+			for (String instanceID : userMarkupCollection.getTagInstanceIDs()) {
+				userMarkupCollectionIDsByTagInstanceID.put(
+						instanceID, userMarkupCollection.getId());
+			}
+			if (evictedUserMarkupCollection != null) {
+				synchronizePending(evictedUserMarkupCollection, userMarkupCollection);
+			}
+			evict();
+		}
+	}
+	
+	/**
+	 * @param userMarkupCollection a collection without an ID
+	 * @return the position of this very instance within the collections 
+	 * without an ID or -1
+	 */
+	private int indexOfUnidentified(UserMarkupCollection userMarkupCollection) {
+		for (int i=0; i<unidentifiedUserMarkupCollections.size(); i++) {
+			if (unidentifiedUserMarkupCollections.get(i) == userMarkupCollection) {
+				return i;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * Adds the given TagInstance to the instance index, collections without
+	 * an ID are not indexed.
+	 * @param instanceID
+	 * @param userMarkupCollection the collection that contains the instance
+	 */
+	private void registerTagInstance(
+			String instanceID, UserMarkupCollection userMarkupCollection) {
+		if (userMarkupCollection.getId() != null) {
+			userMarkupCollectionIDsByTagInstanceID.put(
+					instanceID, userMarkupCollection.getId());
+		}
+	}
+	
+	/**
+	 * Removes the TagInstances of the given references from the instance index
+	 * if the collection does not contain them anymore.
+	 * @param tagReferences removed references
+	 * @param userMarkupCollection the collection the references have been removed from
+	 */
+	private void unregisterTagInstances(
+			List<TagReference> tagReferences, 
+			UserMarkupCollection userMarkupCollection) {
+		for (TagReference tagReference : tagReferences) {
+			String instanceID = tagReference.getTagInstanceID();
+			if (!userMarkupCollection.hasTagInstance(instanceID)) {
+				userMarkupCollectionIDsByTagInstanceID.remove(
+						instanceID, userMarkupCollection.getId());
+			}
 		}
 	}
 	
+	/**
+	 * Iterates over the loaded collections, {@link #setTagReferenceBudget(int) evicted} 
+	 * collections are not included.
+	 * @see java.lang.Iterable#iterator()
+	 */
 	@Override
 	public Iterator<UserMarkupCollection> iterator() {
-		return userMarkupCollections.iterator();
+		return getUserMarkupCollections().iterator();
 	}
 
 	/**
@@ -116,21 +603,148 @@ public class UserMarkupCollectionManager implements Iterable<UserMarkupCollectio
 			UserMarkupCollection userMarkupCollection) {
 	
 		userMarkupCollection.addTagReferences(tagReferences);
+		for (TagReference tagReference : tagReferences) {
+			registerTagInstance(
+					tagReference.getTagInstanceID(), userMarkupCollection);
+		}
+		setModified(userMarkupCollection);
 		
 		repository.update(userMarkupCollection, tagReferences);
-
+		setPersisted(userMarkupCollection);
+	}
+	
+	/**
+	 * Bulk ingestion of references, e. g. for automatic tagging or imports. 
+	 * The collection is pre-sized with the expected number of references 
+	 * and each batch is merged into its indexes in a single pass instead of 
+	 * reference by reference. The references are passed to 
+	 * the repository in batches of {@link #DEFAULT_BATCH_SIZE}, see 
+	 * {@link Repository#update(UserMarkupCollection, List)}.
+	 * @param tagReferences the references to add
+	 * @param expectedSize the expected number of references or a value 
+	 * less than or equal to zero if the number is unknown
+	 * @param userMarkupCollection
+	 * @return the number of added references
+	 */
+	public int addTagReferences(
+			Iterator<TagReference> tagReferences, int expectedSize,
+			UserMarkupCollection userMarkupCollection) {
+		return addTagReferences(
+			tagReferences, expectedSize, userMarkupCollection, DEFAULT_BATCH_SIZE);
+	}
+	
+	/**
+	 * Bulk ingestion of a stream of references, e. g. the result of a pipeline
+	 * that produces the references of an automatic tagging. The stream is 
+	 * consumed sequentially in the calling thread, the collection is pre-sized 
+	 * if the stream knows its {@link Spliterator#getExactSizeIfKnown() exact size},
+	 * see {@link #addTagReferences(Iterator, int, UserMarkupCollection)}.
+	 * @param tagReferences the references to add, the stream is not closed
+	 * @param userMarkupCollection
+	 * @return the number of added references
+	 */
+	public int addTagReferences(
+			Stream<TagReference> tagReferences, 
+			UserMarkupCollection userMarkupCollection) {
+		return addTagReferences(
+			tagReferences, userMarkupCollection, DEFAULT_BATCH_SIZE);
+	}
+	
+	/**
+	 * Bulk ingestion of a stream of references with a custom batch size, see 
+	 * {@link #addTagReferences(Stream, UserMarkupCollection)}.
+	 * @param tagReferences the references to add, the stream is not closed
+	 * @param userMarkupCollection
+	 * @param batchSize the maximum number of references per repository update
+	 * @return the number of added references
+	 */
+	public int addTagReferences(
+			Stream<TagReference> tagReferences, 
+			UserMarkupCollection userMarkupCollection, int batchSize) {
+		Spliterator<TagReference> spliterator = tagReferences.spliterator();
+		return addTagReferences(
+			Spliterators.iterator(spliterator), 
+			(int)Math.min(Integer.MAX_VALUE, spliterator.getExactSizeIfKnown()),
+			userMarkupCollection, batchSize);
+	}
+	
+	/**
+	 * Bulk ingestion of references with a custom batch size, see 
+	 * {@link #addTagReferences(Iterator, int, UserMarkupCollection)}.
+	 * @param tagReferences the references to add
+	 * @param expectedSize the expected number of references or a value 
+	 * less than or equal to zero if the number is unknown
+	 * @param userMarkupCollection
+	 * @param batchSize the maximum number of references per repository update
+	 * @return the number of added references
+	 */
+	public int addTagReferences(
+			Iterator<TagReference> tagReferences, int expectedSize,
+			UserMarkupCollection userMarkupCollection, int batchSize) {
+		
+		if (expectedSize > 0) {
+			userMarkupCollection.ensureCapacity(
+				userMarkupCollection.getResidentTagReferenceCount() + expectedSize);
+		}
+		
+		int count = 0;
+		List<TagReference> batch = new ArrayList<TagReference>(
+			(expectedSize > 0) ? Math.min(expectedSize, batchSize) : batchSize);
+		String lastInstanceID = null;
+		
+		if (tagReferences.hasNext()) {
+			setModified(userMarkupCollection);
+		}
+		
+		while (tagReferences.hasNext()) {
+			TagReference tagReference = tagReferences.next();
+			batch.add(tagReference);
+			// references of an instance usually arrive together
+			if (!tagReference.getTagInstanceID().equals(lastInstanceID)) {
+				lastInstanceID = tagReference.getTagInstanceID();
+				registerTagInstance(lastInstanceID, userMarkupCollection);
+			}
+			
+			if (batch.size() == batchSize) {
+				userMarkupCollection.addTagReferencesInBulk(batch);
+				repository.update(userMarkupCollection, batch);
+				count += batch.size();
+				batch = new ArrayList<TagReference>(batchSize);
+			}
+		}
+		
+		if (!batch.isEmpty()) {
+			userMarkupCollection.addTagReferencesInBulk(batch);
+			repository.update(userMarkupCollection, batch);
+			count += batch.size();
+		}
+		
+		account(userMarkupCollection);
+		setPersisted(userMarkupCollection);
+		
+		return count;
 	}
 
 
 	/**
-	 * @return non modifiable list of the contained UserMarkupCollections
+	 * @return non modifiable list of the loaded UserMarkupCollections, 
+	 * {@link #setTagReferenceBudget(int) evicted} collections are not included
 	 */
 	public List<UserMarkupCollection> getUserMarkupCollections() {
-		return Collections.unmodifiableList(userMarkupCollections);
+		List<UserMarkupCollection> result = new ArrayList<UserMarkupCollection>(
+			userMarkupCollections.size() + unidentifiedUserMarkupCollections.size());
+		result.addAll(userMarkupCollections.values());
+		result.addAll(unidentifiedUserMarkupCollections);
+		return Collections.unmodifiableList(result);
 	}
 
 
 	/**
+	 * {@link #setTagReferenceBudget(int) Evicted} collections are not reloaded.
+	 * They are checked against the digests of their copies at eviction time 
+	 * and get synchronized with the given TagsetDefinition when they are
+	 * loaded again. Evicted collections that are still referenced elsewhere 
+	 * are checked and returned like loaded collections.
 	 * @param tagsetDefinition
 	 * TagsetDefinition
 	 * @return a list {@link TagsetDefinition#isSynchronized(TagsetDefinition) of out ot synch} UserMarkupCollections
@@ -141,38 +755,67 @@ public class UserMarkupCollectionManager implements Iterable<UserMarkupCollectio
 		List<UserMarkupCollection> result = 
 				new ArrayList<UserMarkupCollection>();
 		
-		for (UserMarkupCollection userMarkupCollection : userMarkupCollections) {
-			// FIXME: regardless of tagsetdef containment, check tagdef containment as well to support old standard tagsets and move operations
-			
-			// no need to check non writable collections, they won't be updated anyway
-			if (userMarkupCollection.getAccessMode().equals(AccessMode.WRITE) 
-					&& 
-					userMarkupCollection.getTagLibrary().contains(tagsetDefinition)) {
-//			if (userMarkupCollection.getTagLibrary().contains(tagsetDefinition)) {
-				
-				TagsetDefinition containedTagsetDef = 
-					userMarkupCollection.getTagLibrary().getTagsetDefinition(
-							tagsetDefinition.getUuid());
-				if (!containedTagsetDef.isSynchronized(tagsetDefinition)) {
+		for (UserMarkupCollection userMarkupCollection 
+				: getUserMarkupCollections()) {
+			if (isOutOfSync(userMarkupCollection, tagsetDefinition)) {
+				result.add(userMarkupCollection);
+			}
+		}
+		
+		// evicted collections may be out of synch as well
+		for (EvictedUserMarkupCollection evictedUserMarkupCollection 
+				: evictedUserMarkupCollections.values()) {
+			UserMarkupCollection userMarkupCollection = 
+					evictedUserMarkupCollection.userMarkupCollection.get();
+			if (userMarkupCollection != null) {
+				if (isOutOfSync(userMarkupCollection, tagsetDefinition)) {
 					result.add(userMarkupCollection);
 				}
-				
 			}
-			
+			else {
+				Long digest = evictedUserMarkupCollection.tagsetDefinitionDigests.get(
+						tagsetDefinition.getUuid());
+				if ((digest != null) 
+						&& (digest.longValue() != tagsetDefinition.getDigest())) {
+					evictedUserMarkupCollection.pendingTagsetDefinitions.put(
+							tagsetDefinition.getUuid(), tagsetDefinition);
+				}
+			}
 		}
 		
 		return result;
 	}
+	
+	private boolean isOutOfSync(
+			UserMarkupCollection userMarkupCollection, 
+			TagsetDefinition tagsetDefinition) {
+		// FIXME: regardless of tagsetdef containment, check tagdef containment as well to support old standard tagsets and move operations
+		
+		// no need to check non writable collections, they won't be updated anyway
+		if (userMarkupCollection.getAccessMode().equals(AccessMode.WRITE) 
+				&& 
+				userMarkupCollection.getTagLibrary().contains(tagsetDefinition)) {
+//		if (userMarkupCollection.getTagLibrary().contains(tagsetDefinition)) {
+			
+			TagsetDefinition containedTagsetDef = 
+				userMarkupCollection.getTagLibrary().getTagsetDefinition(
+						tagsetDefinition.getUuid());
+			return !containedTagsetDef.isSynchronized(tagsetDefinition);
+		}
+		return false;
+	}
 
 	/**
 	 * Removes the given {@link TagInstance}s from the {@link UserMarkupCollection}s
 	 * that contains them. If there is no such collection in this manager, this is 
 	 * noop.
 	 * @param instanceID the TagInstance to be removed
+	 * @throws IOException if an {@link #setTagReferenceBudget(int) evicted} 
+	 * collection could not be reloaded
 	 */
-	public void removeTagInstance(Collection<String> instanceIDs) {
+	public void removeTagInstance(Collection<String> instanceIDs) throws IOException {
 		Map<UserMarkupCollection, List<TagReference>> toBeDeletedByUmc = 
-				new HashMap<UserMarkupCollection, List<TagReference>>();
+				new IdentityHashMap<UserMarkupCollection, List<TagReference>>();
 		
 		for (String instanceID : instanceIDs) {
 			UserMarkupCollection userMarkupCollection = 
@@ -189,6 +832,8 @@ public class UserMarkupCollectionManager implements Iterable<UserMarkupCollectio
 				List<TagReference> tagReferences = 
 						userMarkupCollection.getTagReferences(instanceID);
 				userMarkupCollection.removeTagReferences(tagReferences);
+				unregisterTagInstances(tagReferences, userMarkupCollection);
+				setModified(userMarkupCollection);
 				toBeDeletedRefs.addAll(tagReferences);
 			}
 		}
@@ -197,6 +842,7 @@ public class UserMarkupCollectionManager implements Iterable<UserMarkupCollectio
 			if (!entry.getValue().isEmpty()) {
 				repository.update(entry.getKey(), entry.getValue());
 			}
+			setPersisted(entry.getKey());
 		}
 	}
 	
@@ -205,8 +851,10 @@ public class UserMarkupCollectionManager implements Iterable<UserMarkupCollectio
 	 * that contains it. If there is no such collection in this manager, this is 
 	 * noop.
 	 * @param instanceID the TagInstance to be removed
+	 * @throws IOException if an {@link #setTagReferenceBudget(int) evicted} 
+	 * collection could not be reloaded
 	 */
-	public void removeTagInstance(String instanceID) {
+	public void removeTagInstance(String instanceID) throws IOException {
 		removeTagInstance(Collections.singletonList(instanceID));
 	}
 
@@ -214,32 +862,35 @@ public class UserMarkupCollectionManager implements Iterable<UserMarkupCollectio
 	 * @param instanceID 
 	 * @return the collections that contains the {@link TagInstance} with the
 	 * given ID or <code>null</code> if there is no such collection in this
-	 * manager
+	 * manager, an evicted collection gets {@link #load(String) loaded}
+	 * @throws IOException if an evicted collection could not be reloaded 
 	 */
 	private UserMarkupCollection getUserMarkupCollectionForTagInstance(
-			String instanceID) {
-		for (UserMarkupCollection userMarkupCollection : userMarkupCollections) {
-			if (userMarkupCollection.hasTagInstance(instanceID)) {
-				return userMarkupCollection;
+			String instanceID) throws IOException {
+		String userMarkupCollectionID = 
+				userMarkupCollectionIDsByTagInstanceID.get(instanceID);
+		if (userMarkupCollectionID == null) {
+			// collections without an ID are not indexed
+			for (UserMarkupCollection userMarkupCollection 
+					: unidentifiedUserMarkupCollections) {
+				if (userMarkupCollection.hasTagInstance(instanceID)) {
+					return userMarkupCollection;
+				}
 			}
+			return null;
 		}
-		return null;
+		return load(userMarkupCollectionID);
 	}
 
 	/**
 	 * @param userMarkupCollectionReference
 	 * @return the referenced collection or <code>null</code> if there is
-	 * no such collection in this manager
+	 * no such loaded collection in this manager, see 
+	 * {@link #getUserMarkupCollection(String)}
 	 */
 	public UserMarkupCollection getUserMarkupCollection(
 			UserMarkupCollectionReference userMarkupCollectionReference) {
-		for (UserMarkupCollection umc : userMarkupCollections) {
-			if (umc.getId().equals(userMarkupCollectionReference.getId())) {
-				return umc;
-			}
-		}
-		
-		return null;
+		return getUserMarkupCollection(userMarkupCollectionReference.getId());
 	}
 
 	public void remove(UserMarkupCollection userMarkupCollection) {
@@ -247,20 +898,39 @@ public class UserMarkupCollectionManager implements Iterable<UserMarkupCollectio
 				"Removing UMC " + userMarkupCollection + "#" 
 				+ ((userMarkupCollection == null)?"N/A":userMarkupCollection.getId())
 				+ " from UserMarkupCollectionManager " + this.hashCode());
-		userMarkupCollections.remove(userMarkupCollection);
+		if (userMarkupCollection.getId() == null) {
+			int index = indexOfUnidentified(userMarkupCollection);
+			if (index != -1) {
+				unidentifiedUserMarkupCollections.remove(index);
+			}
+		}
+		else if ((userMarkupCollections.remove(userMarkupCollection.getId()) != null)
+				|| (evictedUserMarkupCollections.remove(
+						userMarkupCollection.getId()) != null)) {
+			for (String instanceID : userMarkupCollection.getTagInstanceIDs()) {
+				userMarkupCollectionIDsByTagInstanceID.remove(
+						instanceID, userMarkupCollection.getId());
+			}
+			modifiedUserMarkupCollectionIDs.remove(userMarkupCollection.getId());
+			unaccount(userMarkupCollection.getId());
+		}
 	}
 
 	/**
 	 * Updates {@link ContentInfoSet bibliographical Metadata} of the 
-	 * given {@link UserMarkupCollection}.
+	 * given {@link UserMarkupCollection}. The persistent part is handled by 
+	 * {@link Repository#update(UserMarkupCollectionReference, ContentInfoSet)}.
 	 * @param userMarkupCollectionReference
 	 * @return the modified collection
+	 * @throws IOException if an {@link #setTagReferenceBudget(int) evicted} 
+	 * collection could not be reloaded
 	 */
 	public UserMarkupCollection updateUserMarkupCollection(
-			UserMarkupCollectionReference userMarkupCollectionReference) {
+			UserMarkupCollectionReference userMarkupCollectionReference) 
+					throws IOException {
 
 		UserMarkupCollection userMarkupCollection = 
-				getUserMarkupCollection(userMarkupCollectionReference);
+				load(userMarkupCollectionReference.getId());
 		
 		userMarkupCollection.setContentInfoSet(
 				userMarkupCollectionReference.getContentInfoSet());
@@ -272,8 +942,11 @@ public class UserMarkupCollectionManager implements Iterable<UserMarkupCollectio
 	 * @param instanceIDs a list of {@link TagInstance#getUuid() uuid}s of TagInstances
 	 * @return a list of all TagInstances as {@link Pair pairs} with the {@link de.catma.tag.TagLibrary#getTagPath(de.catma.tag.TagDefinition) Tag path} 
 	 * and the corresponding {@link TagInstance}.  
+	 * @throws IOException if an {@link #setTagReferenceBudget(int) evicted} 
+	 * collection could not be reloaded
 	 */
-	public List<TagInstanceInfo> getTagInstanceInfos(Collection<String> instanceIDs) {
+	public List<TagInstanceInfo> getTagInstanceInfos(Collection<String> instanceIDs) 
+			throws IOException {
 		List<TagInstanceInfo> result = 
 				new ArrayList<TagInstanceInfo>();
 		for (String instanceID : instanceIDs) {
@@ -292,31 +965,35 @@ public class UserMarkupCollectionManager implements Iterable<UserMarkupCollectio
 	 * @param instanceID the {@link TagInstance#getUuid() uuid} of the TagInstance
 	 * @return a TagInstanceInfo with the {@link de.catma.tag.TagLibrary#getTagPath(de.catma.tag.TagDefinition) Tag path}, 
 	 * the corresponding {@link TagInstance} and the relevant {@link UserMarkupCollection}.
+	 * @throws IOException if an {@link #setTagReferenceBudget(int) evicted} 
+	 * collection could not be reloaded
 	 */
-	public TagInstanceInfo getTagInstanceInfo(String instanceID) {
-		for (UserMarkupCollection umc : userMarkupCollections) {
-			if (umc.hasTagInstance(instanceID)) {
-				Pair<String, TagInstance> tagInstanceWithPath = 
-						umc.getInstance(instanceID);
-				return new TagInstanceInfo(
-					tagInstanceWithPath.getSecond(), 
-					umc, 
-					tagInstanceWithPath.getFirst());
-			}
+	public TagInstanceInfo getTagInstanceInfo(String instanceID) throws IOException {
+		UserMarkupCollection umc = getUserMarkupCollectionForTagInstance(instanceID);
+		if (umc != null) {
+			Pair<String, TagInstance> tagInstanceWithPath = 
+					umc.getInstance(instanceID);
+			return new TagInstanceInfo(
+				tagInstanceWithPath.getSecond(), 
+				umc, 
+				tagInstanceWithPath.getFirst());
 		}
 		return null;
 	}
 
 	/**
 	 * @param tagInstanceID the {@link TagInstance#getUuid() uuid} of the TagInstance
-	 * @return a list of the tag references of the given instance
+	 * @return the distinct (see {@link TagReference#equals(Object)}) tag 
+	 * references of the given instance
+	 * @throws IOException if an {@link #setTagReferenceBudget(int) evicted} 
+	 * collection could not be reloaded
 	 */
-	public Collection<TagReference> getTagReferences(String tagInstanceID) {
+	public Collection<TagReference> getTagReferences(String tagInstanceID) 
+			throws IOException {
 		Set<TagReference> result = new HashSet<TagReference>();
-		for (UserMarkupCollection umc : userMarkupCollections) {
-			if (umc.hasTagInstance(tagInstanceID)) {
-				result.addAll(umc.getTagReferences(tagInstanceID));
-			}
+		UserMarkupCollection umc = getUserMarkupCollectionForTagInstance(tagInstanceID);
+		if (umc != null) {
+			result.addAll(umc.getTagReferences(tagInstanceID));
 		}
 		return result;
 	}
@@ -327,7 +1004,7 @@ public class UserMarkupCollectionManager implements Iterable<UserMarkupCollectio
 	 * id equality)
 	 */
 	public boolean contains(UserMarkupCollectionReference umcRef) {
-		return getUserMarkupCollection(umcRef) != null;
+		return contains(umcRef.getId());
 	}
 
 	/**
@@ -335,28 +1012,75 @@ public class UserMarkupCollectionManager implements Iterable<UserMarkupCollectio
 	 * @return <code>true</code> if this manager contains the given collection
 	 */
 	public boolean contains(String userMarkupCollectionId) {
-		for (UserMarkupCollection umc : userMarkupCollections) {
-			if (umc.getId().equals(userMarkupCollectionId)) {
-				return true;
-			}
-		}
-		return false;
+		return userMarkupCollections.containsKey(userMarkupCollectionId)
+				|| evictedUserMarkupCollections.containsKey(userMarkupCollectionId);
 	}
 
 	/**
 	 * @param userMarkupCollectionId
 	 * @return the collection or <code>null</code> if there is no such
-	 * collection
+	 * collection, {@link #setTagReferenceBudget(int) evicted} collections
+	 * are returned only if they are still referenced elsewhere, use 
+	 * {@link #load(String)} to reload them
 	 */
 	public UserMarkupCollection getUserMarkupCollection(
 			String userMarkupCollectionId) {
-		for (UserMarkupCollection umc : userMarkupCollections) {
-			if (umc.getId().equals(userMarkupCollectionId)) {
-				return umc;
+		UserMarkupCollection umc = userMarkupCollections.get(userMarkupCollectionId);
+		
+		if (umc == null) {
+			EvictedUserMarkupCollection evictedUserMarkupCollection =
+					evictedUserMarkupCollections.get(userMarkupCollectionId);
+			if (evictedUserMarkupCollection != null) {
+				umc = evictedUserMarkupCollection.userMarkupCollection.get();
 			}
 		}
 		
-		return null;
+		return umc;
+	}
+	
+	/**
+	 * Loads the given collection into this manager. 
+	 * {@link #setTagReferenceBudget(int) Evicted} collections get 
+	 * reloaded from the repository unless they are still referenced elsewhere, 
+	 * the synchronizations that have been deferred while they were evicted
+	 * are applied and passed to the repository.
+	 * @param userMarkupCollectionId
+	 * @return the loaded collection or <code>null</code> if there is no such
+	 * collection in this manager
+	 * @throws IOException if an evicted collection could not be reloaded
+	 */
+	public UserMarkupCollection load(
+			String userMarkupCollectionId) throws IOException {
+		UserMarkupCollection umc = userMarkupCollections.get(userMarkupCollectionId);
+		
+		if (umc == null) {
+			EvictedUserMarkupCollection evictedUserMarkupCollection =
+					evictedUserMarkupCollections.get(userMarkupCollectionId);
+			if (evictedUserMarkupCollection != null) {
+				umc = evictedUserMarkupCollection.userMarkupCollection.get();
+				if (umc == null) {
+					UserMarkupCollectionReference userMarkupCollectionReference =
+						evictedUserMarkupCollection.userMarkupCollectionReference;
+					logger.info(
+						"Reloading UMC " + userMarkupCollectionReference + "#" 
+						+ userMarkupCollectionId 
+						+ " into UserMarkupCollectionManager " + this.hashCode());
+					if ((evictedUserMarkupCollection.windowSize > 0)
+							&& (repository instanceof WindowedRepository)) {
+						umc = ((WindowedRepository)repository).getUserMarkupCollection(
+							userMarkupCollectionReference, 
+							evictedUserMarkupCollection.windowSize);
+					}
+					else {
+						umc = repository.getUserMarkupCollection(
+								userMarkupCollectionReference);
+					}
+				}
+				add(umc);
+			}
+		}
+		
+		return umc;
 	}
 
 	/**
@@ -367,6 +1091,13 @@ public class UserMarkupCollectionManager implements Iterable<UserMarkupCollectio
 	 * @throws IOException
 	 */
 	public void updateProperty(TagInstance tagInstance, Collection<Property> properties) throws IOException {
+		String userMarkupCollectionID = 
+				userMarkupCollectionIDsByTagInstanceID.get(tagInstance.getUuid());
+		if (userMarkupCollectionID != null) {
+			modifiedUserMarkupCollectionIDs.add(userMarkupCollectionID);
+		}
 		repository.update(tagInstance, properties);
+		// the collection stays pinned if the update failed
+		modifiedUserMarkupCollectionIDs.remove(userMarkupCollectionID);
 	}
 }
@@ -0,0 +1,385 @@
+/*
+ *   CATMA Computer Aided Text Markup and Analysis
+ *
+ *   Copyright (C) 2009-2013  University Of Hamburg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.catma.document.standoffmarkup.usermarkup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import de.catma.document.AccessMode;
+import de.catma.document.Range;
+import de.catma.document.repository.WindowedRepository;
+import de.catma.tag.TagDefinition;
+import de.catma.tag.TagInstance;
+import de.catma.tag.TagLibrary;
+import de.catma.tag.TagsetDefinition;
+import de.catma.tag.TagsetDefinitionChangeSet;
+import de.catma.util.Pair;
+
+/**
+ * A {@link UserMarkupCollection} that keeps only a window of its
+ * {@link TagReference}s in memory. The references of the window are loaded on
+ * demand via {@link WindowedRepository#getTagReferences(UserMarkupCollectionReference, Range)}.
+ * The window moves to the requested range of text when references outside of
+ * the current window are requested by {@link #getTagReferences(Range) range}
+ * or by {@link #getTagReferences(String) TagInstance}. 
+ * <p>
+ * The queries of {@link UserMarkupCollection} do not declare 
+ * {@link IOException}s, a failure loading a window during a query is reported 
+ * as an {@link IllegalStateException}. Callers that need to handle load failures
+ * explicitly {@link #moveWindow(Range) move} the window before querying it.
+ * </p>
+ * <p>
+ * The only structure held for the whole collection is the enclosing range
+ * of each {@link TagInstance}, so lookups by TagInstance know where to move the
+ * window. Queries that refer to the whole collection like {@link #getTagReferences()}, 
+ * {@link #getTagReferences(TagDefinition)} or 
+ * {@link #getTagReferences(TagsetDefinition)} and the 
+ * {@link #synchronizeTagInstances(TagsetDefinitionChangeSet) synchronization}
+ * load all references of the collection via the repository into a transient 
+ * collection, the window does not move. 
+ * </p>
+ * References that are added to this collection are expected to be passed
+ * to the repository as well, since they get dropped as soon as the window moves,
+ * see {@link UserMarkupCollectionManager#addTagReferences(List, UserMarkupCollection)}.
+ *
+ * @author marco.petris@web.de
+ *
+ */
+public class WindowedUserMarkupCollection extends UserMarkupCollection {
+
+	private UserMarkupCollectionReference userMarkupCollectionReference;
+	private WindowedRepository repository;
+	private int windowSize;
+	private Map<String,Range> tagInstanceRanges;
+	private Range window;
+
+	/**
+	 * @param userMarkupCollectionReference the reference of this collection
+	 * @param tagLibrary the internal library with all relevant
+	 * {@link de.catma.tag.TagsetDefinition}s.
+	 * @param accessMode
+	 * @param repository the repository that provides the windows
+	 * @param windowSize the minimum length of a window in characters
+	 * @throws IOException failure loading the {@link WindowedRepository#getTagInstanceRanges(UserMarkupCollectionReference) TagInstance ranges}
+	 */
+	public WindowedUserMarkupCollection(
+			UserMarkupCollectionReference userMarkupCollectionReference,
+			TagLibrary tagLibrary, AccessMode accessMode,
+			WindowedRepository repository, int windowSize) throws IOException {
+		super(
+			userMarkupCollectionReference.getId(),
+			userMarkupCollectionReference.getContentInfoSet(),
+			tagLibrary, new ArrayList<TagReference>(), accessMode);
+		this.userMarkupCollectionReference = userMarkupCollectionReference;
+		this.repository = repository;
+		this.windowSize = windowSize;
+		this.tagInstanceRanges = new HashMap<String, Range>(
+			repository.getTagInstanceRanges(userMarkupCollectionReference));
+	}
+
+	/**
+	 * Moves the window if the given range is not covered by the current window.
+	 * The new window starts at the given range and has a length of at least the
+	 * window size.
+	 * @param range the range that needs to be resident
+	 * @throws IOException if the window could not be loaded, the current 
+	 * window stays resident then
+	 */
+	public void moveWindow(Range range) throws IOException {
+		if ((window != null)
+				&& (window.getStartPoint() <= range.getStartPoint())
+				&& (range.getEndPoint() <= window.getEndPoint())) {
+			return;
+		}
+
+		Range newWindow = new Range(
+			range.getStartPoint(),
+			Math.max(range.getEndPoint(), range.getStartPoint()+windowSize));
+		replaceTagReferences(
+			repository.getTagReferences(userMarkupCollectionReference, newWindow));
+		window = newWindow;
+	}
+	
+	/**
+	 * {@link #moveWindow(Range) Moves} the window for a query.
+	 * @param range the range that needs to be resident
+	 * @throws IllegalStateException if the window could not be loaded
+	 */
+	private void ensureWindow(Range range) throws IllegalStateException {
+		try {
+			moveWindow(range);
+		}
+		catch (IOException e) {
+			throw new IllegalStateException(
+				"could not load window of " + this + " for " + range, e);
+		}
+	}
+
+	/**
+	 * Loads all references of this collection without moving the window.
+	 * @return a transient collection with all references of this collection
+	 * @throws IllegalStateException if the references could not be loaded
+	 */
+	UserMarkupCollection loadAll() throws IllegalStateException {
+		List<TagReference> tagReferences = new ArrayList<TagReference>();
+		if (!tagInstanceRanges.isEmpty()) {
+			Range range = Range.getEnclosingRange(
+					new ArrayList<Range>(tagInstanceRanges.values()));
+			try {
+				tagReferences.addAll(repository.getTagReferences(
+						userMarkupCollectionReference, range));
+			}
+			catch (IOException e) {
+				throw new IllegalStateException(
+					"could not load the references of " + this, e);
+			}
+		}
+		return new UserMarkupCollection(
+				getId(), getContentInfoSet(), getTagLibrary(), 
+				tagReferences, getAccessMode());
+	}
+
+	/**
+	 * @return the current window or <code>null</code> if no window has been loaded yet
+	 */
+	public Range getWindow() {
+		return window;
+	}
+	
+	/**
+	 * @return the minimum length of a window in characters
+	 */
+	public int getWindowSize() {
+		return windowSize;
+	}
+
+	/**
+	 * @throws IllegalStateException if the window could not be loaded
+	 */
+	@Override
+	public List<TagReference> getTagReferences(Range range) 
+			throws IllegalStateException {
+		ensureWindow(range);
+		return super.getTagReferences(range);
+	}
+
+	/**
+	 * @throws IllegalStateException if the window could not be loaded
+	 */
+	@Override
+	public List<TagReference> getTagReferences(String tagInstanceID) 
+			throws IllegalStateException {
+		Range tagInstanceRange = tagInstanceRanges.get(tagInstanceID);
+		if (tagInstanceRange == null) {
+			return new ArrayList<TagReference>();
+		}
+		ensureWindow(tagInstanceRange);
+		return super.getTagReferences(tagInstanceID);
+	}
+
+	/**
+	 * Loads all references via the repository, see {@link #loadAll()}.
+	 * @throws IllegalStateException if the references could not be loaded
+	 */
+	@Override
+	public List<TagReference> getTagReferences() throws IllegalStateException {
+		return loadAll().getTagReferences();
+	}
+
+	/**
+	 * Loads all references via the repository, see {@link #loadAll()}.
+	 * @throws IllegalStateException if the references could not be loaded
+	 */
+	@Override
+	public List<TagReference> getTagReferences(
+			TagDefinition tagDefinition, boolean withChildReferences) 
+					throws IllegalStateException {
+		return loadAll().getTagReferences(tagDefinition, withChildReferences);
+	}
+
+	/**
+	 * Loads all references via the repository, see {@link #loadAll()}.
+	 * @throws IllegalStateException if the references could not be loaded
+	 */
+	@Override
+	public List<TagReference> getTagReferences(TagsetDefinition tagsetDefinition) 
+			throws IllegalStateException {
+		return loadAll().getTagReferences(tagsetDefinition);
+	}
+
+	/**
+	 * Loads all references via the repository, see {@link #loadAll()}.
+	 * @throws IllegalStateException if the references could not be loaded
+	 */
+	@Override
+	public int getTagReferenceCount(
+			TagDefinition tagDefinition, boolean withChildReferences) 
+					throws IllegalStateException {
+		return loadAll().getTagReferenceCount(tagDefinition, withChildReferences);
+	}
+
+	/**
+	 * Synchronizes the resident window and determines the references to be 
+	 * removed from all references of this collection, see {@link #loadAll()}.
+	 * The persistent part is up to the repository.
+	 * @throws IllegalStateException if the references could not be loaded
+	 */
+	@Override
+	public List<TagReference> synchronizeTagInstances(
+			TagsetDefinitionChangeSet changeSet) throws IllegalStateException {
+		return synchronizeTagInstances(changeSet, loadAll());
+	}
+	
+	/**
+	 * Synchronizes the resident window and determines the references to be 
+	 * removed from the given references, without accessing the repository.
+	 * @param changeSet
+	 * @param all all references of this collection, see {@link #loadAll()}
+	 * @return the references to be removed
+	 */
+	List<TagReference> synchronizeTagInstances(
+			TagsetDefinitionChangeSet changeSet, UserMarkupCollection all) {
+		super.synchronizeTagInstances(changeSet);
+		List<TagReference> removed = all.synchronizeTagInstances(changeSet);
+		removeFromTagInstanceRanges(removed, all);
+		return removed;
+	}
+
+	/**
+	 * Synchronizes the resident window and removes the instances that are 
+	 * gone from all references of this collection, see {@link #loadAll()}.
+	 * @throws IllegalStateException if the references could not be loaded
+	 */
+	@Override
+	public void synchronizeTagInstances() throws IllegalStateException {
+		UserMarkupCollection all = loadAll();
+		super.synchronizeTagInstances();
+		List<TagReference> before = new ArrayList<TagReference>(all.getTagReferences());
+		all.synchronizeTagInstances();
+		removeFromTagInstanceRanges(before, all);
+	}
+	
+	/**
+	 * @param tagReferences references whose instances may be gone
+	 * @param all all remaining references of this collection
+	 */
+	private void removeFromTagInstanceRanges(
+			List<TagReference> tagReferences, UserMarkupCollection all) {
+		for (TagReference tagReference : tagReferences) {
+			if (!all.hasTagInstance(tagReference.getTagInstanceID())) {
+				tagInstanceRanges.remove(tagReference.getTagInstanceID());
+			}
+		}
+	}
+
+	@Override
+	public Set<String> getTagInstanceIDs() {
+		return Collections.unmodifiableSet(tagInstanceRanges.keySet());
+	}
+
+	@Override
+	public boolean hasTagInstance(String instanceID) {
+		return tagInstanceRanges.containsKey(instanceID);
+	}
+
+	/**
+	 * @throws IllegalStateException if the window could not be loaded
+	 */
+	@Override
+	public Pair<String, TagInstance> getInstance(String instanceID) 
+			throws IllegalStateException {
+		Range tagInstanceRange = tagInstanceRanges.get(instanceID);
+		if (tagInstanceRange == null) {
+			return null;
+		}
+		ensureWindow(tagInstanceRange);
+		return super.getInstance(instanceID);
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return tagInstanceRanges.isEmpty();
+	}
+
+	@Override
+	public void addTagReferences(List<TagReference> tagReferences) {
+		super.addTagReferences(tagReferences);
+		for (TagReference tagReference : tagReferences) {
+			addToTagInstanceRanges(tagReference);
+		}
+	}
+
+	@Override
+	void addTagReferencesInBulk(List<TagReference> tagReferences) {
+		super.addTagReferencesInBulk(tagReferences);
+		for (TagReference tagReference : tagReferences) {
+			addToTagInstanceRanges(tagReference);
+		}
+	}
+
+	@Override
+	public void addTagReference(TagReference tagReference) {
+		super.addTagReference(tagReference);
+		addToTagInstanceRanges(tagReference);
+	}
+
+	private void addToTagInstanceRanges(TagReference tagReference) {
+		Range tagInstanceRange =
+				tagInstanceRanges.get(tagReference.getTagInstanceID());
+		if (tagInstanceRange == null) {
+			tagInstanceRange = tagReference.getRange();
+		}
+		else {
+			tagInstanceRange = new Range(
+				Math.min(tagInstanceRange.getStartPoint(), tagReference.getStartPoint()),
+				Math.max(tagInstanceRange.getEndPoint(), tagReference.getEndPoint()));
+		}
+		tagInstanceRanges.put(tagReference.getTagInstanceID(), tagInstanceRange);
+	}
+
+	@Override
+	public void removeTagReferences(List<TagReference> tagReferences) {
+		super.removeTagReferences(tagReferences);
+
+		Set<String> tagInstanceIDs = new HashSet<String>();
+		for (TagReference tagReference : tagReferences) {
+			tagInstanceIDs.add(tagReference.getTagInstanceID());
+		}
+
+		for (String tagInstanceID : tagInstanceIDs) {
+			Range tagInstanceRange = tagInstanceRanges.get(tagInstanceID);
+			// an instance is gone if it has been resident completely and
+			// there are no references left, otherwise the enclosing range
+			// is kept as an upper bound
+			if ((tagInstanceRange != null)
+					&& (window != null)
+					&& (window.getStartPoint() <= tagInstanceRange.getStartPoint())
+					&& (tagInstanceRange.getEndPoint() <= window.getEndPoint())
+					&& !super.hasTagInstance(tagInstanceID)) {
+				tagInstanceRanges.remove(tagInstanceID);
+			}
+		}
+	}
+}
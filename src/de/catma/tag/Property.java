@@ -31,18 +31,39 @@ public class Property {
 
 	private PropertyDefinition propertyDefinition;
 	private PropertyValueList propertyValueList;
+	// the instance of a default property, null for explicitly set properties
+	private TagInstance owner;
+	private boolean system;
 	
 	public Property(PropertyDefinition propertyDefinition,
 			PropertyValueList propertyValueList) {
 		this.propertyDefinition = propertyDefinition;
 		this.propertyValueList = propertyValueList;
 	}
+	
+	/**
+	 * Creates a default property of the given instance. It reads the 
+	 * {@link PropertyDefinition#getDefaultValueList(boolean) default values}
+	 * shared by all instances until its values get set.
+	 * @param propertyDefinition
+	 * @param owner the instance that has no value set for this property yet
+	 * @param system <code>true</code> for a system property
+	 */
+	Property(PropertyDefinition propertyDefinition,
+			TagInstance owner, boolean system) {
+		this.propertyDefinition = propertyDefinition;
+		this.owner = owner;
+		this.system = system;
+	}
 
 	public String getName() {
 		return propertyDefinition.getName();
 	}
 	
 	public PropertyValueList getPropertyValueList() {
+		if (owner != null) {
+			return propertyDefinition.getDefaultValueList(system);
+		}
 		return propertyValueList;
 	}
 	
@@ -54,8 +75,36 @@ public class Property {
 		this.propertyDefinition = propertyDefinition;
 	}
 	
+	/**
+	 * @param propertyValueList the new values, a {@link #isDefault() default property}
+	 * becomes an explicitly set property of its {@link TagInstance}
+	 */
 	public void setPropertyValueList(PropertyValueList propertyValueList) {
 		this.propertyValueList = propertyValueList;
+		if (owner != null) {
+			TagInstance tagInstance = owner;
+			owner = null;
+			if (system) {
+				tagInstance.addSystemProperty(this);
+			}
+			else {
+				tagInstance.addUserDefinedProperty(this);
+			}
+		}
+	}
+	
+	/**
+	 * @return <code>true</code> if the {@link TagInstance} has no value set
+	 * for this property yet, the values are the defaults shared by all 
+	 * instances then
+	 */
+	public boolean isDefault() {
+		return owner != null;
+	}
+	
+	@Override
+	public String toString() {
+		return "PROPERTY[" + getName() + "=" + getPropertyValueList() + "]";
 	}
 
 	/**
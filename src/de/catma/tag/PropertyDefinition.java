@@ -18,7 +18,14 @@
  */
 package de.catma.tag;
 
-import java.util.ArrayList;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import de.catma.util.Equal;
+import de.catma.util.Interner;
 
 /**
  * A definition or type for a {@link Property}.
@@ -47,23 +54,30 @@ public class PropertyDefinition {
 		catma_markupauthor,
 		;
 		
+		private static final Set<String> NAMES = new HashSet<String>();
+		static {
+			for (SystemPropertyName sysPropName : values()) {
+				NAMES.add(sysPropName.name());
+			}
+		}
+		
 		/**
 		 * @param name
 		 * @return <code>true</code> if ther is a system property with the given name 
 		 */
 		public static boolean hasPropertyName(String name) {
-			for (SystemPropertyName sysPropName : values()) {
-				if (sysPropName.name().equals(name)) {
-					return true;
-				}
-			}
-			return false;
+			return NAMES.contains(name);
 		}
 	}
+	private static final PropertyValueList EMPTY_VALUE_LIST = 
+			new PropertyValueList();
+	
 	private Integer id;
 	private String name;
 	private String uuid;
 	private PropertyPossibleValueList possibleValueList;
+	private volatile PropertyValueList firstValueList;
+	private List<TagDefinition> tagDefinitions;
 	
 	/**
 	 * @param id the identifier of the definition (depends on the repository)
@@ -76,8 +90,9 @@ public class PropertyDefinition {
 			PropertyPossibleValueList possibleValueList) {
 		this.id = id;
 		this.uuid = uuid;
-		this.name = name;
+		this.name = Interner.intern(name);
 		this.possibleValueList = possibleValueList;
+		this.tagDefinitions = new ArrayList<TagDefinition>(1);
 	}
 	
 	
@@ -88,14 +103,9 @@ public class PropertyDefinition {
 	public PropertyDefinition(PropertyDefinition toCopy) {
 		this.uuid = toCopy.uuid;
 		this.name = toCopy.name;
-		ArrayList<String> copiedPossibleValues = new ArrayList<String>();
-		copiedPossibleValues.addAll(
-			toCopy.possibleValueList.getPropertyValueList().getValues());
-
-		this.possibleValueList = 
-			new PropertyPossibleValueList(
-				copiedPossibleValues, 
-				toCopy.possibleValueList.isSingleSelect());
+		// possible value lists are immutable
+		this.possibleValueList = toCopy.possibleValueList;
+		this.tagDefinitions = new ArrayList<TagDefinition>(1);
 	}
 
 
@@ -116,7 +126,8 @@ public class PropertyDefinition {
 	}
 	
 	public void setName(String name) {
-		this.name = name;
+		this.name = Interner.intern(name);
+		notifyTagDefinitions();
 	}
 	
 	/**
@@ -133,6 +144,7 @@ public class PropertyDefinition {
 	
 	public void setPossibleValueList(PropertyPossibleValueList possibleValueList) {
 		this.possibleValueList = possibleValueList;
+		notifyTagDefinitions();
 	}
 	
 	/**
@@ -154,15 +166,71 @@ public class PropertyDefinition {
 	 */
 	public void synchronizeWith(PropertyDefinition pd) {
 		this.name = pd.name;
-		ArrayList<String> copiedPossibleValues = 
-				new ArrayList<String>();
-		copiedPossibleValues.addAll(
-				pd.possibleValueList.getPropertyValueList().getValues());
-
-		this.possibleValueList = 
-			new PropertyPossibleValueList(
-				copiedPossibleValues, 
-				pd.possibleValueList.isSingleSelect());	
+		this.possibleValueList = pd.possibleValueList;
+		notifyTagDefinitions();
+	}
+	
+	/**
+	 * @param pd
+	 * @return <code>true</code> if the given definition has the same name and 
+	 * the same possible values as this definition 
+	 */
+	boolean isSynchronized(PropertyDefinition pd) {
+		return this.name.equals(pd.name)
+			&& (this.possibleValueList.isSingleSelect() 
+					== pd.possibleValueList.isSingleSelect())
+			&& this.possibleValueList.getPropertyValueList().getValues().equals(
+					pd.possibleValueList.getPropertyValueList().getValues());
+	}
+	
+	/**
+	 * @param withFirstValue <code>true</code> for a list with the 
+	 * {@link #getFirstValue() first possible value} (the default for system 
+	 * properties) or <code>false</code> for an empty list (the
+	 * default for user defined properties)
+	 * @return the values of a {@link Property#isDefault() default property}, 
+	 * the immutable list is shared by all default properties of this definition
+	 */
+	PropertyValueList getDefaultValueList(boolean withFirstValue) {
+		if (withFirstValue) {
+			PropertyValueList valueList = firstValueList;
+			String firstValue = getFirstValue();
+			if ((valueList == null) 
+					|| !Equal.nullSave(firstValue, valueList.getFirstValue())) {
+				valueList = new PropertyValueList(firstValue);
+				firstValueList = valueList;
+			}
+			return valueList;
+		}
+		return EMPTY_VALUE_LIST;
+	}
+	
+	/**
+	 * @param tagDefinition a tag definition that contains this definition 
+	 * and needs to be notified about renames and changes of the possible values
+	 */
+	void addTagDefinition(TagDefinition tagDefinition) {
+		for (TagDefinition td : tagDefinitions) {
+			if (td == tagDefinition) {
+				return;
+			}
+		}
+		tagDefinitions.add(tagDefinition);
+	}
+	
+	void removeTagDefinition(TagDefinition tagDefinition) {
+		Iterator<TagDefinition> iterator = tagDefinitions.iterator();
+		while (iterator.hasNext()) {
+			if (iterator.next() == tagDefinition) {
+				iterator.remove();
+			}
+		}
+	}
+	
+	private void notifyTagDefinitions() {
+		for (TagDefinition tagDefinition : tagDefinitions) {
+			tagDefinition.propertyDefinitionChanged(this);
+		}
 	}
 	
 	public boolean isSystemProperty() {
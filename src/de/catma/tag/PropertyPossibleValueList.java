@@ -18,11 +18,12 @@
  */
 package de.catma.tag;
 
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
- * A list of possible values of a property.
+ * An immutable list of possible values of a property, instances can be 
+ * shared between PropertyDefinitions.
  * 
  * @author marco.petris@web.de
  * @see PropertyDefinition
@@ -42,6 +43,15 @@ public class PropertyPossibleValueList {
 		this.singleSelect = singleSelect;
 	}
 	
+	/**
+	 * Copy constructor, the copy shares the immutable list of values.
+	 * @param toCopy
+	 */
+	public PropertyPossibleValueList(PropertyPossibleValueList toCopy) {
+		this.propertyValueList = new PropertyValueList(toCopy.propertyValueList);
+		this.singleSelect = toCopy.singleSelect;
+	}
+	
 	
 	@Override
 	public String toString() {
@@ -56,14 +66,6 @@ public class PropertyPossibleValueList {
 		return propertyValueList.getFirstValue();
 	}
 	
-	void setValue(String value) {
-		setValues(asList(value));
-	}
-	
-	void setValues(List<String> values) {
-		propertyValueList.setValues(values);
-	}
-	
 	public boolean isSingleSelect() {
 		return singleSelect;
 	}
@@ -73,9 +75,7 @@ public class PropertyPossibleValueList {
 	}
 	
 	private static List<String> asList(String value) {
-		ArrayList<String> result =new ArrayList<String>();
-		result.add(value);
-		return result;
+		return Collections.singletonList(value);
 	}
 	
 	
@@ -22,8 +22,16 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
+import de.catma.util.Interner;
+
 /**
  * A list of values set for a {@link Property}.
+ * <p>
+ * The values are {@link Interner#intern(String) interned} and kept in an
+ * immutable list, empty and single valued lists use the compact 
+ * representations of {@link Collections#emptyList()} and 
+ * {@link Collections#singletonList(Object)}. Copies share the list.
+ * </p>
  * @author marco.petris@web.de
  *
  */
@@ -32,24 +40,37 @@ public class PropertyValueList {
 	private List<String> values;
 
 	public PropertyValueList(String value) {
-		this();
-		values.add(value);
+		this.values = Collections.singletonList(Interner.intern(value));
 	}
 
+	/**
+	 * @param values the values get copied
+	 */
 	public PropertyValueList(List<String> values) {
-		this.values = values;
+		this.values = compact(values);
 	}
 	
 	public PropertyValueList() {
-		values = new ArrayList<String>();
+		values = Collections.emptyList();
 	}
 
 	public PropertyValueList(PropertyValueList propertyValueList) {
-		this(new ArrayList<>(propertyValueList.values));
+		this.values = propertyValueList.values;
 	}
 
-	void setValues(List<String> values) {
-		this.values = values; 
+	private static List<String> compact(List<String> values) {
+		switch (values.size()) {
+		case 0 : 
+			return Collections.emptyList();
+		case 1 : 
+			return Collections.singletonList(Interner.intern(values.get(0)));
+		default : 
+			List<String> result = new ArrayList<String>(values.size());
+			for (String value : values) {
+				result.add(Interner.intern(value));
+			}
+			return Collections.unmodifiableList(result);
+		}
 	}
 	
 	@Override
@@ -80,7 +101,7 @@ public class PropertyValueList {
 	 * @return non modifiable list of the internal values
 	 */
 	public List<String> getValues() {
-		return Collections.unmodifiableList(values);
+		return values;
 	}
 	
 }
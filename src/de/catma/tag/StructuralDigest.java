@@ -0,0 +1,85 @@
+/*   
+ *   CATMA Computer Aided Text Markup and Analysis
+ *   
+ *   Copyright (C) 2009-2013  University Of Hamburg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.catma.tag;
+
+/**
+ * A 64 bit digest (FNV-1a with a final avalanche step) used for the 
+ * structural digests of {@link TagDefinition}s and {@link TagsetDefinition}s.
+ * Digests of unordered parts like the TagDefinitions of a TagsetDefinition
+ * are combined by addition, so they can be updated incrementally.
+ * 
+ * @author marco.petris@web.de
+ *
+ */
+final class StructuralDigest {
+	
+	private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+	
+	private long value;
+
+	StructuralDigest() {
+		value = FNV_OFFSET_BASIS;
+	}
+	
+	private void addByte(int b) {
+		value ^= (b & 0xff);
+		value *= FNV_PRIME;
+	}
+	
+	StructuralDigest add(String s) {
+		if (s == null) {
+			addByte(0);
+		}
+		else {
+			for (int i=0; i<s.length(); i++) {
+				char c = s.charAt(i);
+				addByte(c);
+				addByte(c >>> 8);
+			}
+		}
+		// separator, so that ("ab","c") and ("a","bc") differ
+		addByte(0xff);
+		return this;
+	}
+	
+	StructuralDigest add(long l) {
+		for (int shift=0; shift<64; shift+=8) {
+			addByte((int)(l >>> shift));
+		}
+		return this;
+	}
+	
+	StructuralDigest add(boolean b) {
+		addByte(b ? 1 : 0);
+		return this;
+	}
+	
+	/**
+	 * @return the digest of all parts added so far
+	 */
+	long get() {
+		// final avalanche step of SplitMix64, spreads the bits before 
+		// digests get summed up
+		long z = value;
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+}
@@ -18,12 +18,16 @@
  */
 package de.catma.tag;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.logging.Logger;
+
+import de.catma.util.Interner;
 
 /**
  * A definition of a tag. That is a type of a {@link TagInstance}.
@@ -41,7 +45,13 @@ public class TagDefinition implements Versionable {
 	private Version version;
 	private Map<String,PropertyDefinition> systemPropertyDefinitions;
 	private Map<String,PropertyDefinition> userDefinedPropertyDefinitions;
+	private Map<String,PropertyDefinition> systemPropertyDefinitionsByName;
+	private Map<String,PropertyDefinition> userDefinedPropertyDefinitionsByName;
+	private PropertyDefinition displayColorPropertyDefinition;
+	private PropertyDefinition markupAuthorPropertyDefinition;
 	private String parentUuid;
+	private List<TagsetDefinition> tagsetDefinitions;
+	private long digest;
 
 	/**
 	 * @param id the identifier of the definition (repository dependent)
@@ -59,7 +69,7 @@ public class TagDefinition implements Versionable {
 			Integer parentId, String parentUuid) {
 		this.id = id;
 		this.uuid = uuid;
-		this.name = name;
+		this.name = Interner.intern(name);
 		this.version = version;
 		this.parentId = parentId;
 		this.parentUuid = parentUuid;
@@ -68,6 +78,10 @@ public class TagDefinition implements Versionable {
 		}
 		systemPropertyDefinitions = new HashMap<String, PropertyDefinition>();
 		userDefinedPropertyDefinitions = new HashMap<String, PropertyDefinition>();
+		systemPropertyDefinitionsByName = new HashMap<String, PropertyDefinition>();
+		userDefinedPropertyDefinitionsByName = new HashMap<String, PropertyDefinition>();
+		tagsetDefinitions = new ArrayList<TagsetDefinition>(1);
+		updateDigest();
 	}
 
 	/**
@@ -105,13 +119,123 @@ public class TagDefinition implements Versionable {
 	 * @param propertyDefinition
 	 */
 	public void addSystemPropertyDefinition(PropertyDefinition propertyDefinition) {
-		systemPropertyDefinitions.put(propertyDefinition.getUuid(), propertyDefinition);
+		adoptPropertyDefinition(
+			systemPropertyDefinitions.put(
+					propertyDefinition.getUuid(), propertyDefinition),
+			propertyDefinition);
+		propertyDefinitionsChanged();
 	}
 	
 	public void addUserDefinedPropertyDefinition(PropertyDefinition propertyDefinition) {
-		userDefinedPropertyDefinitions.put(propertyDefinition.getUuid(), propertyDefinition);
+		adoptPropertyDefinition(
+			userDefinedPropertyDefinitions.put(
+					propertyDefinition.getUuid(), propertyDefinition),
+			propertyDefinition);
+		propertyDefinitionsChanged();
 	}	
 	
+	/**
+	 * @param replaced the definition that has been replaced or <code>null</code>
+	 * @param added the definition that has been added to this TagDefinition
+	 */
+	private void adoptPropertyDefinition(
+			PropertyDefinition replaced, PropertyDefinition added) {
+		if ((replaced != null) && (replaced != added)) {
+			replaced.removeTagDefinition(this);
+		}
+		added.addTagDefinition(this);
+	}
+	
+	/**
+	 * Called by the contained {@link PropertyDefinition}s after a rename or 
+	 * a change of the possible values.
+	 * @param propertyDefinition the changed definition
+	 */
+	void propertyDefinitionChanged(PropertyDefinition propertyDefinition) {
+		propertyDefinitionsChanged();
+	}
+	
+	private void propertyDefinitionsChanged() {
+		indexPropertyDefinitionNames();
+		updateDigest();
+	}
+	
+	/**
+	 * Rebuilds the name keyed maps and the slots for the display color and
+	 * the markup author. Names are reindexed with each modification of this 
+	 * definition made via this class, the {@link TagManager} or one of the
+	 * contained {@link PropertyDefinition}s.
+	 */
+	private void indexPropertyDefinitionNames() {
+		systemPropertyDefinitionsByName.clear();
+		for (PropertyDefinition pd : systemPropertyDefinitions.values()) {
+			systemPropertyDefinitionsByName.put(pd.getName(), pd);
+		}
+		userDefinedPropertyDefinitionsByName.clear();
+		for (PropertyDefinition pd : userDefinedPropertyDefinitions.values()) {
+			userDefinedPropertyDefinitionsByName.put(pd.getName(), pd);
+		}
+		displayColorPropertyDefinition = systemPropertyDefinitionsByName.get(
+			PropertyDefinition.SystemPropertyName.catma_displaycolor.name());
+		markupAuthorPropertyDefinition = systemPropertyDefinitionsByName.get(
+			PropertyDefinition.SystemPropertyName.catma_markupauthor.name());
+	}
+	
+	/**
+	 * The digest is updated with each modification of this definition made
+	 * via this class or the {@link TagManager}. Equal digests mean that two
+	 * definitions are in {@link #synchronizeWith(TagDefinition, TagsetDefinition) synch}.
+	 * @return a structural digest over the uuid, the name, the parent, the 
+	 * version and the PropertyDefinitions of this definition
+	 */
+	public long getDigest() {
+		return digest;
+	}
+	
+	private void updateDigest() {
+		long oldDigest = digest;
+		
+		// the property definitions are unordered, so their digests get summed up,
+		// system properties are matched by name during synchronization and 
+		// user defined properties by uuid
+		long propertyDefinitionsDigest = 0;
+		for (PropertyDefinition pd : systemPropertyDefinitions.values()) {
+			propertyDefinitionsDigest += 
+				addPossibleValues(new StructuralDigest().add(pd.getName()), pd).get();
+		}
+		for (PropertyDefinition pd : userDefinedPropertyDefinitions.values()) {
+			propertyDefinitionsDigest += addPossibleValues(
+				new StructuralDigest().add(pd.getUuid()).add(pd.getName()), pd).get();
+		}
+		
+		digest = new StructuralDigest()
+			.add(uuid)
+			.add(name)
+			.add(parentUuid)
+			.add((version == null) ? 0 : version.getTime())
+			.add(propertyDefinitionsDigest)
+			.get();
+		
+		if (oldDigest != digest) {
+			for (TagsetDefinition tagsetDefinition : tagsetDefinitions) {
+				tagsetDefinition.tagDefinitionDigestChanged(oldDigest, digest);
+			}
+		}
+	}
+	
+	private StructuralDigest addPossibleValues(
+			StructuralDigest propertyDefinitionDigest, PropertyDefinition pd) {
+		PropertyPossibleValueList possibleValueList = pd.getPossibleValueList();
+		if (possibleValueList != null) {
+			propertyDefinitionDigest.add(possibleValueList.isSingleSelect());
+			for (String value : 
+				possibleValueList.getPropertyValueList().getValues()) {
+				propertyDefinitionDigest.add(value);
+			}
+		}
+		return propertyDefinitionDigest;
+	}
+	
 	/**
 	 * @return the CATMA uuid see {@link de.catma.util.IDGenerator}
 	 */
@@ -132,22 +256,48 @@ public class TagDefinition implements Versionable {
 		}
 	}
 	
+	/**
+	 * @param id {@link #getUuid() uuid} of the system PropertyDefinition
+	 * @return the corresponding PropertyDefinition or <code>null</code> 
+	 */
+	PropertyDefinition getSystemPropertyDefinition(String id) {
+		return systemPropertyDefinitions.get(id);
+	}
+	
+	/**
+	 * @param id {@link #getUuid() uuid} of the user defined PropertyDefinition
+	 * @return the corresponding PropertyDefinition or <code>null</code> 
+	 */
+	PropertyDefinition getUserDefinedPropertyDefinition(String id) {
+		return userDefinedPropertyDefinitions.get(id);
+	}
+	
 	public PropertyDefinition getPropertyDefinitionByName(String propertyName) {
 		if (PropertyDefinition.SystemPropertyName.hasPropertyName(propertyName)) {
-			for (PropertyDefinition pd : systemPropertyDefinitions.values()) {
-				if (pd.getName().equals(propertyName)) {
-					return pd;
-				}
-			}
-		}
-		
-		for (PropertyDefinition pd : userDefinedPropertyDefinitions.values()) {
-			if (pd.getName().equals(propertyName)) {
+			PropertyDefinition pd = systemPropertyDefinitionsByName.get(propertyName);
+			if (pd != null) {
 				return pd;
 			}
 		}
 		
-		return null;
+		return userDefinedPropertyDefinitionsByName.get(propertyName);
+	}
+	
+	/**
+	 * @return the definition of the 
+	 * {@link PropertyDefinition.SystemPropertyName#catma_displaycolor color property}
+	 */
+	public PropertyDefinition getDisplayColorPropertyDefinition() {
+		return displayColorPropertyDefinition;
+	}
+	
+	/**
+	 * @return the definition of the 
+	 * {@link PropertyDefinition.SystemPropertyName#catma_markupauthor author property}
+	 * or <code>null</code> if there is no such definition
+	 */
+	public PropertyDefinition getMarkupAuthorPropertyDefinition() {
+		return markupAuthorPropertyDefinition;
 	}
 	
 	/**
@@ -173,15 +323,12 @@ public class TagDefinition implements Versionable {
 	 * @return see {@link PropertyDefinition.SystemPropertyName#catma_displaycolor}
 	 */
 	public String getColor() {
-		return getPropertyDefinitionByName(
-			PropertyDefinition.SystemPropertyName.catma_displaycolor.name()).getFirstValue();
+		return displayColorPropertyDefinition.getFirstValue();
 	}
 	
 	public String getAuthor() {
-		PropertyDefinition authorPropertyDef =  getPropertyDefinitionByName(
-			PropertyDefinition.SystemPropertyName.catma_markupauthor.name());
-		if (authorPropertyDef != null) {
-			return authorPropertyDef.getFirstValue();
+		if (markupAuthorPropertyDefinition != null) {
+			return markupAuthorPropertyDefinition.getFirstValue();
 		}
 		else {
 			return null;
@@ -194,19 +341,62 @@ public class TagDefinition implements Versionable {
 	}
 	
 	void setName(String name) {
-		this.name = name;
+		this.name = Interner.intern(name);
+		updateDigest();
+		notifyTagsetDefinitions(false);
+	}
+	
+	/**
+	 * @param tagsetDefinition a tagset definition that contains this definition 
+	 * and needs to be notified about renames and moves
+	 */
+	void addTagsetDefinition(TagsetDefinition tagsetDefinition) {
+		for (TagsetDefinition td : tagsetDefinitions) {
+			if (td == tagsetDefinition) {
+				return;
+			}
+		}
+		tagsetDefinitions.add(tagsetDefinition);
+	}
+	
+	void removeTagsetDefinition(TagsetDefinition tagsetDefinition) {
+		Iterator<TagsetDefinition> iterator = tagsetDefinitions.iterator();
+		while (iterator.hasNext()) {
+			if (iterator.next() == tagsetDefinition) {
+				iterator.remove();
+			}
+		}
+	}
+	
+	/**
+	 * @param moved <code>true</code> if the parent of this definition has 
+	 * changed
+	 */
+	private void notifyTagsetDefinitions(boolean moved) {
+		for (TagsetDefinition tagsetDefinition : tagsetDefinitions) {
+			tagsetDefinition.tagDefinitionChanged(this, moved);
+		}
 	}
 	
 	void setColor(String colorAsRgbInt) {
-		getPropertyDefinitionByName(
-			PropertyDefinition.SystemPropertyName.catma_displaycolor.name()).
-				getPossibleValueList().setValue(colorAsRgbInt);
+		setFirstValue(displayColorPropertyDefinition, colorAsRgbInt);
 	}
 	
 	void setAuthor(String author) {
-		getPropertyDefinitionByName(
-			PropertyDefinition.SystemPropertyName.catma_markupauthor.name()).
-				getPossibleValueList().setValue(author);
+		setFirstValue(markupAuthorPropertyDefinition, author);
+	}
+	
+	/**
+	 * Possible value lists are immutable and may be shared, so they get replaced.
+	 * @param pd
+	 * @param value the new single possible value of the given PropertyDefinition
+	 */
+	private void setFirstValue(PropertyDefinition pd, String value) {
+		PropertyPossibleValueList possibleValueList = pd.getPossibleValueList();
+		pd.setPossibleValueList(
+			new PropertyPossibleValueList(
+				Collections.singletonList(value), 
+				(possibleValueList == null) || possibleValueList.isSingleSelect()));
 	}
 	
 	public void setId(Integer id) {
@@ -233,18 +423,58 @@ public class TagDefinition implements Versionable {
 	}
 
 	/**
-	 * Synchronizes this definition with the incoming definition. Deletions due 
-	 * to the synch can be retrieved via {@link #getDeletedPropertyDefinitions()}.
+	 * Records the differences between the PropertyDefinitions of this definition
+	 * and the PropertyDefinitions of the incoming definition without 
+	 * modifying anything.
+	 * @param other
+	 * @param changeSet receives the differences
+	 */
+	void addPropertyDefinitionChanges(
+			TagDefinition other, TagsetDefinitionChangeSet changeSet) {
+		for (PropertyDefinition pd : systemPropertyDefinitions.values()) {
+			PropertyDefinition otherPd = other.getPropertyDefinitionByName(pd.getName());
+			if (otherPd == null) {
+				changeSet.addRemovedPropertyDefinition(uuid, pd.getUuid());
+			}
+			else if (!pd.isSynchronized(otherPd)) {
+				changeSet.addChangedPropertyDefinition(uuid, pd.getUuid());
+			}
+		}
+		for (PropertyDefinition pd : userDefinedPropertyDefinitions.values()) {
+			PropertyDefinition otherPd = other.getPropertyDefinition(pd.getUuid());
+			if (otherPd == null) {
+				changeSet.addRemovedPropertyDefinition(uuid, pd.getUuid());
+			}
+			else if (!pd.isSynchronized(otherPd)) {
+				changeSet.addChangedPropertyDefinition(uuid, pd.getUuid());
+			}
+		}
+		for (PropertyDefinition pd : other.getSystemPropertyDefinitions()) {
+			if (this.getPropertyDefinitionByName(pd.getName()) == null) {
+				changeSet.addAddedPropertyDefinition(uuid, pd.getUuid());
+			}
+		}
+		for (PropertyDefinition pd : other.getUserDefinedPropertyDefinitions()) {
+			if (this.getPropertyDefinition(pd.getUuid()) == null) {
+				changeSet.addAddedPropertyDefinition(uuid, pd.getUuid());
+			}
+		}
+	}
+	
+	/**
+	 * Synchronizes this definition with the incoming definition. 
 	 * 
 	 * @param other
 	 * @param thisTagsetDefinition the tagset definition of this tag definition 
 	 * is used to lookup the new {@link #getParentId() parent id} if the
 	 * {@link #getParentUuid() uuid} of the parent has changed 
+	 * @see #addPropertyDefinitionChanges(TagDefinition, TagsetDefinitionChangeSet)
 	 */
-	void synchronizeWith(TagDefinition other, TagsetDefinition thisTagsetDefinition) {
-		if (!this.getVersion().equals(other.getVersion())) {
+	void synchronizeWith(TagDefinition other, TagsetDefinition thisTagsetDefinition) {
+		if (this.getDigest() != other.getDigest()) {
 			this.name = other.name;
 			this.version = new Version(other.getVersion());
+			boolean moved = !this.parentUuid.equals(other.parentUuid);
 			if (!this.parentUuid.equals(other.uuid)) {
 				this.parentId = null;
 			}
@@ -256,13 +486,14 @@ public class TagDefinition implements Versionable {
 					this.parentId = parentDefinition.getId();
 				}
 			}
+			notifyTagsetDefinitions(moved);
 			
 			synchSystemPropertyDefinitions(systemPropertyDefinitions.values(), other);
 			synchPropertyDefinitions(userDefinedPropertyDefinitions.values(), other);
 
 			for (PropertyDefinition pd : other.getSystemPropertyDefinitions()) {
 				if (this.getPropertyDefinitionByName(pd.getName()) == null) {
-					logger.info("adding system property " + pd + " to " + this + " because of synch");
+					logger.fine("adding system property " + pd + " to " + this + " because of synch");
 					addSystemPropertyDefinition(
 							new PropertyDefinition(pd));
 				}
@@ -270,12 +501,13 @@ public class TagDefinition implements Versionable {
 
 			for (PropertyDefinition pd : other.getUserDefinedPropertyDefinitions()) {
 				if (this.getPropertyDefinition(pd.getUuid()) == null) {
-					logger.info("adding user property " + pd + " to " + this + " because of synch");
+					logger.fine("adding user property " + pd + " to " + this + " because of synch");
 					addUserDefinedPropertyDefinition(
 							new PropertyDefinition(pd));
 				}
 			}
 			
+			propertyDefinitionsChanged();
 		}
 	}
 
@@ -297,12 +529,15 @@ public class TagDefinition implements Versionable {
 			PropertyDefinition otherPd = other.getPropertyDefinition(pd.getUuid());
 			
 			if (otherPd != null) {
-				logger.info("synching " + pd + " with "  + otherPd);
-				pd.synchronizeWith(otherPd);
+				if (!pd.isSynchronized(otherPd)) {
+					logger.fine("synching " + pd + " with "  + otherPd);
+					pd.synchronizeWith(otherPd);
+				}
 			}
 			else {
-				logger.info("deleting " + pd + " from " + this);
+				logger.fine("deleting " + pd + " from " + this);
 				pdIterator.remove();
+				pd.removeTagDefinition(this);
 			}
 		}	
 	}
@@ -319,12 +554,15 @@ public class TagDefinition implements Versionable {
 			PropertyDefinition otherPd = other.getPropertyDefinitionByName(pd.getName());
 			
 			if (otherPd != null) {
-				logger.info("synching " + pd + " with "  + otherPd);
-				pd.synchronizeWith(otherPd);
+				if (!pd.isSynchronized(otherPd)) {
+					logger.fine("synching " + pd + " with "  + otherPd);
+					pd.synchronizeWith(otherPd);
+				}
 			}
 			else {
-				logger.info("deleting " + pd + " from " + this);
+				logger.fine("deleting " + pd + " from " + this);
 				pdIterator.remove();
+				pd.removeTagDefinition(this);
 			}
 		}	
 	}
@@ -333,9 +571,17 @@ public class TagDefinition implements Versionable {
 	 */
 	void setVersion() {
 		this.version = new Version();
+		// renamed property definitions have already been reindexed, see
+		// #propertyDefinitionChanged(PropertyDefinition)
+		updateDigest();
 	}
 
 	public void removeUserDefinedPropertyDefinition(PropertyDefinition propertyDefinition) {
-		this.userDefinedPropertyDefinitions.remove(propertyDefinition.getUuid());
+		PropertyDefinition removed = 
+			this.userDefinedPropertyDefinitions.remove(propertyDefinition.getUuid());
+		if (removed != null) {
+			removed.removeTagDefinition(this);
+		}
+		propertyDefinitionsChanged();
 	}
 }
@@ -18,15 +18,26 @@
  */
 package de.catma.tag;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 /**
  * An instance of a tag. The TagInstance has a {@link TagDefinition type}, a
  * set of user defined {@link Property properties} and a set of system properties.
+ * <p>
+ * Properties without explicitly set values are represented by 
+ * {@link Property#isDefault() default properties} that share their values
+ * with all other instances: system properties default to the 
+ * {@link PropertyDefinition#getFirstValue() first possible value}, user defined
+ * properties default to an empty list. The instance stores a property only 
+ * when it is {@link #addSystemProperty(Property) added} explicitly or when the 
+ * values of a default property get {@link Property#setPropertyValueList(PropertyValueList) set}.
+ * </p>
  * 
  * @author marco.petris@web.de
  *
@@ -35,6 +46,7 @@ public class TagInstance {
 
 	private String uuid;
 	private TagDefinition tagDefinition;
+	// explicitly set properties, null as long as there are none
 	private Map<String,Property> systemProperties;
 	private Map<String,Property> userDefinedProperties;
 	
@@ -46,29 +58,6 @@ public class TagInstance {
 	public TagInstance(String uuid, TagDefinition tagDefinition) {
 		this.uuid = uuid;
 		this.tagDefinition = tagDefinition;
-
-		systemProperties = new HashMap<String, Property>();
-		setDefaultValues(
-				systemProperties, 
-				tagDefinition.getSystemPropertyDefinitions(), true);
-
-		userDefinedProperties = new HashMap<String, Property>();
-		setDefaultValues(
-			userDefinedProperties, 
-			tagDefinition.getUserDefinedPropertyDefinitions(), false);
-
-	}
-	
-	private void setDefaultValues(
-			Map<String,Property> properties,
-			Collection<PropertyDefinition> propertyDefinitions, boolean useFirstValue) {
-		for (PropertyDefinition pDef : propertyDefinitions) {
-			properties.put(
-			pDef.getUuid(), 
-			new Property(pDef, 
-					useFirstValue?new PropertyValueList(pDef.getFirstValue()):
-						new PropertyValueList()));
-		}
 	}
 
 	public TagDefinition getTagDefinition() {
@@ -76,10 +65,16 @@ public class TagInstance {
 	}
 
 	public void addSystemProperty(Property property) {
+		if (systemProperties == null) {
+			systemProperties = new HashMap<String, Property>();
+		}
 		systemProperties.put(property.getPropertyDefinition().getUuid(), property);
 	}
 	
 	public void addUserDefinedProperty(Property property) {
+		if (userDefinedProperties == null) {
+			userDefinedProperties = new HashMap<String, Property>();
+		}
 		userDefinedProperties.put(property.getPropertyDefinition().getUuid(), property);
 	}
 	
@@ -98,19 +93,61 @@ public class TagInstance {
 	/**
 	 * @param uuid CATMA uuid of the {@link PropertyDefinition}
 	 * @return the {@link Property} that belongs to the given {@link PropertyDefinition}
+	 * (a {@link Property#isDefault() default} property if no value has been set)
 	 * or <code>null</code> if there is no such property
 	 */
 	public Property getSystemProperty(String uuid) {
-		return systemProperties.get(uuid);
+		return getProperty(systemProperties, uuid, true);
 	}
 	
 	/**
 	 * @param uuid CATMA uuid of the {@link PropertyDefinition}
 	 * @return the {@link Property} that belongs to the given {@link PropertyDefinition}
+	 * (a {@link Property#isDefault() default} property if no value has been set)
 	 * or <code>null</code> if there is no such property
 	 */
 	public Property getUserDefinedProperty(String uuid) {
-		return userDefinedProperties.get(uuid);
+		return getProperty(userDefinedProperties, uuid, false);
+	}
+	
+	private Property getProperty(
+			Map<String,Property> properties, String uuid, boolean system) {
+		if (properties != null) {
+			Property property = properties.get(uuid);
+			if (property != null) {
+				return property;
+			}
+		}
+		PropertyDefinition propertyDefinition = system ?
+				tagDefinition.getSystemPropertyDefinition(uuid) :
+				tagDefinition.getUserDefinedPropertyDefinition(uuid);
+		if (propertyDefinition == null) {
+			return null;
+		}
+		return getDefaultProperty(propertyDefinition, system);
+	}
+	
+	private Property getDefaultProperty(
+			PropertyDefinition propertyDefinition, boolean system) {
+		return new Property(propertyDefinition, this, system);
+	}
+	
+	/**
+	 * Sets the values of the given property, see 
+	 * {@link Property#setPropertyValueList(PropertyValueList)}.
+	 * @param uuid CATMA uuid of the {@link PropertyDefinition}
+	 * @param propertyValueList the new values
+	 * @throws IllegalArgumentException if there is no such property
+	 */
+	public void setPropertyValueList(
+			String uuid, PropertyValueList propertyValueList) 
+					throws IllegalArgumentException {
+		Property property = getProperty(uuid);
+		if (property == null) {
+			throw new IllegalArgumentException(
+				"there is no property " + uuid + " for " + this);
+		}
+		property.setPropertyValueList(propertyValueList);
 	}
 	
 	/**
@@ -118,14 +155,56 @@ public class TagInstance {
 	 * @see PropertyDefinition.SystemPropertyName
 	 */
 	public Collection<Property> getSystemProperties() {
-		return Collections.unmodifiableCollection(systemProperties.values());
+		return getProperties(
+			systemProperties, tagDefinition.getSystemPropertyDefinitions(), true);
 	}
 	
 	/**
 	 * @return non modifiable list of user defined properties
 	 */
 	public Collection<Property> getUserDefinedProperties() {
-		return Collections.unmodifiableCollection(userDefinedProperties.values());
+		return getProperties(
+			userDefinedProperties, 
+			tagDefinition.getUserDefinedPropertyDefinitions(), false);
+	}
+	
+	private Collection<Property> getProperties(
+			Map<String,Property> properties, 
+			Collection<PropertyDefinition> propertyDefinitions, boolean system) {
+		if (properties == null) {
+			List<Property> result = 
+					new ArrayList<Property>(propertyDefinitions.size());
+			for (PropertyDefinition propertyDefinition : propertyDefinitions) {
+				result.add(getDefaultProperty(propertyDefinition, system));
+			}
+			return Collections.unmodifiableList(result);
+		}
+		
+		List<Property> result = new ArrayList<Property>(
+				Math.max(properties.size(), propertyDefinitions.size()));
+		int explicitPropertyCount = 0;
+		for (PropertyDefinition propertyDefinition : propertyDefinitions) {
+			Property property = properties.get(propertyDefinition.getUuid());
+			if (property == null) {
+				property = getDefaultProperty(propertyDefinition, system);
+			}
+			else {
+				explicitPropertyCount++;
+			}
+			result.add(property);
+		}
+		// properties of removed definitions stay until the next synchronization
+		if (explicitPropertyCount < properties.size()) {
+			for (Map.Entry<String, Property> entry : properties.entrySet()) {
+				if ((system ? 
+						tagDefinition.getSystemPropertyDefinition(entry.getKey()) :
+						tagDefinition.getUserDefinedPropertyDefinition(entry.getKey())) 
+							== null) {
+					result.add(entry.getValue());
+				}
+			}
+		}
+		return Collections.unmodifiableList(result);
 	}
 	
 	/**
@@ -133,35 +212,36 @@ public class TagInstance {
 	 * {@link PropertyDefinition}, property values don't get overridden 
 	 */
 	public void synchronizeProperties() {
+		// default properties are always in synch with their definitions, 
+		// only explicitly set properties need to be synchronized
 		
-		Iterator<Map.Entry<String, Property>> iterator = systemProperties.entrySet().iterator();
-		while (iterator.hasNext()) {
-			Map.Entry<String, Property> entry = iterator.next();
-			Property p = entry.getValue();
-			if (getTagDefinition().getPropertyDefinition(entry.getKey())==null) {
-				iterator.remove();
-			}
-			else {
-				p.synchronize();
+		if (systemProperties != null) {
+			Iterator<Map.Entry<String, Property>> iterator = 
+					systemProperties.entrySet().iterator();
+			while (iterator.hasNext()) {
+				Map.Entry<String, Property> entry = iterator.next();
+				Property p = entry.getValue();
+				if (getTagDefinition().getPropertyDefinition(entry.getKey())==null) {
+					iterator.remove();
+				}
+				else {
+					p.synchronize();
+				}
 			}
 		}
 		
 		// we do not update Property values, therefore we handle only ...
 		
-		// ... deletion and ...
-		iterator = userDefinedProperties.entrySet().iterator();
-		while (iterator.hasNext()) {
-			Map.Entry<String, Property> entry = iterator.next();
-			
-			if (getTagDefinition().getPropertyDefinition(entry.getKey())==null) {
-				iterator.remove();
-			}
-		}
-		
-		// ... addition of properties
-		for (PropertyDefinition pd : getTagDefinition().getUserDefinedPropertyDefinitions()) {
-			if (!userDefinedProperties.containsKey(pd.getUuid())) {
-				addUserDefinedProperty(new Property(pd, new PropertyValueList()));
+		// ... deletion, addition of properties is covered by the defaults
+		if (userDefinedProperties != null) {
+			Iterator<Map.Entry<String, Property>> iterator = 
+					userDefinedProperties.entrySet().iterator();
+			while (iterator.hasNext()) {
+				Map.Entry<String, Property> entry = iterator.next();
+				
+				if (getTagDefinition().getPropertyDefinition(entry.getKey())==null) {
+					iterator.remove();
+				}
 			}
 		}
 	}
@@ -171,8 +251,9 @@ public class TagInstance {
 	 * @return the property with the given uuid
 	 */
 	public Property getProperty(String uuid) {
-		if (systemProperties.containsKey(uuid)) {
-			return getSystemProperty(uuid);
+		Property property = getSystemProperty(uuid);
+		if (property != null) {
+			return property;
 		}
 		return getUserDefinedProperty(uuid);
 	}
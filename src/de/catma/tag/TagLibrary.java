@@ -39,6 +39,8 @@ public class TagLibrary implements Iterable<TagsetDefinition> {
 	private String id;
 	private ContentInfoSet contentInfoSet;
 	private Map<String,TagsetDefinition> tagsetDefinitionsByID;
+	private Map<String,TagsetDefinition> tagsetDefinitionsByTagDefinitionID;
+	private int hierarchyVersion;
 	
 	/**
 	 * @param id identifier, repository dependent
@@ -52,6 +54,7 @@ public class TagLibrary implements Iterable<TagsetDefinition> {
 		this.id = id;
 		this.contentInfoSet = contentInfoSet; 
 		tagsetDefinitionsByID = new HashMap<String, TagsetDefinition>();
+		tagsetDefinitionsByTagDefinitionID = new HashMap<String, TagsetDefinition>();
 	}
 
 	public TagLibrary(TagLibrary tagLibraryToCopy) {
@@ -62,7 +65,78 @@ public class TagLibrary implements Iterable<TagsetDefinition> {
 	}
 
 	public void add(TagsetDefinition tagsetDefinition) {
-		tagsetDefinitionsByID.put(tagsetDefinition.getUuid(),tagsetDefinition);
+		TagsetDefinition replaced = 
+			tagsetDefinitionsByID.put(tagsetDefinition.getUuid(),tagsetDefinition);
+		if ((replaced != null) && (replaced != tagsetDefinition)) {
+			unregister(replaced);
+		}
+		tagsetDefinition.addTagLibrary(this);
+		for (TagDefinition tagDefinition : tagsetDefinition) {
+			tagDefinitionAdded(tagsetDefinition, tagDefinition);
+		}
+		hierarchyChanged();
+	}
+	
+	/**
+	 * Called by the TagsetDefinitions of this library when TagDefinitions 
+	 * get added, removed or moved.
+	 */
+	void hierarchyChanged() {
+		hierarchyVersion++;
+	}
+	
+	/**
+	 * @return a number that changes whenever TagsetDefinitions get added to or 
+	 * removed from this library or the 
+	 * {@link TagsetDefinition#getTagDefinitionsInHierarchyOrder() hierarchy} 
+	 * of a contained TagsetDefinition changes
+	 */
+	public int getHierarchyVersion() {
+		return hierarchyVersion;
+	}
+	
+	/**
+	 * Keeps the TagDefinition index up to date, called by the TagsetDefinitions
+	 * of this library.
+	 * @param tagsetDefinition
+	 * @param tagDefinition the TagDefinition that has been added to the given
+	 * TagsetDefinition
+	 */
+	void tagDefinitionAdded(
+			TagsetDefinition tagsetDefinition, TagDefinition tagDefinition) {
+		tagsetDefinitionsByTagDefinitionID.put(
+				tagDefinition.getUuid(), tagsetDefinition);
+	}
+	
+	/**
+	 * Keeps the TagDefinition index up to date, called by the TagsetDefinitions
+	 * of this library.
+	 * @param tagsetDefinition
+	 * @param tagDefinitionID the uuid of the TagDefinition that has been removed 
+	 * from the given TagsetDefinition
+	 */
+	void tagDefinitionRemoved(
+			TagsetDefinition tagsetDefinition, String tagDefinitionID) {
+		if (tagsetDefinitionsByTagDefinitionID.get(tagDefinitionID) 
+				== tagsetDefinition) {
+			tagsetDefinitionsByTagDefinitionID.remove(tagDefinitionID);
+			// see FIXME below, another TagsetDefinition may contain 
+			// a TagDefinition with the same uuid
+			for (TagsetDefinition other : tagsetDefinitionsByID.values()) {
+				if ((other != tagsetDefinition) 
+						&& other.hasTagDefinition(tagDefinitionID)) {
+					tagsetDefinitionsByTagDefinitionID.put(tagDefinitionID, other);
+					break;
+				}
+			}
+		}
+	}
+	
+	private void unregister(TagsetDefinition tagsetDefinition) {
+		tagsetDefinition.removeTagLibrary(this);
+		for (TagDefinition tagDefinition : tagsetDefinition) {
+			tagDefinitionRemoved(tagsetDefinition, tagDefinition.getUuid());
+		}
 	}
 
 	//FIXME: this assumes that there is only one tagsetdef that can contain a
@@ -75,10 +149,10 @@ public class TagLibrary implements Iterable<TagsetDefinition> {
 	 * @return the corresponding TagDefinition or <code>null</code>
 	 */
 	public TagDefinition getTagDefinition(String tagDefinitionID) {
-		for(TagsetDefinition tagsetDefiniton : tagsetDefinitionsByID.values()) {
-			if (tagsetDefiniton.hasTagDefinition(tagDefinitionID)) {
-				return tagsetDefiniton.getTagDefinition(tagDefinitionID);
-			}
+		TagsetDefinition tagsetDefinition = 
+				tagsetDefinitionsByTagDefinitionID.get(tagDefinitionID);
+		if (tagsetDefinition != null) {
+			return tagsetDefinition.getTagDefinition(tagDefinitionID);
 		}
 		return null;
 	}
@@ -125,12 +199,7 @@ public class TagLibrary implements Iterable<TagsetDefinition> {
 	 * @return the TagsetDefinition for the given TagDefinition or <code>null</code>.
 	 */
 	public TagsetDefinition getTagsetDefinition(TagDefinition tagDefinition) {
-		for (TagsetDefinition td : this) {
-			if (td.hasTagDefinition(tagDefinition.getUuid())) {
-				return td;
-			}
-		}
-		return null;
+		return tagsetDefinitionsByTagDefinitionID.get(tagDefinition.getUuid());
 	}
 
 	/**
@@ -142,9 +211,27 @@ public class TagLibrary implements Iterable<TagsetDefinition> {
 		TagsetDefinition tagsetDefinition = getTagsetDefinition(tagDefinition);
 		return tagsetDefinition.getChildIDs(tagDefinition);
 	}
+	
+	/**
+	 * @param tagDefinition
+	 * @param ancestor
+	 * @return <code>true</code> if the given tagDefinition is in the subtree 
+	 * of the given ancestor
+	 * @see TagsetDefinition#isDescendant(TagDefinition, TagDefinition)
+	 */
+	public boolean isDescendant(TagDefinition tagDefinition, TagDefinition ancestor) {
+		TagsetDefinition tagsetDefinition = getTagsetDefinition(ancestor);
+		return (tagsetDefinition != null) 
+				&& tagsetDefinition.isDescendant(tagDefinition, ancestor);
+	}
 
 	public void remove(TagsetDefinition tagsetDefinition) {
-		tagsetDefinitionsByID.remove(tagsetDefinition.getUuid());
+		TagsetDefinition removed = 
+				tagsetDefinitionsByID.remove(tagsetDefinition.getUuid());
+		if (removed != null) {
+			unregister(removed);
+			hierarchyChanged();
+		}
 	}
 	
 	/**
@@ -173,6 +260,16 @@ public class TagLibrary implements Iterable<TagsetDefinition> {
 		TagsetDefinition tagsetDefinition = getTagsetDefinition(tagDefinition);
 		return tagsetDefinition.getTagPath(tagDefinition);
 	}
+	
+	/**
+	 * @param tagDefinition
+	 * @return the number of ancestors of the given TagDefinition
+	 * @see TagsetDefinition#getDepth(TagDefinition)
+	 */
+	public int getDepth(TagDefinition tagDefinition) {
+		TagsetDefinition tagsetDefinition = getTagsetDefinition(tagDefinition);
+		return tagsetDefinition.getDepth(tagDefinition);
+	}
 
 	@Override
 	public String toString() {
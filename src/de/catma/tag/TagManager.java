@@ -246,13 +246,43 @@ public class TagManager {
 	 * Synchronizes td1 with td2 via {@link TagsetDefinition#synchronizeWith(TagsetDefinition)}}
 	 * @param td1
 	 * @param td2
+	 * @return the differences between td1 and td2 that have been applied to td1
 	 */
-	public void synchronize(TagsetDefinition td1, TagsetDefinition td2) {
-		logger.info("synching " + td1 + " with " + td2);
-		td1.synchronizeWith(td2);
+	public TagsetDefinitionChangeSet synchronize(
+			TagsetDefinition td1, TagsetDefinition td2) {
+		logger.fine("synching " + td1 + " with " + td2);
+		TagsetDefinitionChangeSet changeSet = td1.synchronizeWith(td2);
 		// no event needed, since synchronization goes always along with
 		// modifications of UserMarkupCollections, we handle the two
 		// things together in the UserMarkupCollectionManager
+		return changeSet;
+	}
+	
+	/**
+	 * @param td1
+	 * @param td2
+	 * @return the differences between td1 and td2, td1 is not modified
+	 * @see #synchronize(TagsetDefinition, TagsetDefinition, TagsetDefinitionChangeSet)
+	 */
+	public TagsetDefinitionChangeSet getChangeSet(
+			TagsetDefinition td1, TagsetDefinition td2) {
+		return td1.getChangeSet(td2);
+	}
+	
+	/**
+	 * Synchronizes td1 with td2 by applying already computed differences via 
+	 * {@link TagsetDefinition#synchronizeWith(TagsetDefinition, TagsetDefinitionChangeSet)}, 
+	 * so the same differences can be applied to several copies of a 
+	 * TagsetDefinition.
+	 * @param td1 a TagsetDefinition in the state the change set has been computed for 
+	 * @param td2
+	 * @param changeSet the {@link #getChangeSet(TagsetDefinition, TagsetDefinition) differences}
+	 */
+	public void synchronize(
+			TagsetDefinition td1, TagsetDefinition td2, 
+			TagsetDefinitionChangeSet changeSet) {
+		logger.fine("synching " + td1 + " with " + td2);
+		td1.synchronizeWith(td2, changeSet);
 	}
 
 	public void removeUserDefinedPropertyDefinition(
@@ -19,6 +19,8 @@
 package de.catma.tag;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -26,6 +28,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 
 /**
@@ -36,6 +39,121 @@ import java.util.logging.Logger;
  */
 public class TagsetDefinition implements Versionable, Iterable<TagDefinition> {
 	
+	/**
+	 * Euler tour numbering of the hierarchy: the TagDefinitions in depth first 
+	 * pre-order and for each TagDefinition the pre-order number of the last 
+	 * TagDefinition of its subtree. The descendants of a TagDefinition are the 
+	 * contiguous range right behind its own position.
+	 */
+	private static class HierarchyNumbering {
+		private final int structureVersion;
+		private final Map<String,Integer> preOrderNumbersByID;
+		private final List<TagDefinition> tagDefinitionsInPreOrder;
+		private final int[] subtreeEnds;
+		
+		private HierarchyNumbering(
+				int structureVersion, Collection<TagDefinition> tagDefinitions) {
+			this.structureVersion = structureVersion;
+			
+			Map<String,List<TagDefinition>> childrenByParentID = 
+					new HashMap<String, List<TagDefinition>>();
+			for (TagDefinition tagDefinition : tagDefinitions) {
+				List<TagDefinition> children = 
+						childrenByParentID.get(tagDefinition.getParentUuid());
+				if (children == null) {
+					children = new ArrayList<TagDefinition>();
+					childrenByParentID.put(tagDefinition.getParentUuid(), children);
+				}
+				children.add(tagDefinition);
+			}
+			
+			preOrderNumbersByID = new HashMap<String, Integer>();
+			TagDefinition[] preOrder = new TagDefinition[tagDefinitions.size()];
+			subtreeEnds = new int[tagDefinitions.size()];
+			int next = 0;
+			
+			Set<String> tagDefinitionIDs = new HashSet<String>();
+			for (TagDefinition tagDefinition : tagDefinitions) {
+				tagDefinitionIDs.add(tagDefinition.getUuid());
+			}
+			
+			// top level definitions first, then definitions with a parent
+			// that is not part of this tagset and finally definitions that
+			// are part of a cycle
+			List<TagDefinition> topLevel = childrenByParentID.get("");
+			if (topLevel != null) {
+				for (TagDefinition tagDefinition : topLevel) {
+					next = number(tagDefinition, childrenByParentID, preOrder, next);
+				}
+			}
+			for (TagDefinition tagDefinition : tagDefinitions) {
+				if (!preOrderNumbersByID.containsKey(tagDefinition.getUuid())
+						&& !tagDefinitionIDs.contains(tagDefinition.getParentUuid())) {
+					next = number(tagDefinition, childrenByParentID, preOrder, next);
+				}
+			}
+			for (TagDefinition tagDefinition : tagDefinitions) {
+				if (!preOrderNumbersByID.containsKey(tagDefinition.getUuid())) {
+					next = number(tagDefinition, childrenByParentID, preOrder, next);
+				}
+			}
+			
+			tagDefinitionsInPreOrder = 
+					Collections.unmodifiableList(Arrays.asList(preOrder));
+		}
+		
+		private int number(
+				TagDefinition tagDefinition, 
+				Map<String,List<TagDefinition>> childrenByParentID, 
+				TagDefinition[] preOrder, int next) {
+			int preOrderNumber = next++;
+			preOrder[preOrderNumber] = tagDefinition;
+			preOrderNumbersByID.put(tagDefinition.getUuid(), preOrderNumber);
+			
+			List<TagDefinition> children = 
+					childrenByParentID.get(tagDefinition.getUuid());
+			if (children != null) {
+				for (TagDefinition child : children) {
+					if (!preOrderNumbersByID.containsKey(child.getUuid())) {
+						next = number(child, childrenByParentID, preOrder, next);
+					}
+				}
+			}
+			subtreeEnds[preOrderNumber] = next-1;
+			return next;
+		}
+		
+		/**
+		 * @param tagDefinitionID
+		 * @return the pre-order number or <code>-1</code> if there is no such
+		 * TagDefinition
+		 */
+		private int getPreOrderNumber(String tagDefinitionID) {
+			Integer preOrderNumber = preOrderNumbersByID.get(tagDefinitionID);
+			return (preOrderNumber == null) ? -1 : preOrderNumber;
+		}
+	}
+	
+	/**
+	 * Lazily filled caches of derived hierarchy data of a single structure 
+	 * version. Structural changes replace the caches as a whole instead of
+	 * clearing them, so concurrent readers never mix entries of different 
+	 * versions.
+	 */
+	private static class HierarchyCaches {
+		private final int structureVersion;
+		private final Map<String,String> tagPaths;
+		private final Map<String,Integer> depths;
+		private final Map<String,Set<String>> childIDs;
+		
+		private HierarchyCaches(int structureVersion) {
+			this.structureVersion = structureVersion;
+			this.tagPaths = new ConcurrentHashMap<String, String>();
+			this.depths = new ConcurrentHashMap<String, Integer>();
+			this.childIDs = new ConcurrentHashMap<String, Set<String>>();
+		}
+	}
+	
 	private Logger logger = Logger.getLogger(this.getClass().getName());
 	private Integer id;
 	private String uuid;
@@ -43,6 +161,16 @@ public class TagsetDefinition implements Versionable, Iterable<TagDefinition> {
 	private Version version;
 	private Map<String,TagDefinition> tagDefinitions;
 	private Map<String,Set<String>> tagDefinitionChildren;
+	private List<TagLibrary> tagLibraries;
+	
+	// caches of derived hierarchy data, valid as long as their 
+	// structure version equals structureVersion
+	private volatile int structureVersion;
+	private volatile HierarchyCaches hierarchyCaches;
+	private volatile HierarchyNumbering hierarchyNumbering;
+	
+	// sum of the digests of all TagDefinitions
+	private long tagDefinitionsDigest;
 	
 	/**
 	 * @param id a repository dependent identifier
@@ -58,10 +186,11 @@ public class TagsetDefinition implements Versionable, Iterable<TagDefinition> {
 		this.version = version;
 		this.tagDefinitions = new HashMap<String, TagDefinition>();
 		this.tagDefinitionChildren = new HashMap<String, Set<String>>();
+		this.tagLibraries = new ArrayList<TagLibrary>(1);
 	}
 
 	/**
-	 * Copy constructor
+	 * Copy constructor.
 	 * @param toCopy
 	 */
 	public TagsetDefinition(TagsetDefinition toCopy) {
@@ -81,13 +210,158 @@ public class TagsetDefinition implements Versionable, Iterable<TagDefinition> {
 	}
 
 	public void addTagDefinition(TagDefinition tagDef) {
-		tagDefinitions.put(tagDef.getUuid(),tagDef);
+		TagDefinition replaced = tagDefinitions.put(tagDef.getUuid(),tagDef);
+		if (replaced != null) {
+			tagDefinitionsDigest -= replaced.getDigest();
+			if (replaced != tagDef) {
+				replaced.removeTagsetDefinition(this);
+			}
+		}
+		tagDef.addTagsetDefinition(this);
+		tagDefinitionsDigest += tagDef.getDigest();
+		hierarchyChanged();
 		if (!tagDefinitionChildren.containsKey(tagDef.getParentUuid())) {
 			tagDefinitionChildren.put(
 					tagDef.getParentUuid(), new HashSet<String>());
 		}
 		tagDefinitionChildren.get(
 				tagDef.getParentUuid()).add(tagDef.getUuid());
+		for (TagLibrary tagLibrary : tagLibraries) {
+			tagLibrary.tagDefinitionAdded(this, tagDef);
+		}
+	}
+	
+	/**
+	 * @param tagLibrary a library that contains this definition and needs to 
+	 * be notified about added and removed TagDefinitions
+	 */
+	void addTagLibrary(TagLibrary tagLibrary) {
+		for (TagLibrary tl : tagLibraries) {
+			if (tl == tagLibrary) {
+				return;
+			}
+		}
+		tagLibraries.add(tagLibrary);
+	}
+	
+	void removeTagLibrary(TagLibrary tagLibrary) {
+		Iterator<TagLibrary> iterator = tagLibraries.iterator();
+		while (iterator.hasNext()) {
+			if (iterator.next() == tagLibrary) {
+				iterator.remove();
+			}
+		}
+	}
+	
+	/**
+	 * Invalidates the cached hierarchy data, called by the TagDefinitions 
+	 * of this definition when they get renamed or moved.
+	 * @param tagDefinition the changed TagDefinition
+	 * @param moved <code>true</code> if the parent of the TagDefinition has changed
+	 */
+	void tagDefinitionChanged(TagDefinition tagDefinition, boolean moved) {
+		if (moved) {
+			hierarchyChanged();
+		}
+		else {
+			structureChanged();
+		}
+	}
+	
+	/**
+	 * Keeps the digest of this definition up to date, called by the 
+	 * TagDefinitions of this definition.
+	 * @param oldDigest
+	 * @param newDigest
+	 */
+	void tagDefinitionDigestChanged(long oldDigest, long newDigest) {
+		tagDefinitionsDigest += newDigest - oldDigest;
+	}
+	
+	/**
+	 * The digest is updated incrementally with each modification of a 
+	 * TagDefinition, so this is a constant time operation.
+	 * @return a structural digest over the uuid, the version and the 
+	 * {@link TagDefinition#getDigest() digests} of all TagDefinitions of this
+	 * definition, usable for change detection across repositories
+	 */
+	public long getDigest() {
+		return new StructuralDigest()
+			.add(uuid)
+			.add(version.getTime())
+			.add(tagDefinitionsDigest)
+			.get();
+	}
+	
+	private void structureChanged() {
+		structureVersion++;
+	}
+	
+	/**
+	 * A TagDefinition has been added, removed or moved, the libraries of this
+	 * definition get notified, see {@link TagLibrary#getHierarchyVersion()}.
+	 */
+	private void hierarchyChanged() {
+		structureChanged();
+		for (TagLibrary tagLibrary : tagLibraries) {
+			tagLibrary.hierarchyChanged();
+		}
+	}
+	
+	private HierarchyCaches getHierarchyCaches() {
+		HierarchyCaches caches = hierarchyCaches;
+		int currentStructureVersion = structureVersion;
+		if ((caches == null) 
+				|| (caches.structureVersion != currentStructureVersion)) {
+			caches = new HierarchyCaches(currentStructureVersion);
+			hierarchyCaches = caches;
+		}
+		return caches;
+	}
+	
+	/**
+	 * @param tagDefinition
+	 * @return <code>true</code> if data derived from the given instance may be
+	 * cached, i. e. it is the instance held by this definition
+	 */
+	private boolean isCacheable(TagDefinition tagDefinition) {
+		return tagDefinitions.get(tagDefinition.getUuid()) == tagDefinition;
+	}
+	
+	private HierarchyNumbering getHierarchyNumbering() {
+		HierarchyNumbering numbering = hierarchyNumbering;
+		int currentStructureVersion = structureVersion;
+		if ((numbering == null) 
+				|| (numbering.structureVersion != currentStructureVersion)) {
+			numbering = new HierarchyNumbering(
+					currentStructureVersion, tagDefinitions.values());
+			hierarchyNumbering = numbering;
+		}
+		return numbering;
+	}
+	
+	/**
+	 * The test is a comparison of the Euler tour numbers of the two 
+	 * TagDefinitions, the numbering is rebuilt lazily after structural changes.
+	 * @param tagDefinition
+	 * @param ancestor
+	 * @return <code>true</code> if the given tagDefinition is a descendant of the 
+	 * given ancestor (i. e. in its subtree and not the ancestor itself), 
+	 * else <code>false</code>
+	 */
+	public boolean isDescendant(TagDefinition tagDefinition, TagDefinition ancestor) {
+		HierarchyNumbering numbering = getHierarchyNumbering();
+		int ancestorNumber = numbering.getPreOrderNumber(ancestor.getUuid());
+		int number = numbering.getPreOrderNumber(tagDefinition.getUuid());
+		return (ancestorNumber != -1) 
+				&& (ancestorNumber < number) 
+				&& (number <= numbering.subtreeEnds[ancestorNumber]);
+	}
+	
+	private void notifyTagDefinitionRemoved(String tagDefinitionID) {
+		for (TagLibrary tagLibrary : tagLibraries) {
+			tagLibrary.tagDefinitionRemoved(this, tagDefinitionID);
+		}
 	}
 	
 	public String getUuid() {
@@ -147,58 +421,75 @@ public class TagsetDefinition implements Versionable, Iterable<TagDefinition> {
 	 * TagDefinition (deep list)
 	 */
 	public List<TagDefinition> getChildren(TagDefinition tagDefinition) {
-		List<TagDefinition> children = new ArrayList<TagDefinition>();
-		Set<String> directChildrenIDs = 
-				tagDefinitionChildren.get(tagDefinition.getUuid());
-		
-		if (directChildrenIDs == null) {
+		HierarchyNumbering numbering = getHierarchyNumbering();
+		int number = numbering.getPreOrderNumber(tagDefinition.getUuid());
+		if (number == -1) {
 			return Collections.emptyList();
-			
 		}
 		
-		for (String childID : directChildrenIDs) {
-			TagDefinition child = getTagDefinition(childID); 
-			children.add(child);
-			children.addAll(getChildren(child));
-		}
-
-		return Collections.unmodifiableList(children);
+		// the subtree is the contiguous pre-order range behind the definition
+		return numbering.tagDefinitionsInPreOrder.subList(
+				number+1, numbering.subtreeEnds[number]+1);
 	}
 
+	/**
+	 * The subtree of a TagDefinition is the contiguous range right behind 
+	 * its own position, its size is the number of its 
+	 * {@link #getChildren(TagDefinition) children}. The order is rebuilt lazily 
+	 * after structural changes.
+	 * @return an unmodifiable list of all TagDefinitions in depth first pre-order
+	 */
+	public List<TagDefinition> getTagDefinitionsInHierarchyOrder() {
+		return getHierarchyNumbering().tagDefinitionsInPreOrder;
+	}
+
 	/**
 	 * @param tagDefinition
 	 * @return a set of the uuids of the child TagDefinitions of the given
 	 * TagDefinition
 	 */
 	Set<String> getChildIDs(TagDefinition tagDefinition) {
-		Set<String> childIDs = new HashSet<String>();
-		Set<String> directChildrenIDs = 
-				tagDefinitionChildren.get(tagDefinition.getUuid());
+		HierarchyCaches caches = getHierarchyCaches();
+		Set<String> childIDs = caches.childIDs.get(tagDefinition.getUuid());
+		if (childIDs != null) {
+			return childIDs;
+		}
 		
-		if (directChildrenIDs == null) {
+		List<TagDefinition> children = getChildren(tagDefinition);
+		if (children.isEmpty()) {
 			return Collections.emptySet();
-			
 		}
 		
-		for (String childID : directChildrenIDs) {
-			TagDefinition child = getTagDefinition(childID); 
+		childIDs = new HashSet<String>();
+		for (TagDefinition child : children) {
 			childIDs.add(child.getUuid());
-			childIDs.addAll(getChildIDs(child));
 		}
-
-		return Collections.unmodifiableSet(childIDs);	
+		
+		childIDs = Collections.unmodifiableSet(childIDs);
+		caches.childIDs.put(tagDefinition.getUuid(), childIDs);
+		return childIDs;
 	}
 
 	void setName(String name) {
 		this.name = name;
 	}
-
+	
 	public void remove(TagDefinition tagDefinition) {
 		for (TagDefinition child : getChildren(tagDefinition)) {
-			remove(child);
+			removeTagDefinition(child);
+		}
+		removeTagDefinition(tagDefinition);
+	}
+	
+	private void removeTagDefinition(TagDefinition tagDefinition) {
+		TagDefinition removed = this.tagDefinitions.remove(tagDefinition.getUuid());
+		if (removed != null) {
+			tagDefinitionsDigest -= removed.getDigest();
+			removed.removeTagsetDefinition(this);
 		}
-		this.tagDefinitions.remove(tagDefinition.getUuid());
 		removeFromChildrenCache(tagDefinition);
+		hierarchyChanged();
+		notifyTagDefinitionRemoved(tagDefinition.getUuid());
 	}
 	
 	private void removeFromChildrenCache(TagDefinition tagDefinition) {
@@ -215,21 +506,58 @@ public class TagsetDefinition implements Versionable, Iterable<TagDefinition> {
 	 * @return the path from the top level TagDefinition down to the given TagDefintion
 	 */
 	public String getTagPath(TagDefinition tagDefinition) {
+		HierarchyCaches caches = getHierarchyCaches();
+		boolean cacheable = isCacheable(tagDefinition);
+		if (cacheable) {
+			String tagPath = caches.tagPaths.get(tagDefinition.getUuid());
+			if (tagPath != null) {
+				return tagPath;
+			}
+		}
+		
+		String tagPath;
+		if (tagDefinition.getParentUuid().isEmpty()) {
+			tagPath = "/" + tagDefinition.getName();
+		}
+		else {
+			tagPath = getTagPath(getTagDefinition(tagDefinition.getParentUuid())) 
+					+ "/" + tagDefinition.getName();
+		}
 		
-		StringBuilder builder = new StringBuilder();
-		builder.append("/");
-		builder.append(tagDefinition.getName());
-		String baseID = tagDefinition.getParentUuid();
+		if (cacheable) {
+			caches.tagPaths.put(tagDefinition.getUuid(), tagPath);
+		}
+		return tagPath;
+	}
+	
+	/**
+	 * @param tagDefinition
+	 * @return the number of ancestors of the given TagDefinition, i. e. 
+	 * <code>0</code> for a top level TagDefinition
+	 */
+	public int getDepth(TagDefinition tagDefinition) {
+		HierarchyCaches caches = getHierarchyCaches();
+		boolean cacheable = isCacheable(tagDefinition);
+		if (cacheable) {
+			Integer depth = caches.depths.get(tagDefinition.getUuid());
+			if (depth != null) {
+				return depth;
+			}
+		}
 		
-		while (!baseID.isEmpty()) {
-			TagDefinition parentDef = getTagDefinition(baseID);
-			builder.insert(0, parentDef.getName());
-			builder.insert(0, "/");
-			
-			baseID = parentDef.getParentUuid();
+		int depth = 0;
+		if (!tagDefinition.getParentUuid().isEmpty()) {
+			TagDefinition parentDefinition = 
+					getTagDefinition(tagDefinition.getParentUuid());
+			if (parentDefinition != null) {
+				depth = getDepth(parentDefinition) + 1;
+			}
 		}
 		
-		return builder.toString();
+		if (cacheable) {
+			caches.depths.put(tagDefinition.getUuid(), depth);
+		}
+		return depth;
 	}
 
 	/**
@@ -245,14 +573,69 @@ public class TagsetDefinition implements Versionable, Iterable<TagDefinition> {
 
 	
 	/**
-	 * Synchronizes this definition with the given definition. Deletions resulting
-	 * from this synch can be retrieved via {@link #getDeletedTagDefinitions()}.
+	 * Synchronizes this definition with the given definition. 
 	 * @param tagsetDefinition
+	 * @return the additions, deletions and changes resulting from this synch
 	 * @throws IllegalArgumentException if the {@link #getUuid() uuids} of the
 	 * definitions are not equal
 	 */
-	void synchronizeWith(
+	TagsetDefinitionChangeSet synchronizeWith(
 			TagsetDefinition tagsetDefinition) throws IllegalArgumentException {
+		TagsetDefinitionChangeSet changeSet = getChangeSet(tagsetDefinition);
+		synchronizeWith(tagsetDefinition, changeSet);
+		return changeSet;
+	}
+	
+	/**
+	 * Computes the differences between this definition and the given definition
+	 * without modifying anything.
+	 * @param tagsetDefinition
+	 * @return the additions, deletions and changes needed to synch this 
+	 * definition with the given definition
+	 * @throws IllegalArgumentException if the {@link #getUuid() uuids} of the
+	 * definitions are not equal
+	 */
+	TagsetDefinitionChangeSet getChangeSet(
+			TagsetDefinition tagsetDefinition) throws IllegalArgumentException {
+		if (!this.getUuid().equals(tagsetDefinition.getUuid())) {
+			throw new IllegalArgumentException(
+				"can only synch between different versions of the same uuid, this! uuid #" 
+				+ this.getUuid() + " incoming uuid #" + tagsetDefinition.getUuid());
+		}
+		
+		TagsetDefinitionChangeSet changeSet = new TagsetDefinitionChangeSet();
+		
+		for (TagDefinition td : tagDefinitions.values()) {
+			TagDefinition other = tagsetDefinition.getTagDefinition(td.getUuid());
+			if (other == null) {
+				changeSet.addRemovedTagDefinition(td.getUuid());
+			}
+			else if (td.getDigest() != other.getDigest()) {
+				changeSet.addChangedTagDefinition(td.getUuid());
+				td.addPropertyDefinitionChanges(other, changeSet);
+			}
+		}
+		
+		for (TagDefinition td : tagsetDefinition) {
+			if (!this.hasTagDefinition(td.getUuid())) {
+				changeSet.addAddedTagDefinition(td.getUuid());
+			}
+		}
+		
+		return changeSet;
+	}
+	
+	/**
+	 * Applies the given changes, only the affected TagDefinitions are touched.
+	 * @param tagsetDefinition the definition this definition gets synched with
+	 * @param changeSet the {@link #getChangeSet(TagsetDefinition) differences} between
+	 * a definition in the state of this definition and the given definition 
+	 * @throws IllegalArgumentException if the {@link #getUuid() uuids} of the
+	 * definitions are not equal
+	 */
+	void synchronizeWith(
+			TagsetDefinition tagsetDefinition, TagsetDefinitionChangeSet changeSet) 
+					throws IllegalArgumentException {
 		if (!this.getUuid().equals(tagsetDefinition.getUuid())) {
 			throw new IllegalArgumentException(
 				"can only synch between different versions of the same uuid, this! uuid #" 
@@ -264,65 +647,44 @@ public class TagsetDefinition implements Versionable, Iterable<TagDefinition> {
 			this.version = new Version(tagsetDefinition.getVersion());
 		}
 		
-		Iterator<Map.Entry<String,TagDefinition>> iterator = 
-				tagDefinitions.entrySet().iterator();
-		
-		while(iterator.hasNext()) {
-			TagDefinition td = iterator.next().getValue();
-			
-			if (tagsetDefinition.hasTagDefinition(td.getUuid())) {
-				TagDefinition other = 
-						tagsetDefinition.getTagDefinition(td.getUuid());
-				if (!td.getVersion().equals(other.getVersion())) {
-					logger.info("synching " + td + " with " + other);
-					td.synchronizeWith(other, this);
-				}
-			}
-			else {
-				logger.info("marking " + td + " in " + this + " as deleted");
-				iterator.remove();
+		for (String tagDefinitionID : changeSet.getRemovedTagDefinitionIDs()) {
+			TagDefinition td = tagDefinitions.remove(tagDefinitionID);
+			if (td != null) {
+				logger.fine("marking " + td + " in " + this + " as deleted");
+				tagDefinitionsDigest -= td.getDigest();
+				td.removeTagsetDefinition(this);
 				removeFromChildrenCache(td);
+				hierarchyChanged();
+				notifyTagDefinitionRemoved(tagDefinitionID);
 			}
-			
 		}
-		for (TagDefinition td : tagsetDefinition) {
-			if (!this.hasTagDefinition(td.getUuid())) {
-				logger.info("adding " + td + " to " + this + " because of synch");
+		
+		for (String tagDefinitionID : changeSet.getChangedTagDefinitionIDs()) {
+			TagDefinition td = tagDefinitions.get(tagDefinitionID);
+			TagDefinition other = tagsetDefinition.getTagDefinition(tagDefinitionID);
+			if ((td != null) && (other != null)) {
+				logger.fine("synching " + td + " with " + other);
+				td.synchronizeWith(other, this);
+			}
+		}
+		
+		for (String tagDefinitionID : changeSet.getAddedTagDefinitionIDs()) {
+			TagDefinition td = tagsetDefinition.getTagDefinition(tagDefinitionID);
+			if ((td != null) && !this.hasTagDefinition(tagDefinitionID)) {
+				logger.fine("adding " + td + " to " + this + " because of synch");
 				addTagDefinition(new TagDefinition(td));
 			}
 		}
 	}
 	
 	/**
+	 * This is a comparison of the {@link #getDigest() digests}.
 	 * @param tagsetDefinition
 	 * @return true if this definition and the given definition are in 
 	 * {@link #synchronizeWith(TagsetDefinition) synch}.
 	 */
 	public boolean isSynchronized(TagsetDefinition tagsetDefinition) {
-		
-		if (this.getVersion().equals(tagsetDefinition.getVersion())) {
-			for (TagDefinition td : this) {
-				if (tagsetDefinition.hasTagDefinition(td.getUuid())) {
-					if (!td.getVersion().equals(
-							tagsetDefinition.getTagDefinition(
-									td.getUuid()).getVersion())) {
-						return false;
-					}
-				}
-				else {
-					return false;
-				}
-			}
-			
-			for (TagDefinition td : tagsetDefinition) {
-				if (!this.hasTagDefinition(td.getUuid())) {
-					return false; 
-				}
-			}
-			
-			return true;
-		}
-		return false;
+		return this.getDigest() == tagsetDefinition.getDigest();
 	}
 	
 	void setVersion() {
@@ -0,0 +1,178 @@
+/*
+ *   CATMA Computer Aided Text Markup and Analysis
+ *
+ *   Copyright (C) 2009-2013  University Of Hamburg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.catma.tag;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The differences found by a
+ * {@link TagsetDefinition#synchronizeWith(TagsetDefinition) synchronization} of
+ * two versions of a {@link TagsetDefinition}: the uuids of the added, removed and
+ * changed {@link TagDefinition}s and for each changed TagDefinition the uuids
+ * of its added, removed and changed {@link PropertyDefinition}s.
+ *
+ * @author marco.petris@web.de
+ *
+ */
+public class TagsetDefinitionChangeSet {
+
+	private Set<String> addedTagDefinitionIDs;
+	private Set<String> removedTagDefinitionIDs;
+	private Set<String> changedTagDefinitionIDs;
+	private Map<String,Set<String>> addedPropertyDefinitionIDs;
+	private Map<String,Set<String>> removedPropertyDefinitionIDs;
+	private Map<String,Set<String>> changedPropertyDefinitionIDs;
+
+	public TagsetDefinitionChangeSet() {
+		addedTagDefinitionIDs = new HashSet<String>();
+		removedTagDefinitionIDs = new HashSet<String>();
+		changedTagDefinitionIDs = new HashSet<String>();
+		addedPropertyDefinitionIDs = new HashMap<String, Set<String>>();
+		removedPropertyDefinitionIDs = new HashMap<String, Set<String>>();
+		changedPropertyDefinitionIDs = new HashMap<String, Set<String>>();
+	}
+
+	void addAddedTagDefinition(String tagDefinitionID) {
+		addedTagDefinitionIDs.add(tagDefinitionID);
+	}
+
+	void addRemovedTagDefinition(String tagDefinitionID) {
+		removedTagDefinitionIDs.add(tagDefinitionID);
+	}
+
+	void addChangedTagDefinition(String tagDefinitionID) {
+		changedTagDefinitionIDs.add(tagDefinitionID);
+	}
+
+	void addAddedPropertyDefinition(
+			String tagDefinitionID, String propertyDefinitionID) {
+		add(addedPropertyDefinitionIDs, tagDefinitionID, propertyDefinitionID);
+	}
+
+	void addRemovedPropertyDefinition(
+			String tagDefinitionID, String propertyDefinitionID) {
+		add(removedPropertyDefinitionIDs, tagDefinitionID, propertyDefinitionID);
+	}
+
+	void addChangedPropertyDefinition(
+			String tagDefinitionID, String propertyDefinitionID) {
+		add(changedPropertyDefinitionIDs, tagDefinitionID, propertyDefinitionID);
+	}
+
+	private void add(
+			Map<String,Set<String>> propertyDefinitionIDs,
+			String tagDefinitionID, String propertyDefinitionID) {
+		Set<String> ids = propertyDefinitionIDs.get(tagDefinitionID);
+		if (ids == null) {
+			ids = new HashSet<String>();
+			propertyDefinitionIDs.put(tagDefinitionID, ids);
+		}
+		ids.add(propertyDefinitionID);
+	}
+
+	/**
+	 * @return non modifiable set of the uuids of the added TagDefinitions
+	 */
+	public Set<String> getAddedTagDefinitionIDs() {
+		return Collections.unmodifiableSet(addedTagDefinitionIDs);
+	}
+
+	/**
+	 * @return non modifiable set of the uuids of the removed TagDefinitions
+	 */
+	public Set<String> getRemovedTagDefinitionIDs() {
+		return Collections.unmodifiableSet(removedTagDefinitionIDs);
+	}
+
+	/**
+	 * @return non modifiable set of the uuids of TagDefinitions with a new version
+	 */
+	public Set<String> getChangedTagDefinitionIDs() {
+		return Collections.unmodifiableSet(changedTagDefinitionIDs);
+	}
+
+	/**
+	 * @param tagDefinitionID
+	 * @return non modifiable set of the uuids of the PropertyDefinitions added
+	 * to the given TagDefinition
+	 */
+	public Set<String> getAddedPropertyDefinitionIDs(String tagDefinitionID) {
+		return get(addedPropertyDefinitionIDs, tagDefinitionID);
+	}
+
+	/**
+	 * @param tagDefinitionID
+	 * @return non modifiable set of the uuids of the PropertyDefinitions removed
+	 * from the given TagDefinition
+	 */
+	public Set<String> getRemovedPropertyDefinitionIDs(String tagDefinitionID) {
+		return get(removedPropertyDefinitionIDs, tagDefinitionID);
+	}
+
+	/**
+	 * @param tagDefinitionID
+	 * @return non modifiable set of the uuids of the PropertyDefinitions of the
+	 * given TagDefinition with a new name or new possible values
+	 */
+	public Set<String> getChangedPropertyDefinitionIDs(String tagDefinitionID) {
+		return get(changedPropertyDefinitionIDs, tagDefinitionID);
+	}
+
+	private Set<String> get(
+			Map<String,Set<String>> propertyDefinitionIDs, String tagDefinitionID) {
+		Set<String> ids = propertyDefinitionIDs.get(tagDefinitionID);
+		if (ids == null) {
+			return Collections.emptySet();
+		}
+		return Collections.unmodifiableSet(ids);
+	}
+
+	/**
+	 * @param tagDefinitionID
+	 * @return <code>true</code> if PropertyDefinitions of the given TagDefinition
+	 * have been added, removed or changed, i. e. the
+	 * {@link TagInstance#synchronizeProperties() properties} of its TagInstances
+	 * need to be synchronized
+	 */
+	public boolean hasPropertyDefinitionChanges(String tagDefinitionID) {
+		return addedPropertyDefinitionIDs.containsKey(tagDefinitionID)
+				|| removedPropertyDefinitionIDs.containsKey(tagDefinitionID)
+				|| changedPropertyDefinitionIDs.containsKey(tagDefinitionID);
+	}
+
+	/**
+	 * @return <code>true</code> if there are no differences at all
+	 */
+	public boolean isEmpty() {
+		return addedTagDefinitionIDs.isEmpty()
+				&& removedTagDefinitionIDs.isEmpty()
+				&& changedTagDefinitionIDs.isEmpty();
+	}
+
+	@Override
+	public String toString() {
+		return "TAGSET_DEF_CHANGES[added=" + addedTagDefinitionIDs
+				+ ",removed=" + removedTagDefinitionIDs
+				+ ",changed=" + changedTagDefinitionIDs + "]";
+	}
+}
@@ -21,12 +21,26 @@ package de.catma.tag;
 
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
-import java.util.Calendar;
 import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
 
 /**
  * A version information of a {@link Versionable}. E.g. a {@link TagDefinition} or 
  * a {@link TagsetDefinition}.<br>
+ * <p>
+ * New versions are stamped by a hybrid logical clock: a version is the current
+ * time in milliseconds unless that is not later than the latest version 
+ * created or seen so far, then it is the latest version plus one 
+ * millisecond. So versions created one after the other are always distinct and
+ * increasing, even for many modifications within the same millisecond or a
+ * clock that has been set back. The clock is lock-free. Loaded or received 
+ * versions advance the clock unless they are more than {@link #MAX_DRIFT} 
+ * ahead of the local time.
+ * </p>
+ * The string representation is formatted and parsed without shared formatter
+ * instances, see {@link #toString()} and {@link #Version(String)}.
  *
  * @see Versionable
  *
@@ -35,49 +49,66 @@ import java.util.Date;
  */
 public class Version {
 	
-	private static final SimpleDateFormat FORMAT = 
-			new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
-	private static final SimpleDateFormat SHORTFORMAT = 
-			new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ");
+	private static final String FORMAT = "yyyy-MM-dd'T'HH:mm:ss.SSSZ";
+	private static final String SHORTFORMAT = "yyyy-MM-dd'T'HH:mm:ssZ";
+	
+	private static final int FORMAT_LENGTH = 28;
+	private static final int SHORTFORMAT_LENGTH = 24;
+	
+	private static final long MILLIS_PER_DAY = 24*60*60*1000L;
+	private static final long MILLIS_PER_MINUTE = 60*1000L;
+	// the range of years that is handled without SimpleDateFormat
+	private static final int MIN_YEAR = 1583; // first full Gregorian year
+	private static final int MAX_YEAR = 9999;
+	
+	// the default time zone at class initialization, like the former 
+	// shared SimpleDateFormat instances
+	private static final TimeZone TIME_ZONE = TimeZone.getDefault();
+	
+	/**
+	 * The maximum number of milliseconds an observed version may be ahead of 
+	 * the local time to advance the clock (five minutes).
+	 */
+	public static final long MAX_DRIFT = 5*60*1000L;
+	
+	// the latest version created or seen so far
+	private static final AtomicLong CLOCK = new AtomicLong();
+	
 	private long version;
 	
 	/**
-	 * This version is based on the milliseconds of the given version date.
+	 * This version is based on the milliseconds of the given version date. 
+	 * Versions are stamped and formatted with millisecond precision, so a 
+	 * version that is persisted via {@link #getDate()} or {@link #toString()} 
+	 * and loaded again equals the original version.
 	 * @param version 
 	 */
 	public Version( Date version ) {
-		Calendar cal = Calendar.getInstance();
-		cal.setTime(version);
-		cal.set(Calendar.MILLISECOND, 0);
-		this.version = cal.getTimeInMillis();
+		this.version = version.getTime();
+		observe(this.version);
 	}
 	
 	/**
-	 * New version.
+	 * New version, later than all versions created or seen so far.
 	 */
 	public Version() {
-		Calendar cal = Calendar.getInstance();
-		cal.set(Calendar.MILLISECOND, 0);
-		this.version = cal.getTimeInMillis();
+		long now = System.currentTimeMillis();
+		while (true) {
+			long latest = CLOCK.get();
+			long next = (now > latest) ? now : latest+1;
+			if (CLOCK.compareAndSet(latest, next)) {
+				this.version = next;
+				return;
+			}
+		}
 	}
 	
 	/**
 	 * @param versionString a parseable date format see {@link #FORMAT} and {@link #SHORTFORMAT}.
 	 */
 	public Version(String versionString) {
-		try {
-			if (versionString.length() == 24) {
-				Calendar calendar = Calendar.getInstance();
-				calendar.setTime(SHORTFORMAT.parse(versionString));
-				calendar.set(Calendar.MILLISECOND, 0);
-				this.version = calendar.getTimeInMillis();
-			}
-			else {
-				this.version = FORMAT.parse(versionString).getTime();
-			}
-		} catch (ParseException e) {
-			throw new IllegalArgumentException(e);
-		}
+		this.version = parse(versionString);
+		observe(this.version);
 	}
 	
 	/**
@@ -87,20 +118,208 @@ public class Version {
 	public Version(Version toCopy) {
 		this.version = toCopy.version;
 	}
+	
+	/**
+	 * Advances the clock to the given version, so that new versions are 
+	 * newer than versions that have been loaded or received. Versions that
+	 * are more than {@link #MAX_DRIFT} ahead of the local time are not observed,
+	 * so a single version from a skewed clock cannot drag all new versions 
+	 * into the future.
+	 * @param version
+	 */
+	private static void observe(long version) {
+		long now = System.currentTimeMillis();
+		if (version - now > MAX_DRIFT) {
+			Logger.getLogger(Version.class.getName()).warning(
+				"version " + format(version) + " is ahead of the local time " 
+				+ format(now) + " by more than " + MAX_DRIFT + "ms, "
+				+ "the version clock is not advanced");
+			return;
+		}
+		long latest = CLOCK.get();
+		while ((latest < version) && !CLOCK.compareAndSet(latest, version)) {
+			latest = CLOCK.get();
+		}
+	}
 
 	/**
-	 * @return the string representation of this {@link Version}
+	 * @return the string representation of this {@link Version}, see {@link #FORMAT}
 	 * @see java.lang.Object#toString()
 	 */
 	@Override
 	public String toString() {
-		return FORMAT.format(version);
+		return format(version);
+	}
+	
+	private static String format(long time) {
+		int offset = TIME_ZONE.getOffset(time);
+		long localTime = time + offset;
+		long days = localTime / MILLIS_PER_DAY;
+		if (localTime % MILLIS_PER_DAY < 0) {
+			days--;
+		}
+		int millisOfDay = (int)(localTime - days*MILLIS_PER_DAY);
+		
+		// days since 1970-01-01 to date, see 
+		// http://howardhinnant.github.io/date_algorithms.html#civil_from_days
+		long z = days + 719468;
+		long era = ((z >= 0) ? z : z-146096) / 146097;
+		int dayOfEra = (int)(z - era*146097);
+		int yearOfEra = 
+			(dayOfEra - dayOfEra/1460 + dayOfEra/36524 - dayOfEra/146096) / 365;
+		int dayOfYear = dayOfEra - (365*yearOfEra + yearOfEra/4 - yearOfEra/100);
+		int shiftedMonth = (5*dayOfYear + 2) / 153;
+		int day = dayOfYear - (153*shiftedMonth + 2)/5 + 1;
+		int month = (shiftedMonth < 10) ? shiftedMonth+3 : shiftedMonth-9;
+		long year = yearOfEra + era*400 + ((month <= 2) ? 1 : 0);
+		
+		if ((year < MIN_YEAR) || (year > MAX_YEAR) 
+				|| (offset % MILLIS_PER_MINUTE != 0)) {
+			SimpleDateFormat format = new SimpleDateFormat(FORMAT);
+			format.setTimeZone(TIME_ZONE);
+			return format.format(new Date(time));
+		}
+		
+		char[] buffer = new char[FORMAT_LENGTH];
+		put(buffer, 0, (int)year, 4);
+		buffer[4] = '-';
+		put(buffer, 5, month, 2);
+		buffer[7] = '-';
+		put(buffer, 8, day, 2);
+		buffer[10] = 'T';
+		put(buffer, 11, millisOfDay / 3600000, 2);
+		buffer[13] = ':';
+		put(buffer, 14, (millisOfDay / 60000) % 60, 2);
+		buffer[16] = ':';
+		put(buffer, 17, (millisOfDay / 1000) % 60, 2);
+		buffer[19] = '.';
+		put(buffer, 20, millisOfDay % 1000, 3);
+		buffer[23] = (offset < 0) ? '-' : '+';
+		int offsetMinutes = (int)(Math.abs(offset) / MILLIS_PER_MINUTE);
+		put(buffer, 24, offsetMinutes / 60, 2);
+		put(buffer, 26, offsetMinutes % 60, 2);
+		
+		return new String(buffer);
+	}
+	
+	private static void put(char[] buffer, int pos, int value, int digits) {
+		for (int i=pos+digits-1; i>=pos; i--) {
+			buffer[i] = (char)('0' + (value % 10));
+			value /= 10;
+		}
+	}
+	
+	/**
+	 * @param versionString
+	 * @return the milliseconds of the given version string
+	 * @throws IllegalArgumentException if the string cannot be parsed
+	 */
+	private static long parse(String versionString) throws IllegalArgumentException {
+		int length = versionString.length();
+		if ((length == SHORTFORMAT_LENGTH) || (length == FORMAT_LENGTH)) {
+			int year = digits(versionString, 0, 4);
+			int month = digits(versionString, 5, 2);
+			int day = digits(versionString, 8, 2);
+			int hours = digits(versionString, 11, 2);
+			int minutes = digits(versionString, 14, 2);
+			int seconds = digits(versionString, 17, 2);
+			int millis = 0;
+			int offsetPos = 19;
+			if (length == FORMAT_LENGTH) {
+				millis = (versionString.charAt(19) == '.') ? 
+						digits(versionString, 20, 3) : -1;
+				offsetPos = 23;
+			}
+			char sign = versionString.charAt(offsetPos);
+			int offsetHours = digits(versionString, offsetPos+1, 2);
+			int offsetMinutes = digits(versionString, offsetPos+3, 2);
+			
+			if ((year >= MIN_YEAR) && (year <= MAX_YEAR)
+					&& (versionString.charAt(4) == '-')
+					&& (month >= 1) && (month <= 12)
+					&& (versionString.charAt(7) == '-')
+					&& (day >= 1) && (day <= daysOfMonth(year, month))
+					&& (versionString.charAt(10) == 'T')
+					&& (hours >= 0) && (hours < 24)
+					&& (versionString.charAt(13) == ':')
+					&& (minutes >= 0) && (minutes < 60)
+					&& (versionString.charAt(16) == ':')
+					&& (seconds >= 0) && (seconds < 60)
+					&& (millis >= 0)
+					&& ((sign == '+') || (sign == '-'))
+					&& (offsetHours >= 0) && (offsetMinutes >= 0) 
+					&& (offsetMinutes < 60)) {
+				
+				long localTime = 
+					daysFromCivil(year, month, day)*MILLIS_PER_DAY
+					+ ((hours*60L + minutes)*60L + seconds)*1000L + millis;
+				long offset = (offsetHours*60L + offsetMinutes) * MILLIS_PER_MINUTE;
+				
+				return (sign == '+') ? localTime - offset : localTime + offset;
+			}
+		}
+		
+		// anything else that SimpleDateFormat accepts
+		try {
+			SimpleDateFormat format = new SimpleDateFormat(
+					(length == SHORTFORMAT_LENGTH) ? SHORTFORMAT : FORMAT);
+			format.setTimeZone(TIME_ZONE);
+			return format.parse(versionString).getTime();
+		} catch (ParseException e) {
+			throw new IllegalArgumentException(e);
+		}
+	}
+	
+	/**
+	 * @return the decimal value of the digits or <code>-1</code> if there
+	 * is a non digit character
+	 */
+	private static int digits(String s, int pos, int count) {
+		int value = 0;
+		for (int i=pos; i<pos+count; i++) {
+			char c = s.charAt(i);
+			if ((c < '0') || (c > '9')) {
+				return -1;
+			}
+			value = value*10 + (c - '0');
+		}
+		return value;
+	}
+	
+	private static int daysOfMonth(int year, int month) {
+		if (month == 2) {
+			boolean leapYear = 
+				((year % 4 == 0) && (year % 100 != 0)) || (year % 400 == 0);
+			return leapYear ? 29 : 28;
+		}
+		return ((month == 4) || (month == 6) || (month == 9) || (month == 11)) ? 
+				30 : 31;
+	}
+	
+	/**
+	 * @return the days since 1970-01-01, see 
+	 * http://howardhinnant.github.io/date_algorithms.html#days_from_civil
+	 */
+	private static long daysFromCivil(int year, int month, int day) {
+		int y = (month <= 2) ? year-1 : year;
+		int era = y / 400; // y is positive within MIN_YEAR and MAX_YEAR
+		int yearOfEra = y - era*400;
+		int dayOfYear = (153*((month > 2) ? month-3 : month+9) + 2)/5 + day-1;
+		int dayOfEra = yearOfEra*365 + yearOfEra/4 - yearOfEra/100 + dayOfYear;
+		return era*146097L + dayOfEra - 719468;
 	}
 
     public boolean isNewer(Version other) {
         return this.version < other.version;
     }
     
+    /**
+     * @return the version as milliseconds since the epoch
+     */
+    long getTime() {
+    	return version;
+    }
+    
     /**
      * @return the version date
      */
@@ -0,0 +1,81 @@
+/*   
+ *   CATMA Computer Aided Text Markup and Analysis
+ *   
+ *   Copyright (C) 2009-2013  University Of Hamburg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.catma.util;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * A weak interning pool for Strings that occur many times in the model, like
+ * tag names, property names and property values. Pooled Strings that are no
+ * longer referenced anywhere else get garbage collected.
+ * <p>
+ * The pool is split into stripes to reduce contention between threads.
+ * </p>
+ * 
+ * @author marco.petris@web.de
+ *
+ */
+public class Interner {
+	
+	private static final int STRIPE_COUNT = 16; // power of two
+	
+	/**
+	 * A typed holder for the pool of a stripe, arrays of generic maps cannot 
+	 * be created without unchecked conversions.
+	 */
+	private static final class Stripe {
+		private final Map<String,WeakReference<String>> pool = 
+				new WeakHashMap<String, WeakReference<String>>();
+	}
+	
+	private static final Stripe[] STRIPES = new Stripe[STRIPE_COUNT];
+	static {
+		for (int i=0; i<STRIPE_COUNT; i++) {
+			STRIPES[i] = new Stripe();
+		}
+	}
+	
+	/**
+	 * @param s the String to intern, can be <code>null</code>
+	 * @return the pooled instance that is equal to the given String or 
+	 * <code>null</code> if s is <code>null</code>
+	 */
+	public static String intern(String s) {
+		if (s == null) {
+			return null;
+		}
+		
+		int hash = s.hashCode();
+		Stripe stripe = STRIPES[(hash ^ (hash >>> 16)) & (STRIPE_COUNT-1)];
+		
+		synchronized (stripe) {
+			WeakReference<String> ref = stripe.pool.get(s);
+			if (ref != null) {
+				String pooled = ref.get();
+				if (pooled != null) {
+					return pooled;
+				}
+			}
+			stripe.pool.put(s, new WeakReference<String>(s));
+			return s;
+		}
+	}
+}
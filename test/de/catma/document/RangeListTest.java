@@ -0,0 +1,170 @@
+/*   
+ *   CATMA Computer Aided Text Markup and Analysis
+ *   
+ *   Copyright (C) 2009-2013  University Of Hamburg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.catma.document;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+/**
+ * Compares a packed {@link RangeList} with an {@link ArrayList} of 
+ * {@link Range}s under random modifications.
+ *
+ * @author marco.petris@web.de
+ *
+ */
+public class RangeListTest {
+
+	private static final int ITERATIONS = 2000;
+	
+	public static void main(String[] args) {
+		testPacking();
+		
+		Random random = new Random(11);
+		
+		for (int i=0; i<ITERATIONS; i++) {
+			RangeList rangeList = new RangeList(random.nextInt(3));
+			List<Range> expected = new ArrayList<Range>();
+			
+			for (int op=random.nextInt(40); op>0; op--) {
+				int choice = random.nextInt(10);
+				if ((choice < 6) || expected.isEmpty()) {
+					Range range = createRange(random);
+					if (random.nextBoolean()) {
+						rangeList.add(range);
+					}
+					else {
+						rangeList.add(range.getStartPoint(), range.getEndPoint());
+					}
+					expected.add(range);
+				}
+				else if (choice < 8) {
+					int index = random.nextInt(expected.size());
+					Range range = createRange(random);
+					check(rangeList.set(index, range).equals(expected.set(index, range)),
+							"set", rangeList);
+				}
+				else {
+					int index = random.nextInt(expected.size());
+					check(rangeList.remove(index).equals(expected.remove(index)),
+							"remove", rangeList);
+				}
+				check(rangeList.equals(expected), "content", rangeList, expected);
+			}
+			
+			for (int index=0; index<expected.size(); index++) {
+				check(rangeList.getStartPoint(index) == expected.get(index).getStartPoint(),
+						"start point", rangeList);
+				check(rangeList.getEndPoint(index) == expected.get(index).getEndPoint(),
+						"end point", rangeList);
+			}
+			
+			if (!expected.isEmpty()) {
+				check(rangeList.getEnclosingRange().equals(
+						Range.getEnclosingRange(expected)), "enclosing range", rangeList);
+			}
+			
+			rangeList.sort();
+			Collections.sort(expected);
+			check(rangeList.equals(expected), "sort", rangeList, expected);
+			
+			check(rangeList.mergeRanges().equals(mergeRanges(expected)), 
+					"merge", rangeList);
+			List<Range> mergedRanges = Range.mergeRanges(new TreeSet<Range>(expected));
+			check(mergedRanges.equals(mergeRanges(expected)), 
+					"merge of a sorted set", rangeList);
+			// the public API returns a plain modifiable list
+			mergedRanges.add(0, new Range(0, 0));
+			check(mergedRanges.get(0) == mergedRanges.get(0), 
+					"materialized ranges", mergedRanges);
+			
+			check(new RangeList(expected).equals(expected), "copy", rangeList);
+			rangeList.trimToSize();
+			check(rangeList.equals(expected), "trim", rangeList);
+			rangeList.clear();
+			check(rangeList.isEmpty(), "clear", rangeList);
+		}
+		
+		System.out.println("RangeListTest passed");
+	}
+
+	private static void testPacking() {
+		int[] points = { 
+			0, 1, 2, 1000, Integer.MAX_VALUE-1, Integer.MAX_VALUE };
+		for (int startPoint : points) {
+			for (int endPoint : points) {
+				if (startPoint <= endPoint) {
+					long packed = RangeList.pack(startPoint, endPoint);
+					check(RangeList.unpackStartPoint(packed) == startPoint, 
+							"unpack start point", startPoint, endPoint);
+					check(RangeList.unpackEndPoint(packed) == endPoint, 
+							"unpack end point", startPoint, endPoint);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * The merge of the former implementation: equal ranges are skipped and 
+	 * ranges that touch each other are merged.
+	 */
+	private static List<Range> mergeRanges(List<Range> sortedRanges) {
+		List<Range> result = new ArrayList<Range>();
+		Range current = null;
+		Range previous = null;
+		for (Range range : sortedRanges) {
+			if (range.equals(previous)) {
+				continue;
+			}
+			if (current == null) {
+				current = range;
+			}
+			else if (current.getEndPoint() == range.getStartPoint()) {
+				current = new Range(current.getStartPoint(), range.getEndPoint());
+			}
+			else {
+				result.add(current);
+				current = range;
+			}
+			previous = range;
+		}
+		if (current != null) {
+			result.add(current);
+		}
+		return result;
+	}
+	
+	private static Range createRange(Random random) {
+		int startPoint = random.nextInt(50);
+		return new Range(startPoint, startPoint+random.nextInt(6));
+	}
+	
+	private static void check(boolean condition, String message, Object... context) {
+		if (!condition) {
+			StringBuilder builder = new StringBuilder(message);
+			for (Object o : context) {
+				builder.append(" ");
+				builder.append(o);
+			}
+			throw new IllegalStateException(builder.toString());
+		}
+	}
+}
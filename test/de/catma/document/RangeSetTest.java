@@ -0,0 +1,129 @@
+/*   
+ *   CATMA Computer Aided Text Markup and Analysis
+ *   
+ *   Copyright (C) 2009-2013  University Of Hamburg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.catma.document;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the operations of {@link RangeSet} with a brute force evaluation
+ * on {@link BitSet}s of randomly generated ranges.
+ *
+ * @author marco.petris@web.de
+ *
+ */
+public class RangeSetTest {
+	
+	private static final int ITERATIONS = 20000;
+	private static final int MAX_POINT = 100;
+	
+	public static void main(String[] args) {
+		Random random = new Random(3);
+		
+		for (int i=0; i<ITERATIONS; i++) {
+			List<Range> rangesA = createRanges(random);
+			List<Range> rangesB = createRanges(random);
+			
+			RangeSet a = new RangeSet(rangesA);
+			RangeSet b = new RangeSet(rangesB);
+			BitSet bitsA = toBitSet(rangesA);
+			BitSet bitsB = toBitSet(rangesB);
+			
+			check(toBitSet(a).equals(bitsA), "construction", a);
+			check(toBitSet(new RangeSet(new RangeList(rangesA))).equals(bitsA), 
+					"construction from RangeList", a);
+			
+			BitSet union = (BitSet)bitsA.clone();
+			union.or(bitsB);
+			check(toBitSet(a.union(b)).equals(union), "union", a, b);
+			
+			BitSet intersection = (BitSet)bitsA.clone();
+			intersection.and(bitsB);
+			check(toBitSet(a.intersection(b)).equals(intersection), "intersection", a, b);
+			
+			BitSet difference = (BitSet)bitsA.clone();
+			difference.andNot(bitsB);
+			check(toBitSet(a.difference(b)).equals(difference), "difference", a, b);
+			
+			BitSet complement = new BitSet();
+			complement.set(10, 90);
+			complement.andNot(bitsA);
+			check(toBitSet(a.complement(new Range(10, 90))).equals(complement), 
+					"complement", a);
+			
+			check(a.getCoverage() == bitsA.cardinality(), "coverage", a);
+			check(a.isEmpty() == bitsA.isEmpty(), "isEmpty", a);
+			for (int point=0; point<MAX_POINT+20; point++) {
+				check(a.contains(point) == bitsA.get(point), "contains " + point, a);
+			}
+			
+			check(a.union(b).equals(b.union(a)), "union is commutative", a, b);
+			check(new RangeSet(a.getRanges()).equals(a), "ranges round trip", a);
+		}
+		
+		System.out.println("RangeSetTest passed");
+	}
+
+	private static List<Range> createRanges(Random random) {
+		List<Range> ranges = new ArrayList<Range>();
+		int count = random.nextInt(15);
+		for (int i=0; i<count; i++) {
+			int startPoint = random.nextInt(MAX_POINT);
+			ranges.add(new Range(startPoint, startPoint+random.nextInt(12)));
+		}
+		return ranges;
+	}
+	
+	private static BitSet toBitSet(List<Range> ranges) {
+		BitSet bits = new BitSet();
+		for (Range range : ranges) {
+			bits.set(range.getStartPoint(), range.getEndPoint());
+		}
+		return bits;
+	}
+	
+	/**
+	 * @return the covered points, the ranges of the set have to be ordered, 
+	 * non empty and must neither overlap nor touch each other
+	 */
+	private static BitSet toBitSet(RangeSet rangeSet) {
+		BitSet bits = new BitSet();
+		for (int i=0; i<rangeSet.size(); i++) {
+			check(rangeSet.getStartPoint(i) < rangeSet.getEndPoint(i), 
+					"empty range", rangeSet);
+			check((i == 0) || (rangeSet.getStartPoint(i) > rangeSet.getEndPoint(i-1)),
+					"not canonical", rangeSet);
+			bits.set(rangeSet.getStartPoint(i), rangeSet.getEndPoint(i));
+		}
+		return bits;
+	}
+	
+	private static void check(boolean condition, String message, Object... context) {
+		if (!condition) {
+			StringBuilder builder = new StringBuilder(message);
+			for (Object o : context) {
+				builder.append(" ");
+				builder.append(o);
+			}
+			throw new IllegalStateException(builder.toString());
+		}
+	}
+}
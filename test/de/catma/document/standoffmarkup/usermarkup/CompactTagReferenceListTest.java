@@ -0,0 +1,268 @@
+/*   
+ *   CATMA Computer Aided Text Markup and Analysis
+ *   
+ *   Copyright (C) 2009-2013  University Of Hamburg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.catma.document.standoffmarkup.usermarkup;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import de.catma.document.AccessMode;
+import de.catma.document.Range;
+import de.catma.tag.TagDefinition;
+import de.catma.tag.TagInstance;
+import de.catma.tag.TagLibrary;
+import de.catma.tag.Version;
+
+/**
+ * Compares a {@link CompactTagReferenceList} with an {@link ArrayList} under
+ * random modifications, both as plain lists and as backing stores of 
+ * {@link UserMarkupCollection}s.
+ *
+ * @author marco.petris@web.de
+ *
+ */
+public class CompactTagReferenceListTest {
+	
+	private static final int ITERATIONS = 2000;
+	private static final String TARGET = "catma://document";
+
+	public static void main(String[] args) throws Exception {
+		TagDefinition tagDefinition = 
+				new TagDefinition(null, "td", "td", new Version(), null, null);
+		TagInstance[] tagInstances = new TagInstance[5];
+		for (int i=0; i<tagInstances.length; i++) {
+			tagInstances[i] = new TagInstance("ti"+i, tagDefinition);
+		}
+		
+		Random random = new Random(7);
+		
+		for (int i=0; i<ITERATIONS; i++) {
+			testList(tagInstances, random, i);
+			testCollection(tagDefinition, tagInstances, random, i);
+		}
+		
+		testTarget(tagInstances[0]);
+		testDictionary(tagDefinition, random);
+		
+		System.out.println("CompactTagReferenceListTest passed");
+	}
+
+	private static void testList(
+			TagInstance[] tagInstances, Random random, int iteration) 
+					throws Exception {
+		
+		CompactTagReferenceList compactList = 
+				new CompactTagReferenceList(random.nextInt(3));
+		List<TagReference> expected = new ArrayList<TagReference>();
+		
+		for (int op=random.nextInt(40); op>0; op--) {
+			int choice = random.nextInt(10);
+			if ((choice < 6) || expected.isEmpty()) {
+				TagReference tagReference = 
+						createTagReference(tagInstances, random);
+				compactList.add(tagReference);
+				expected.add(tagReference);
+			}
+			else if (choice < 7) {
+				int index = random.nextInt(expected.size());
+				TagReference tagReference = 
+						createTagReference(tagInstances, random);
+				check(compactList.set(index, tagReference).equals(
+						expected.set(index, tagReference)), "set", iteration);
+			}
+			else if (choice < 9) {
+				int index = random.nextInt(expected.size());
+				check(compactList.remove(index).equals(expected.remove(index)), 
+						"remove", iteration);
+			}
+			else {
+				List<TagReference> toBeRemoved = new ArrayList<TagReference>();
+				for (TagReference tagReference : expected) {
+					if (random.nextInt(3) == 0) {
+						toBeRemoved.add(tagReference);
+					}
+				}
+				check(compactList.removeAll(toBeRemoved) 
+						== expected.removeAll(toBeRemoved), "remove all", iteration);
+			}
+			check(compactList.equals(expected) && expected.equals(compactList), 
+					"content", iteration, compactList, expected);
+		}
+
+		for (int index=0; index<expected.size(); index++) {
+			TagReference tagReference = compactList.get(index);
+			check(tagReference.getTagInstance() == expected.get(index).getTagInstance(),
+					"shared instance", iteration);
+			check(tagReference.getTarget().equals(expected.get(index).getTarget()),
+					"target", iteration);
+		}
+		
+		check(new CompactTagReferenceList(expected).equals(expected), "copy", iteration);
+		compactList.trimToSize();
+		check(compactList.equals(expected), "trim", iteration);
+		compactList.clear();
+		check(compactList.isEmpty(), "clear", iteration);
+	}
+	
+	private static void testCollection(
+			TagDefinition tagDefinition, TagInstance[] tagInstances, 
+			Random random, int iteration) throws Exception {
+
+		List<TagReference> tagReferences = new ArrayList<TagReference>();
+		CompactTagReferenceList compactList = new CompactTagReferenceList();
+		for (int count=random.nextInt(30); count>0; count--) {
+			TagReference tagReference = createTagReference(tagInstances, random);
+			tagReferences.add(tagReference);
+			compactList.add(tagReference);
+		}
+		
+		UserMarkupCollection expected = new UserMarkupCollection(
+			"expected", null, new TagLibrary("lib", "lib"), 
+			new ArrayList<TagReference>(tagReferences), AccessMode.WRITE);
+		UserMarkupCollection compact = new UserMarkupCollection(
+			"compact", null, new TagLibrary("lib", "lib"), 
+			compactList, AccessMode.WRITE);
+		
+		List<TagReference> toBeRemoved = new ArrayList<TagReference>();
+		for (TagReference tagReference : tagReferences) {
+			if (random.nextInt(3) == 0) {
+				toBeRemoved.add(tagReference);
+			}
+		}
+		expected.removeTagReferences(toBeRemoved);
+		compact.removeTagReferences(toBeRemoved);
+		check(expected.getTagReferences().equals(compact.getTagReferences()), 
+				"collection content", iteration);
+		check(compactList.equals(tagReferences), "list of the caller", iteration);
+		
+		TagReference tagReference = createTagReference(tagInstances, random);
+		expected.addTagReference(tagReference);
+		compact.addTagReference(tagReference);
+		
+		Range range = new Range(random.nextInt(40), 40+random.nextInt(20));
+		check(expected.getTagReferences(range).equals(compact.getTagReferences(range)),
+				"collection range", iteration, range);
+		for (TagInstance tagInstance : tagInstances) {
+			check(expected.getTagReferences(tagInstance.getUuid()).equals(
+					compact.getTagReferences(tagInstance.getUuid())), 
+					"collection instance", iteration);
+			check(expected.hasTagInstance(tagInstance.getUuid()) 
+					== compact.hasTagInstance(tagInstance.getUuid()), 
+					"collection has instance", iteration);
+		}
+		check(compact.getTagReferenceCount(tagDefinition, false) 
+				== compact.getTagReferences().size(), "collection count", iteration);
+	}
+	
+	private static void testTarget(TagInstance tagInstance) throws Exception {
+		CompactTagReferenceList compactList = new CompactTagReferenceList();
+		check(compactList.getTarget() == null, "no target");
+		compactList.add(new TagReference(tagInstance, TARGET, new Range(0, 1)));
+		try {
+			compactList.add(
+				new TagReference(tagInstance, "catma://other", new Range(0, 1)));
+			throw new IllegalStateException("references with different targets");
+		}
+		catch (IllegalArgumentException expected) {
+			check(compactList.size() == 1, "rejected reference");
+		}
+	}
+	
+	private static void testDictionary(
+			TagDefinition tagDefinition, Random random) throws Exception {
+		CompactTagReferenceList compactList = new CompactTagReferenceList();
+		List<TagReference> expected = new ArrayList<TagReference>();
+		
+		for (int op=0; op<20000; op++) {
+			if (expected.isEmpty() || (random.nextInt(2) == 0)) {
+				// a fresh instance object, sometimes with the uuid of an existing one
+				String uuid = "ti" + random.nextInt(200);
+				TagReference tagReference = new TagReference(
+					new TagInstance(uuid, tagDefinition), TARGET, 
+					new Range(0, random.nextInt(10)));
+				compactList.add(tagReference);
+				expected.add(tagReference);
+			}
+			else if (random.nextInt(10) == 0) {
+				List<TagReference> toBeRemoved = new ArrayList<TagReference>();
+				for (TagReference tagReference : expected) {
+					if (random.nextInt(2) == 0) {
+						toBeRemoved.add(tagReference);
+					}
+				}
+				compactList.removeAll(toBeRemoved);
+				expected.removeAll(toBeRemoved);
+			}
+			else {
+				int index = random.nextInt(expected.size());
+				compactList.remove(index);
+				expected.remove(index);
+			}
+			
+			Set<String> liveIDs = new HashSet<String>();
+			for (TagReference tagReference : expected) {
+				liveIDs.add(tagReference.getTagInstanceID());
+			}
+			check(compactList.getTagInstanceDictionarySize() 
+					<= liveIDs.size() + Math.max(15, liveIDs.size()), 
+					"dictionary size", op, 
+					compactList.getTagInstanceDictionarySize(), liveIDs.size());
+		}
+		check(compactList.equals(expected), "dictionary content");
+		
+		// all references of a uuid share the instance that has been added first
+		for (int index=0; index<compactList.size(); index++) {
+			TagInstance tagInstance = compactList.get(index).getTagInstance();
+			check(tagInstance.getUuid().equals(expected.get(index).getTagInstanceID()), 
+					"dictionary instance", index);
+			for (int other=0; other<index; other++) {
+				if (expected.get(other).getTagInstanceID().equals(tagInstance.getUuid())) {
+					check(compactList.get(other).getTagInstance() == tagInstance, 
+						"dictionary identity", index);
+				}
+			}
+		}
+		
+		compactList.removeAll(new ArrayList<TagReference>(expected));
+		check(compactList.isEmpty() 
+				&& (compactList.getTagInstanceDictionarySize() < 16), 
+				"released dictionary", compactList.getTagInstanceDictionarySize());
+	}
+	
+	private static TagReference createTagReference(
+			TagInstance[] tagInstances, Random random) throws Exception {
+		int startPoint = random.nextInt(50);
+		return new TagReference(
+			tagInstances[random.nextInt(tagInstances.length)], TARGET, 
+			new Range(startPoint, startPoint+random.nextInt(10)));
+	}
+	
+	private static void check(boolean condition, String message, Object... context) {
+		if (!condition) {
+			StringBuilder builder = new StringBuilder(message);
+			for (Object o : context) {
+				builder.append(" ");
+				builder.append(o);
+			}
+			throw new IllegalStateException(builder.toString());
+		}
+	}
+}
@@ -0,0 +1,273 @@
+/*   
+ *   CATMA Computer Aided Text Markup and Analysis
+ *   
+ *   Copyright (C) 2009-2013  University Of Hamburg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.catma.document.standoffmarkup.usermarkup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import de.catma.document.AccessMode;
+import de.catma.document.Range;
+import de.catma.document.source.ContentInfoSet;
+import de.catma.tag.TagDefinition;
+import de.catma.tag.TagInstance;
+import de.catma.tag.TagLibrary;
+import de.catma.tag.TagsetDefinition;
+import de.catma.tag.Version;
+
+/**
+ * Compares the queries of the {@link TagReferenceIndex} of a 
+ * {@link UserMarkupCollection} with linear scans over a plain list of 
+ * the same references, for an {@link ArrayList} and a 
+ * {@link CompactTagReferenceList} as the backing store. The hierarchy of the
+ * TagDefinitions changes halfway through to test the re-sorting of the 
+ * TagDefinition index.
+ *
+ * @author marco.petris@web.de
+ *
+ */
+public class TagReferenceIndexTest {
+	
+	private static final int ITERATIONS = 1500;
+	private static final String TARGET = "catma://document";
+
+	public static void main(String[] args) throws Exception {
+		test(new ArrayList<TagReference>(), 1);
+		test(new CompactTagReferenceList(), 2);
+		System.out.println("TagReferenceIndexTest passed");
+	}
+
+	private static void test(
+			List<TagReference> backingStore, long seed) throws Exception {
+		TagsetDefinition tagsetDefinition = 
+				new TagsetDefinition(null, "ts", "ts", new Version());
+		// td0 <- td1 <- td2, td3 and td4 get added later on as a child of td3
+		TagDefinition[] tagDefinitions = new TagDefinition[5];
+		for (int i=0; i<tagDefinitions.length; i++) {
+			tagDefinitions[i] = new TagDefinition(
+				null, "td"+i, "td"+i, new Version(), null, 
+				((i == 1) || (i == 2)) ? "td"+(i-1) : ((i == 4) ? "td3" : null));
+			if (i < 4) {
+				tagsetDefinition.addTagDefinition(tagDefinitions[i]);
+			}
+		}
+		int usedTagDefinitions = 4;
+		TagLibrary tagLibrary = new TagLibrary("lib", "lib");
+		tagLibrary.add(tagsetDefinition);
+		
+		UserMarkupCollection userMarkupCollection = new UserMarkupCollection(
+				"umc", new ContentInfoSet("umc"), tagLibrary, 
+				backingStore, AccessMode.WRITE);
+
+		Random random = new Random(seed);
+		List<TagReference> expected = new ArrayList<TagReference>();
+		List<TagInstance> tagInstances = new ArrayList<TagInstance>();
+		
+		for (int i=0; i<ITERATIONS; i++) {
+			if (i == ITERATIONS/3) {
+				tagsetDefinition.addTagDefinition(tagDefinitions[4]);
+				usedTagDefinitions = 5;
+			}
+			else if (i == 2*ITERATIONS/3) {
+				// the references of td2 stay in the collection
+				tagsetDefinition.remove(tagDefinitions[2]);
+			}
+			
+			int choice = random.nextInt(10);
+			if ((choice < 6) || expected.isEmpty()) {
+				TagInstance tagInstance;
+				if (tagInstances.isEmpty() || (random.nextInt(3) == 0)) {
+					tagInstance = new TagInstance(
+						"ti"+i, tagDefinitions[random.nextInt(usedTagDefinitions)]);
+					tagInstances.add(tagInstance);
+				}
+				else {
+					tagInstance = tagInstances.get(random.nextInt(tagInstances.size()));
+				}
+				TagReference tagReference = 
+						new TagReference(tagInstance, TARGET, createRange(random));
+				expected.add(tagReference);
+				userMarkupCollection.addTagReference(tagReference);
+				if (random.nextInt(10) == 0) { // duplicates are kept
+					expected.add(tagReference);
+					userMarkupCollection.addTagReference(tagReference);
+				}
+			}
+			else if (choice < 8) {
+				List<TagReference> batch = new ArrayList<TagReference>();
+				for (int count=random.nextInt(50); count>0; count--) {
+					TagInstance tagInstance = new TagInstance(
+						"ti"+i+"_"+count, 
+						tagDefinitions[random.nextInt(usedTagDefinitions)]);
+					batch.add(new TagReference(tagInstance, TARGET, createRange(random)));
+				}
+				expected.addAll(batch);
+				if (choice == 6) {
+					userMarkupCollection.addTagReferences(batch);
+				}
+				else {
+					userMarkupCollection.addTagReferencesInBulk(batch);
+				}
+			}
+			else {
+				List<TagReference> toBeRemoved = new ArrayList<TagReference>();
+				for (int count=random.nextInt(5)+1; count>0; count--) {
+					toBeRemoved.add(expected.get(random.nextInt(expected.size())));
+				}
+				Set<TagReference> removed = new HashSet<TagReference>(toBeRemoved);
+				Iterator<TagReference> iterator = expected.iterator();
+				while (iterator.hasNext()) {
+					if (removed.contains(iterator.next())) {
+						iterator.remove();
+					}
+				}
+				userMarkupCollection.removeTagReferences(toBeRemoved);
+			}
+			
+			check(userMarkupCollection.getTagReferences().equals(expected), 
+					"content", i);
+			checkRangeQuery(userMarkupCollection, expected, random, i);
+			
+			for (TagDefinition tagDefinition : tagDefinitions) {
+				List<TagReference> byDefinition = new ArrayList<TagReference>();
+				for (TagReference tagReference : expected) {
+					if (tagReference.getTagDefinition() == tagDefinition) {
+						byDefinition.add(tagReference);
+					}
+				}
+				check(userMarkupCollection.getTagReferences(tagDefinition).equals(
+						byDefinition), "by definition", i, tagDefinition);
+				check(userMarkupCollection.getTagReferenceCount(tagDefinition, false)
+						== byDefinition.size(), "count", i, tagDefinition);
+				
+				List<TagReference> bySubtree = new ArrayList<TagReference>();
+				for (TagReference tagReference : expected) {
+					if ((tagReference.getTagDefinition() == tagDefinition)
+							|| tagsetDefinition.isDescendant(
+									tagReference.getTagDefinition(), tagDefinition)) {
+						bySubtree.add(tagReference);
+					}
+				}
+				List<TagReference> subtreeResult = 
+						userMarkupCollection.getTagReferences(tagDefinition, true);
+				check(count(subtreeResult).equals(count(bySubtree)) 
+						&& (subtreeResult.size() == bySubtree.size()), 
+						"by subtree", i, tagDefinition);
+				check(userMarkupCollection.getTagReferenceCount(tagDefinition, true)
+						== bySubtree.size(), "subtree count", i, tagDefinition);
+			}
+			
+			List<TagReference> byTagset = new ArrayList<TagReference>();
+			for (TagReference tagReference : expected) {
+				if (tagsetDefinition.contains(tagReference.getTagDefinition())) {
+					byTagset.add(tagReference);
+				}
+			}
+			List<TagReference> tagsetResult = 
+					userMarkupCollection.getTagReferences(tagsetDefinition);
+			check(count(tagsetResult).equals(count(byTagset)) 
+					&& (tagsetResult.size() == byTagset.size()), "by tagset", i);
+			
+			Set<String> tagInstanceIDs = new LinkedHashSet<String>();
+			for (TagReference tagReference : expected) {
+				tagInstanceIDs.add(tagReference.getTagInstanceID());
+			}
+			check(new HashSet<String>(userMarkupCollection.getTagInstanceIDs()).equals(
+					tagInstanceIDs) 
+				&& (userMarkupCollection.getTagInstanceIDs().size() 
+						== tagInstanceIDs.size()), "instance IDs", i);
+			
+			TagInstance tagInstance = 
+					tagInstances.get(random.nextInt(tagInstances.size()));
+			List<TagReference> byInstance = new ArrayList<TagReference>();
+			for (TagReference tagReference : expected) {
+				if (tagReference.getTagInstance() == tagInstance) {
+					byInstance.add(tagReference);
+				}
+			}
+			check(userMarkupCollection.getTagReferences(
+					tagInstance.getUuid()).equals(byInstance), "by instance", i);
+			check(userMarkupCollection.hasTagInstance(
+					tagInstance.getUuid()) == !byInstance.isEmpty(), "has instance", i);
+			// there is no tag path for orphaned instances
+			if (tagsetDefinition.contains(tagInstance.getTagDefinition())) {
+				check((userMarkupCollection.getInstance(tagInstance.getUuid()) != null)
+						== !byInstance.isEmpty(), "instance lookup", i);
+			}
+		}
+	}
+
+	private static void checkRangeQuery(
+			UserMarkupCollection userMarkupCollection, 
+			List<TagReference> tagReferences, Random random, int iteration) {
+		
+		int startPoint = random.nextInt(220);
+		Range range = new Range(startPoint, startPoint+random.nextInt(30));
+		
+		List<TagReference> expected = new ArrayList<TagReference>();
+		for (TagReference tagReference : tagReferences) {
+			if (tagReference.getRange().hasOverlappingRange(range)) {
+				expected.add(tagReference);
+			}
+		}
+		Collections.sort(expected, new TagReference.RangeComparator());
+		
+		List<TagReference> result = userMarkupCollection.getTagReferences(range);
+		
+		// same references with the same multiplicity, ordered by range
+		check(count(result).equals(count(expected)) 
+				&& (result.size() == expected.size()), "range", iteration, range);
+		for (int i=1; i<result.size(); i++) {
+			check(result.get(i-1).getRange().compareTo(result.get(i).getRange()) <= 0,
+					"range order", iteration, range);
+		}
+	}
+
+	private static Map<TagReference,Integer> count(List<TagReference> tagReferences) {
+		Map<TagReference,Integer> counts = new HashMap<TagReference, Integer>();
+		for (TagReference tagReference : tagReferences) {
+			Integer count = counts.get(tagReference);
+			counts.put(tagReference, (count == null) ? 1 : count+1);
+		}
+		return counts;
+	}
+
+	private static Range createRange(Random random) {
+		int startPoint = random.nextInt(200);
+		return new Range(startPoint, startPoint+random.nextInt(20));
+	}
+	
+	private static void check(boolean condition, String message, Object... context) {
+		if (!condition) {
+			StringBuilder builder = new StringBuilder(message);
+			for (Object o : context) {
+				builder.append(" ");
+				builder.append(o);
+			}
+			throw new IllegalStateException(builder.toString());
+		}
+	}
+}
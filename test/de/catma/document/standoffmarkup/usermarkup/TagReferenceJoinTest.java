@@ -0,0 +1,134 @@
+/*   
+ *   CATMA Computer Aided Text Markup and Analysis
+ *   
+ *   Copyright (C) 2009-2013  University Of Hamburg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.catma.document.standoffmarkup.usermarkup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import de.catma.document.Range;
+import de.catma.document.standoffmarkup.usermarkup.TagReferenceJoin.JoinPredicate;
+import de.catma.document.standoffmarkup.usermarkup.TagReferenceJoin.MatchHandler;
+import de.catma.tag.TagDefinition;
+import de.catma.tag.TagInstance;
+import de.catma.tag.Version;
+
+/**
+ * Compares the sweep joins of {@link TagReferenceJoin} with a nested loop 
+ * join for all {@link JoinPredicate}s.
+ *
+ * @author marco.petris@web.de
+ *
+ */
+public class TagReferenceJoinTest {
+	
+	private static final int ITERATIONS = 5000;
+	
+	public static void main(String[] args) throws Exception {
+		TagDefinition tagDefinition = 
+				new TagDefinition(null, "td", "td", new Version(), null, null);
+		Random random = new Random(5);
+		
+		for (int i=0; i<ITERATIONS; i++) {
+			List<TagReference> left = createTagReferences(tagDefinition, random);
+			List<TagReference> right = createTagReferences(tagDefinition, random);
+			List<TagReference> leftCopy = new ArrayList<TagReference>(left);
+			List<TagReference> rightCopy = new ArrayList<TagReference>(right);
+			
+			for (JoinPredicate joinPredicate : JoinPredicate.values()) {
+				final List<String> result = new ArrayList<String>();
+				new TagReferenceJoin(joinPredicate).join(left, right, new MatchHandler() {
+					public void match(TagReference left, TagReference right, Range range) {
+						result.add(toMatchString(left, right, range));
+					}
+				});
+				
+				List<String> expected = new ArrayList<String>();
+				for (TagReference l : left) {
+					for (TagReference r : right) {
+						Range range = getMatchingRange(joinPredicate, l.getRange(), r.getRange());
+						if (range != null) {
+							expected.add(toMatchString(l, r, range));
+						}
+					}
+				}
+				
+				Collections.sort(result);
+				Collections.sort(expected);
+				check(result.equals(expected), joinPredicate, i, result, expected);
+			}
+			
+			check(left.equals(leftCopy) && right.equals(rightCopy), "input modified", i);
+		}
+		
+		System.out.println("TagReferenceJoinTest passed");
+	}
+
+	private static Range getMatchingRange(
+			JoinPredicate joinPredicate, Range left, Range right) {
+		switch (joinPredicate) {
+		case OVERLAP : {
+			return left.hasOverlappingRange(right) ? 
+					left.getOverlappingRange(right) : null;
+		}
+		case CONTAINMENT : {
+			return right.isInBetween(left) ? right : null;
+		}
+		case ADJACENCY : {
+			if (!left.isAdjacentTo(right)) {
+				return null;
+			}
+			int point = (left.getEndPoint() == right.getStartPoint()) ? 
+					left.getEndPoint() : left.getStartPoint();
+			return new Range(point, point);
+		}
+		}
+		throw new IllegalArgumentException(joinPredicate.name());
+	}
+	
+	private static String toMatchString(TagReference left, TagReference right, Range range) {
+		// pairs are compared by identity, equal references may occur several times
+		return System.identityHashCode(left) + "/" 
+				+ System.identityHashCode(right) + "/" + range;
+	}
+
+	private static List<TagReference> createTagReferences(
+			TagDefinition tagDefinition, Random random) throws Exception {
+		List<TagReference> tagReferences = new ArrayList<TagReference>();
+		for (int count=random.nextInt(30); count>0; count--) {
+			int startPoint = random.nextInt(60);
+			tagReferences.add(new TagReference(
+				new TagInstance("ti", tagDefinition), "catma://document", 
+				new Range(startPoint, startPoint+random.nextInt(8))));
+		}
+		return tagReferences;
+	}
+	
+	private static void check(boolean condition, Object message, Object... context) {
+		if (!condition) {
+			StringBuilder builder = new StringBuilder(String.valueOf(message));
+			for (Object o : context) {
+				builder.append(" ");
+				builder.append(o);
+			}
+			throw new IllegalStateException(builder.toString());
+		}
+	}
+}
@@ -0,0 +1,125 @@
+/*   
+ *   CATMA Computer Aided Text Markup and Analysis
+ *   
+ *   Copyright (C) 2009-2013  University Of Hamburg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.catma.document.standoffmarkup.usermarkup;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import de.catma.document.Range;
+import de.catma.document.standoffmarkup.usermarkup.TagReferenceSegmenter.Segment;
+import de.catma.tag.TagDefinition;
+import de.catma.tag.TagInstance;
+import de.catma.tag.Version;
+
+/**
+ * Compares the segments of the {@link TagReferenceSegmenter} with the 
+ * TagInstances that cover each single character position.
+ *
+ * @author marco.petris@web.de
+ *
+ */
+public class TagReferenceSegmenterTest {
+	
+	private static final int ITERATIONS = 5000;
+	private static final int TEXT_LENGTH = 100;
+	
+	public static void main(String[] args) throws Exception {
+		TagDefinition tagDefinition = 
+				new TagDefinition(null, "td", "td", new Version(), null, null);
+		Random random = new Random(7);
+		
+		for (int i=0; i<ITERATIONS; i++) {
+			TagInstance[] tagInstances = new TagInstance[5];
+			for (int k=0; k<tagInstances.length; k++) {
+				tagInstances[k] = new TagInstance("ti"+k, tagDefinition);
+			}
+			List<TagReference> tagReferences = new ArrayList<TagReference>();
+			for (int count=random.nextInt(20); count>0; count--) {
+				int startPoint = random.nextInt(50);
+				tagReferences.add(new TagReference(
+					tagInstances[random.nextInt(tagInstances.length)], 
+					"catma://document", 
+					new Range(startPoint, startPoint+random.nextInt(10))));
+			}
+			Range viewport = random.nextBoolean() ? 
+					null : new Range(random.nextInt(30), 20+random.nextInt(50));
+			
+			List<Segment> segments = 
+					new TagReferenceSegmenter().segment(tagReferences, viewport);
+			
+			int lowerBound = (viewport == null) ? 0 : viewport.getStartPoint();
+			int upperBound = (viewport == null) ? TEXT_LENGTH : viewport.getEndPoint();
+			List<Set<String>> expected = createCoverage();
+			for (int point=lowerBound; point<upperBound; point++) {
+				for (TagReference tagReference : tagReferences) {
+					if ((tagReference.getStartPoint() <= point) 
+							&& (point < tagReference.getEndPoint())) {
+						expected.get(point).add(tagReference.getTagInstanceID());
+					}
+				}
+			}
+			
+			List<Set<String>> result = createCoverage();
+			Segment previous = null;
+			for (Segment segment : segments) {
+				check(!segment.getTagInstanceIDs().isEmpty(), "empty segment", i, segments);
+				if (previous != null) {
+					check(previous.getRange().getEndPoint() 
+							<= segment.getRange().getStartPoint(), "order", i, segments);
+					// adjacent segments always differ in their instances
+					check((previous.getRange().getEndPoint() 
+							!= segment.getRange().getStartPoint())
+						|| !previous.getTagInstanceIDs().equals(
+								segment.getTagInstanceIDs()), "not minimal", i, segments);
+				}
+				for (int point=segment.getRange().getStartPoint(); 
+						point<segment.getRange().getEndPoint(); point++) {
+					result.get(point).addAll(segment.getTagInstanceIDs());
+				}
+				previous = segment;
+			}
+			
+			check(result.equals(expected), "coverage", i, viewport, segments);
+		}
+		
+		System.out.println("TagReferenceSegmenterTest passed");
+	}
+	
+	private static List<Set<String>> createCoverage() {
+		List<Set<String>> coverage = new ArrayList<Set<String>>(TEXT_LENGTH);
+		for (int point=0; point<TEXT_LENGTH; point++) {
+			coverage.add(new HashSet<String>());
+		}
+		return coverage;
+	}
+	
+	private static void check(boolean condition, String message, Object... context) {
+		if (!condition) {
+			StringBuilder builder = new StringBuilder(message);
+			for (Object o : context) {
+				builder.append(" ");
+				builder.append(o);
+			}
+			throw new IllegalStateException(builder.toString());
+		}
+	}
+}
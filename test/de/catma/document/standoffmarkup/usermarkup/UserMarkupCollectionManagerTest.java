@@ -0,0 +1,295 @@
+/*   
+ *   CATMA Computer Aided Text Markup and Analysis
+ *   
+ *   Copyright (C) 2009-2013  University Of Hamburg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.catma.document.standoffmarkup.usermarkup;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import de.catma.document.AccessMode;
+import de.catma.document.Range;
+import de.catma.document.repository.Repository;
+import de.catma.document.source.ContentInfoSet;
+import de.catma.tag.Property;
+import de.catma.tag.TagDefinition;
+import de.catma.tag.TagInstance;
+import de.catma.tag.TagLibrary;
+import de.catma.tag.TagManager;
+import de.catma.tag.TagsetDefinition;
+import de.catma.tag.Version;
+
+/**
+ * Tests the eviction of {@link UserMarkupCollectionManager}: collections can
+ * be evicted again once their changes have been passed to the
+ * {@link Repository}, a failed update keeps them loaded, lookups do not
+ * access the Repository and collections without an ID are managed as well.
+ * Tests the handling of equal {@link TagReference}s of the same instance.
+ *
+ * @author marco.petris@web.de
+ *
+ */
+public class UserMarkupCollectionManagerTest {
+
+	private static final String TARGET = "catma://document";
+
+	/**
+	 * A Repository that serves fresh copies of the collections and counts
+	 * the loads and updates.
+	 */
+	private static class RepositoryHandler implements InvocationHandler {
+		private TagManager tagManager = new TagManager();
+		private TagsetDefinition tagsetDefinition;
+		private int loadCount;
+		private int updateCount;
+		private boolean failPropertyUpdates;
+
+		private RepositoryHandler(TagsetDefinition tagsetDefinition) {
+			this.tagsetDefinition = tagsetDefinition;
+		}
+
+		public Object invoke(Object proxy, Method method, Object[] args)
+				throws Throwable {
+			String name = method.getName();
+			if (name.equals("getTagManager")) {
+				return tagManager;
+			}
+			else if (name.equals("getUserMarkupCollection")) {
+				loadCount++;
+				UserMarkupCollectionReference reference =
+						(UserMarkupCollectionReference)args[0];
+				return createUserMarkupCollection(
+						reference.getId(), tagsetDefinition, 10);
+			}
+			else if (name.equals("update")) {
+				if ((args[0] instanceof TagInstance) && failPropertyUpdates) {
+					throw new IOException("property update failed");
+				}
+				updateCount++;
+				return null;
+			}
+			else if (name.equals("hashCode")) {
+				return System.identityHashCode(proxy);
+			}
+			else if (name.equals("equals")) {
+				return proxy == args[0];
+			}
+			else if (name.equals("toString")) {
+				return "TestRepository";
+			}
+			throw new UnsupportedOperationException(name);
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		testEvictionAfterPersistence();
+		testUnidentifiedCollections();
+		testDuplicateTagReferences();
+		System.out.println("UserMarkupCollectionManagerTest passed");
+	}
+
+	private static TagsetDefinition createTagsetDefinition() {
+		TagsetDefinition tagsetDefinition =
+				new TagsetDefinition(null, "ts", "ts", new Version());
+		tagsetDefinition.addTagDefinition(
+			new TagDefinition(null, "td", "td", new Version(), null, null));
+		return tagsetDefinition;
+	}
+
+	private static UserMarkupCollection createUserMarkupCollection(
+			String id, TagsetDefinition tagsetDefinition, int size)
+					throws Exception {
+		TagDefinition tagDefinition = tagsetDefinition.getTagDefinition("td");
+		TagLibrary tagLibrary = new TagLibrary("lib", "lib");
+		tagLibrary.add(tagsetDefinition);
+		UserMarkupCollection userMarkupCollection = new UserMarkupCollection(
+				id, new ContentInfoSet(String.valueOf(id)), tagLibrary,
+				new ArrayList<TagReference>(), AccessMode.WRITE);
+		for (int i=0; i<size; i++) {
+			userMarkupCollection.addTagReference(
+				new TagReference(
+					new TagInstance(id + "_ti" + i, tagDefinition),
+					TARGET, new Range(i, i+1)));
+		}
+		return userMarkupCollection;
+	}
+
+	private static void testEvictionAfterPersistence() throws Exception {
+		TagsetDefinition tagsetDefinition = createTagsetDefinition();
+		TagDefinition tagDefinition = tagsetDefinition.getTagDefinition("td");
+		RepositoryHandler handler = new RepositoryHandler(tagsetDefinition);
+		Repository repository = (Repository)Proxy.newProxyInstance(
+			Repository.class.getClassLoader(),
+			new Class<?>[] {Repository.class}, handler);
+
+		UserMarkupCollectionManager manager =
+				new UserMarkupCollectionManager(repository);
+		manager.setTagReferenceBudget(25);
+
+		UserMarkupCollection first =
+				createUserMarkupCollection("first", tagsetDefinition, 10);
+		manager.add(first);
+		manager.addTagReferences(
+			Collections.singletonList(
+				new TagReference(
+					new TagInstance("first_added", tagDefinition),
+					TARGET, new Range(20, 21))),
+			first);
+		check(handler.updateCount == 1, "update passed to the repository");
+
+		manager.add(createUserMarkupCollection("second", tagsetDefinition, 10));
+		manager.add(createUserMarkupCollection("third", tagsetDefinition, 10));
+		check(!manager.getUserMarkupCollections().contains(first),
+				"persisted changes do not pin a collection");
+		check(manager.contains("first"), "evicted collection is still managed");
+		check(manager.getUserMarkupCollection("first") == first,
+				"referenced evicted collection");
+		check(handler.loadCount == 0, "lookups do not access the repository");
+
+		UserMarkupCollection loaded = manager.load("first");
+		check(loaded != null, "loaded collection");
+		check(manager.getUserMarkupCollections().contains(loaded),
+				"resident after loading");
+		check(manager.load("unknown") == null, "unknown collection");
+
+		// a failed update keeps the collection loaded
+		UserMarkupCollection second = manager.load("second");
+		handler.failPropertyUpdates = true;
+		try {
+			manager.updateProperty(
+				second.getTagReferences().get(0).getTagInstance(),
+				Collections.<Property>emptyList());
+			check(false, "failed property update");
+		}
+		catch (IOException expected) {}
+		manager.add(createUserMarkupCollection("fourth", tagsetDefinition, 10));
+		manager.add(createUserMarkupCollection("fifth", tagsetDefinition, 10));
+		check(manager.getUserMarkupCollections().contains(second),
+				"unpersisted changes pin a collection");
+
+		handler.failPropertyUpdates = false;
+		manager.updateProperty(
+			second.getTagReferences().get(0).getTagInstance(),
+			Collections.<Property>emptyList());
+		manager.add(createUserMarkupCollection("sixth", tagsetDefinition, 10));
+		check(!manager.getUserMarkupCollections().contains(second),
+				"persisted property update releases a collection");
+
+		// instances of evicted collections are found via a reload
+		check(manager.getTagInstanceInfo("second_ti1") != null,
+				"instance of an evicted collection");
+	}
+
+	private static void testUnidentifiedCollections() throws Exception {
+		TagsetDefinition tagsetDefinition = createTagsetDefinition();
+		TagDefinition tagDefinition = tagsetDefinition.getTagDefinition("td");
+		RepositoryHandler handler = new RepositoryHandler(tagsetDefinition);
+		Repository repository = (Repository)Proxy.newProxyInstance(
+			Repository.class.getClassLoader(),
+			new Class<?>[] {Repository.class}, handler);
+
+		UserMarkupCollectionManager manager =
+				new UserMarkupCollectionManager(repository);
+		UserMarkupCollection first =
+				createUserMarkupCollection(null, tagsetDefinition, 3);
+		UserMarkupCollection second =
+				createUserMarkupCollection(null, tagsetDefinition, 3);
+		// distinct instance IDs for the second collection
+		second.removeTagReferences(
+				new ArrayList<TagReference>(second.getTagReferences()));
+		second.addTagReference(
+			new TagReference(
+				new TagInstance("copy_ti", tagDefinition),
+				TARGET, new Range(0, 1)));
+
+		manager.add(first);
+		manager.add(second);
+		manager.add(first);
+		check(manager.getUserMarkupCollections().size() == 2,
+				"collections without ID");
+		check(manager.getTagInstanceInfo("copy_ti").getUserMarkupCollection()
+				== second, "instance of a collection without ID");
+
+		manager.removeTagInstance("null_ti0");
+		check(!first.hasTagInstance("null_ti0"), "removed instance");
+
+		manager.remove(first);
+		check(manager.getUserMarkupCollections().size() == 1,
+				"removed collection without ID");
+		check(manager.getUserMarkupCollections().get(0) == second,
+				"remaining collection without ID");
+	}
+
+	private static void testDuplicateTagReferences() throws Exception {
+		TagsetDefinition tagsetDefinition = createTagsetDefinition();
+		TagDefinition tagDefinition = tagsetDefinition.getTagDefinition("td");
+		RepositoryHandler handler = new RepositoryHandler(tagsetDefinition);
+		Repository repository = (Repository)Proxy.newProxyInstance(
+			Repository.class.getClassLoader(),
+			new Class<?>[] {Repository.class}, handler);
+
+		TagInstance tagInstance = new TagInstance("duplicate_ti", tagDefinition);
+		TagReference first = new TagReference(tagInstance, TARGET, new Range(0, 5));
+		TagReference duplicate = 
+				new TagReference(tagInstance, TARGET, new Range(0, 5));
+		TagReference other = new TagReference(tagInstance, TARGET, new Range(0, 6));
+		check(first.equals(duplicate) && (first.hashCode() == duplicate.hashCode()), 
+				"equal duplicates");
+		check(!first.equals(other), "different ranges");
+		check(!first.equals(
+				new TagReference(
+					new TagInstance("other_ti", tagDefinition), 
+					TARGET, new Range(0, 5))), 
+				"different instances");
+		check(!first.equals(
+				new TagReference(tagInstance, "catma://other", new Range(0, 5))), 
+				"different targets");
+
+		UserMarkupCollection userMarkupCollection = 
+				createUserMarkupCollection("umc", tagsetDefinition, 0);
+		userMarkupCollection.addTagReference(first);
+		userMarkupCollection.addTagReference(duplicate);
+		userMarkupCollection.addTagReference(other);
+		UserMarkupCollectionManager manager =
+				new UserMarkupCollectionManager(repository);
+		manager.add(userMarkupCollection);
+
+		check(userMarkupCollection.getTagReferences().size() == 3, 
+				"duplicates are kept by the collection");
+		check(userMarkupCollection.getTagReferences(new Range(0, 1)).size() == 3, 
+				"duplicates are found by range");
+		check(manager.getTagReferences("duplicate_ti").size() == 2, 
+				"distinct references of an instance");
+
+		userMarkupCollection.removeTagReferences(
+				Collections.singletonList(duplicate));
+		check((userMarkupCollection.getTagReferences().size() == 1)
+				&& (userMarkupCollection.getTagReferences().get(0) == other), 
+				"removal of all duplicates");
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition) {
+			throw new IllegalStateException(message);
+		}
+	}
+}
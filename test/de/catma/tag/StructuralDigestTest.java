@@ -0,0 +1,216 @@
+/*   
+ *   CATMA Computer Aided Text Markup and Analysis
+ *   
+ *   Copyright (C) 2009-2013  University Of Hamburg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.catma.tag;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Tests the {@link StructuralDigest}: digests of different sequences of parts 
+ * differ and the incrementally maintained digests of TagDefinitions and 
+ * TagsetDefinitions match the digests of definitions that have been built 
+ * from scratch in a different order.
+ *
+ * @author marco.petris@web.de
+ *
+ */
+public class StructuralDigestTest {
+	
+	private static final int ITERATIONS = 200;
+	private static final int SEQUENCES = 100000;
+	
+	private static int nextID = 0;
+	
+	public static void main(String[] args) {
+		testPartBoundaries();
+		testCollisions();
+		testIncrementalDigests();
+		System.out.println("StructuralDigestTest passed");
+	}
+
+	private static void testPartBoundaries() {
+		check(new StructuralDigest().add("ab").add("c").get() 
+				!= new StructuralDigest().add("a").add("bc").get(), "separator");
+		check(new StructuralDigest().add((String)null).get() 
+				!= new StructuralDigest().add("").get(), "null");
+		check(new StructuralDigest().add("a").get() 
+				!= new StructuralDigest().add("a").add("").get(), "empty part");
+		check(new StructuralDigest().add(true).get() 
+				!= new StructuralDigest().add(false).get(), "boolean");
+		check(new StructuralDigest().add(1L).add(2L).get() 
+				!= new StructuralDigest().add(2L).add(1L).get(), "order");
+		check(new StructuralDigest().add("\u0100").get() 
+				!= new StructuralDigest().add("\u0001").get(), "high byte");
+		check(new StructuralDigest().add("a").add(1L).get() 
+				== new StructuralDigest().add("a").add(1L).get(), "deterministic");
+	}
+	
+	/**
+	 * Random sequences of short parts over a small alphabet, equal digests 
+	 * have to come from equal sequences.
+	 */
+	private static void testCollisions() {
+		Random random = new Random(17);
+		Map<Long,List<String>> sequencesByDigest = new HashMap<Long, List<String>>();
+		
+		for (int i=0; i<SEQUENCES; i++) {
+			List<String> sequence = new ArrayList<String>();
+			StructuralDigest digest = new StructuralDigest();
+			for (int count=random.nextInt(4); count>0; count--) {
+				StringBuilder part = new StringBuilder();
+				for (int length=random.nextInt(4); length>0; length--) {
+					part.append((char)('a' + random.nextInt(3)));
+				}
+				sequence.add(part.toString());
+				digest.add(part.toString());
+			}
+			List<String> other = sequencesByDigest.put(digest.get(), sequence);
+			check((other == null) || other.equals(sequence), 
+					"collision", other, sequence);
+		}
+	}
+	
+	private static void testIncrementalDigests() {
+		Random random = new Random(19);
+		
+		for (int i=0; i<ITERATIONS; i++) {
+			TagsetDefinition tagsetDefinition = 
+					new TagsetDefinition(null, "ts"+i, "ts", new Version());
+			for (int count=random.nextInt(8)+1; count>0; count--) {
+				tagsetDefinition.addTagDefinition(createTagDefinition(random));
+			}
+			checkDigests(tagsetDefinition, random, i);
+			
+			for (int op=0; op<20; op++) {
+				List<TagDefinition> tagDefinitions = toList(tagsetDefinition);
+				TagDefinition tagDefinition = 
+						tagDefinitions.get(random.nextInt(tagDefinitions.size()));
+				long digest = tagsetDefinition.getDigest();
+				
+				switch (random.nextInt(7)) {
+				case 0 : {
+					tagDefinition.setName("name" + nextID++);
+					break;
+				}
+				case 1 : {
+					tagDefinition.setColor(String.valueOf(nextID++));
+					break;
+				}
+				case 2 : {
+					PropertyDefinition pd = 
+						tagDefinition.getPropertyDefinitionByName("pos");
+					pd.setName("pos" + nextID++);
+					pd.setName("pos");
+					pd.setPossibleValueList(new PropertyPossibleValueList(
+						Arrays.asList("a", String.valueOf(nextID++)), false));
+					break;
+				}
+				case 3 : {
+					tagDefinition.addUserDefinedPropertyDefinition(
+						new PropertyDefinition(
+							null, "pd"+nextID++, "extra", 
+							new PropertyPossibleValueList("x")));
+					break;
+				}
+				case 4 : {
+					List<PropertyDefinition> userDefined = new ArrayList<PropertyDefinition>(
+							tagDefinition.getUserDefinedPropertyDefinitions());
+					Collections.shuffle(userDefined, random);
+					if (userDefined.get(0).getName().equals("pos")) {
+						continue;
+					}
+					tagDefinition.removeUserDefinedPropertyDefinition(userDefined.get(0));
+					break;
+				}
+				case 5 : {
+					tagsetDefinition.addTagDefinition(createTagDefinition(random));
+					break;
+				}
+				default : {
+					if (tagDefinitions.size() == 1) {
+						continue;
+					}
+					tagsetDefinition.remove(tagDefinition);
+				}
+				}
+				
+				check(tagsetDefinition.getDigest() != digest, 
+						"unchanged digest", i, op, tagsetDefinition);
+				checkDigests(tagsetDefinition, random, i);
+			}
+		}
+	}
+	
+	private static void checkDigests(
+			TagsetDefinition tagsetDefinition, Random random, int iteration) {
+		List<TagDefinition> tagDefinitions = toList(tagsetDefinition);
+		Collections.shuffle(tagDefinitions, random);
+		
+		TagsetDefinition fromScratch = new TagsetDefinition(
+				null, tagsetDefinition.getUuid(), tagsetDefinition.getName(), 
+				new Version(tagsetDefinition.getVersion()));
+		for (TagDefinition tagDefinition : tagDefinitions) {
+			TagDefinition copy = new TagDefinition(tagDefinition);
+			check(copy.getDigest() == tagDefinition.getDigest(), 
+					"tag definition", iteration, tagDefinition);
+			fromScratch.addTagDefinition(copy);
+		}
+		
+		check(fromScratch.getDigest() == tagsetDefinition.getDigest(), 
+				"tagset definition", iteration, tagsetDefinition);
+	}
+	
+	private static TagDefinition createTagDefinition(Random random) {
+		String uuid = "td" + nextID++;
+		TagDefinition tagDefinition = 
+				new TagDefinition(null, uuid, uuid, new Version(), null, "");
+		tagDefinition.addSystemPropertyDefinition(new PropertyDefinition(
+			null, "color" + uuid, 
+			PropertyDefinition.SystemPropertyName.catma_displaycolor.name(), 
+			new PropertyPossibleValueList(String.valueOf(random.nextInt()))));
+		tagDefinition.addUserDefinedPropertyDefinition(new PropertyDefinition(
+			null, "pos" + uuid, "pos", 
+			new PropertyPossibleValueList(Arrays.asList("a", "b"), false)));
+		return tagDefinition;
+	}
+	
+	private static List<TagDefinition> toList(TagsetDefinition tagsetDefinition) {
+		List<TagDefinition> tagDefinitions = new ArrayList<TagDefinition>();
+		for (TagDefinition tagDefinition : tagsetDefinition) {
+			tagDefinitions.add(tagDefinition);
+		}
+		return tagDefinitions;
+	}
+
+	private static void check(boolean condition, String message, Object... context) {
+		if (!condition) {
+			StringBuilder builder = new StringBuilder(message);
+			for (Object o : context) {
+				builder.append(" ");
+				builder.append(o);
+			}
+			throw new IllegalStateException(builder.toString());
+		}
+	}
+}
@@ -0,0 +1,102 @@
+/*   
+ *   CATMA Computer Aided Text Markup and Analysis
+ *   
+ *   Copyright (C) 2009-2013  University Of Hamburg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.catma.tag;
+
+import java.util.Arrays;
+
+/**
+ * Tests the {@link Property#isDefault() default properties} of 
+ * {@link TagInstance}s: they share their values between instances and the 
+ * first write materializes a property for the written instance only.
+ *
+ * @author marco.petris@web.de
+ *
+ */
+public class TagInstanceTest {
+	
+	public static void main(String[] args) {
+		testDefaultProperties();
+		System.out.println("TagInstanceTest passed");
+	}
+
+	private static void testDefaultProperties() {
+		TagDefinition tagDefinition = new TagDefinition(
+				null, "td", "td", new Version(), null, null);
+		PropertyDefinition color = new PropertyDefinition(
+				null, "color", 
+				PropertyDefinition.SystemPropertyName.catma_displaycolor.name(), 
+				new PropertyPossibleValueList("1"));
+		tagDefinition.addSystemPropertyDefinition(color);
+		PropertyDefinition comment = new PropertyDefinition(
+				null, "comment", "comment", 
+				new PropertyPossibleValueList(Arrays.asList("a", "b"), true));
+		tagDefinition.addUserDefinedPropertyDefinition(comment);
+		
+		TagInstance first = new TagInstance("ti1", tagDefinition);
+		TagInstance second = new TagInstance("ti2", tagDefinition);
+		
+		Property defaultColor = second.getSystemProperty("color");
+		check(defaultColor.isDefault(), "default");
+		check(defaultColor.getPropertyValueList() 
+				== first.getSystemProperty("color").getPropertyValueList(), 
+				"shared default values");
+		check("1".equals(defaultColor.getPropertyValueList().getFirstValue()), 
+				"default value");
+		check(first.getUserDefinedProperty("comment").getPropertyValueList()
+				.getValues().isEmpty(), "empty user defined default");
+		
+		first.setPropertyValueList("color", new PropertyValueList("2"));
+		check(!first.getSystemProperty("color").isDefault(), "materialized");
+		check("2".equals(first.getSystemProperty(
+				"color").getPropertyValueList().getFirstValue()), "written value");
+		check(second.getSystemProperty("color").isDefault(), "other instance");
+		check("1".equals(defaultColor.getPropertyValueList().getFirstValue()), 
+				"unchanged default");
+		
+		// writes through a default property materialize that very property
+		Property firstComment = first.getUserDefinedProperty("comment");
+		firstComment.setPropertyValueList(new PropertyValueList("b"));
+		check(!firstComment.isDefault(), "materialized user defined");
+		check(first.getUserDefinedProperty("comment") == firstComment, 
+				"written property");
+		check("b".equals(first.getUserDefinedProperty(
+				"comment").getPropertyValueList().getFirstValue()), 
+				"written user defined value");
+		check(second.getUserDefinedProperty("comment").isDefault(), 
+				"other user defined");
+		check(second.getUserDefinedProperty("comment").getPropertyValueList()
+				.getValues().isEmpty(), "unchanged user defined default");
+		
+		color.setPossibleValueList(new PropertyPossibleValueList("3"));
+		check("3".equals(second.getSystemProperty(
+				"color").getPropertyValueList().getFirstValue()), "changed default");
+		
+		try {
+			first.setPropertyValueList("unknown", new PropertyValueList("x"));
+			check(false, "unknown property");
+		}
+		catch (IllegalArgumentException expected) {}
+	}
+	
+	private static void check(boolean condition, String message) {
+		if (!condition) {
+			throw new IllegalStateException(message);
+		}
+	}
+}
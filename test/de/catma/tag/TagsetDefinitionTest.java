@@ -0,0 +1,217 @@
+/*   
+ *   CATMA Computer Aided Text Markup and Analysis
+ *   
+ *   Copyright (C) 2009-2013  University Of Hamburg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.catma.tag;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Compares the Euler tour numbering based hierarchy queries of 
+ * {@link TagsetDefinition} with walks along the parent chains of randomly 
+ * generated hierarchies, including TagDefinitions whose parents are not part
+ * of the tagset.
+ *
+ * @author marco.petris@web.de
+ *
+ */
+public class TagsetDefinitionTest {
+	
+	private static final int ITERATIONS = 300;
+	private static final String MISSING_PARENT = "missing";
+	
+	private static int nextID = 0;
+
+	public static void main(String[] args) {
+		Random random = new Random(13);
+		
+		for (int i=0; i<ITERATIONS; i++) {
+			TagsetDefinition tagsetDefinition = 
+					new TagsetDefinition(null, "ts", "ts", new Version());
+			
+			List<TagDefinition> tagDefinitions = new ArrayList<TagDefinition>();
+			for (int count=random.nextInt(40)+1; count>0; count--) {
+				tagDefinitions.add(createTagDefinition(tagDefinitions, random));
+			}
+			Collections.shuffle(tagDefinitions, random);
+			for (TagDefinition tagDefinition : tagDefinitions) {
+				tagsetDefinition.addTagDefinition(tagDefinition);
+			}
+			check(tagsetDefinition, i);
+			
+			for (int op=random.nextInt(10); op>0; op--) {
+				List<TagDefinition> current = toList(tagsetDefinition);
+				if (current.isEmpty() || random.nextBoolean()) {
+					tagsetDefinition.addTagDefinition(
+						createTagDefinition(current, random));
+				}
+				else {
+					TagDefinition removed = 
+							current.get(random.nextInt(current.size()));
+					Set<TagDefinition> expectedRemaining = 
+							new HashSet<TagDefinition>(current);
+					expectedRemaining.removeAll(getDescendants(tagsetDefinition, removed));
+					expectedRemaining.remove(removed);
+					tagsetDefinition.remove(removed);
+					check(new HashSet<TagDefinition>(toList(tagsetDefinition)).equals(
+							expectedRemaining), "remove subtree", i);
+				}
+				check(tagsetDefinition, i);
+			}
+			
+			check(new TagsetDefinition(tagsetDefinition), i);
+		}
+		
+		System.out.println("TagsetDefinitionTest passed");
+	}
+
+	private static void check(TagsetDefinition tagsetDefinition, int iteration) {
+		List<TagDefinition> tagDefinitions = toList(tagsetDefinition);
+		
+		for (TagDefinition tagDefinition : tagDefinitions) {
+			Set<TagDefinition> descendants = 
+					getDescendants(tagsetDefinition, tagDefinition);
+			List<TagDefinition> children = tagsetDefinition.getChildren(tagDefinition);
+			check(new HashSet<TagDefinition>(children).equals(descendants)
+					&& (children.size() == descendants.size()), 
+					"children", iteration, tagDefinition);
+			
+			Set<String> childIDs = new HashSet<String>();
+			for (TagDefinition child : descendants) {
+				childIDs.add(child.getUuid());
+			}
+			check(tagsetDefinition.getChildIDs(tagDefinition).equals(childIDs), 
+					"child IDs", iteration, tagDefinition);
+			
+			Set<TagDefinition> directChildren = new HashSet<TagDefinition>();
+			for (TagDefinition other : tagDefinitions) {
+				if (other.getParentUuid().equals(tagDefinition.getUuid())) {
+					directChildren.add(other);
+				}
+			}
+			check(new HashSet<TagDefinition>(
+					tagsetDefinition.getDirectChildren(tagDefinition)).equals(
+							directChildren), "direct children", iteration, tagDefinition);
+			
+			List<TagDefinition> ancestors = getAncestors(tagsetDefinition, tagDefinition);
+			check(tagsetDefinition.getDepth(tagDefinition) == ancestors.size(),
+					"depth", iteration, tagDefinition);
+			
+			if (hasTopLevelAncestor(tagsetDefinition, tagDefinition)) {
+				StringBuilder tagPath = new StringBuilder();
+				for (int i=ancestors.size()-1; i>=0; i--) {
+					tagPath.append("/");
+					tagPath.append(ancestors.get(i).getName());
+				}
+				tagPath.append("/");
+				tagPath.append(tagDefinition.getName());
+				check(tagsetDefinition.getTagPath(tagDefinition).equals(
+						tagPath.toString()), "tag path", iteration, tagDefinition);
+			}
+			
+			for (TagDefinition other : tagDefinitions) {
+				check(tagsetDefinition.isDescendant(other, tagDefinition) 
+						== ancestors(tagsetDefinition, other).contains(tagDefinition),
+						"descendant", iteration, other, tagDefinition);
+			}
+		}
+	}
+	
+	private static Set<TagDefinition> ancestors(
+			TagsetDefinition tagsetDefinition, TagDefinition tagDefinition) {
+		return new HashSet<TagDefinition>(getAncestors(tagsetDefinition, tagDefinition));
+	}
+	
+	/**
+	 * @return the parent chain, nearest ancestor first
+	 */
+	private static List<TagDefinition> getAncestors(
+			TagsetDefinition tagsetDefinition, TagDefinition tagDefinition) {
+		List<TagDefinition> ancestors = new ArrayList<TagDefinition>();
+		TagDefinition parent = 
+				tagsetDefinition.getTagDefinition(tagDefinition.getParentUuid());
+		while (parent != null) {
+			ancestors.add(parent);
+			parent = tagsetDefinition.getTagDefinition(parent.getParentUuid());
+		}
+		return ancestors;
+	}
+	
+	private static boolean hasTopLevelAncestor(
+			TagsetDefinition tagsetDefinition, TagDefinition tagDefinition) {
+		List<TagDefinition> ancestors = getAncestors(tagsetDefinition, tagDefinition);
+		TagDefinition root = 
+				ancestors.isEmpty() ? tagDefinition : ancestors.get(ancestors.size()-1);
+		return root.getParentUuid().isEmpty();
+	}
+	
+	private static Set<TagDefinition> getDescendants(
+			TagsetDefinition tagsetDefinition, TagDefinition tagDefinition) {
+		Set<TagDefinition> descendants = new HashSet<TagDefinition>();
+		for (TagDefinition other : tagsetDefinition) {
+			if (ancestors(tagsetDefinition, other).contains(tagDefinition)) {
+				descendants.add(other);
+			}
+		}
+		return descendants;
+	}
+	
+	private static List<TagDefinition> toList(TagsetDefinition tagsetDefinition) {
+		List<TagDefinition> tagDefinitions = new ArrayList<TagDefinition>();
+		for (TagDefinition tagDefinition : tagsetDefinition) {
+			tagDefinitions.add(tagDefinition);
+		}
+		return tagDefinitions;
+	}
+	
+	/**
+	 * @return a TagDefinition that is either top level, a child of one of the 
+	 * given definitions or a child of a definition outside of the tagset
+	 */
+	private static TagDefinition createTagDefinition(
+			List<TagDefinition> possibleParents, Random random) {
+		String uuid = "td" + nextID++;
+		String parentUuid = "";
+		int choice = random.nextInt(10);
+		if ((choice < 7) && !possibleParents.isEmpty()) {
+			parentUuid = 
+				possibleParents.get(random.nextInt(possibleParents.size())).getUuid();
+		}
+		else if (choice == 7) {
+			parentUuid = MISSING_PARENT;
+		}
+		return new TagDefinition(null, uuid, uuid, new Version(), null, parentUuid);
+	}
+	
+	private static void check(boolean condition, String message, Object... context) {
+		if (!condition) {
+			StringBuilder builder = new StringBuilder(message);
+			for (Object o : context) {
+				builder.append(" ");
+				builder.append(o);
+			}
+			throw new IllegalStateException(builder.toString());
+		}
+	}
+}
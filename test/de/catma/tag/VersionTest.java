@@ -0,0 +1,173 @@
+/*   
+ *   CATMA Computer Aided Text Markup and Analysis
+ *   
+ *   Copyright (C) 2009-2013  University Of Hamburg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.catma.tag;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Compares the {@link Version} codec with {@link SimpleDateFormat}, 
+ * tests the monotonicity and the drift bound of the hybrid logical clock 
+ * behind {@link Version#Version()} and the round trip of new versions 
+ * through their string and date representations.
+ *
+ * @author marco.petris@web.de
+ *
+ */
+public class VersionTest {
+	
+	private static final int ITERATIONS = 50000;
+	private static final int THREADS = 8;
+	private static final int VERSIONS_PER_THREAD = 50000;
+	
+	public static void main(String[] args) throws Exception {
+		// dates of the far future are logged as clock drift
+		Logger versionLogger = Logger.getLogger(Version.class.getName());
+		Level level = versionLogger.getLevel();
+		versionLogger.setLevel(Level.SEVERE);
+		try {
+			testCodec();
+		}
+		finally {
+			versionLogger.setLevel(level);
+		}
+		testClock();
+		testRoundTrip();
+		System.out.println("VersionTest passed");
+	}
+
+	private static void testCodec() throws Exception {
+		SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
+		SimpleDateFormat shortFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ");
+		Random random = new Random(7);
+		
+		for (int i=0; i<ITERATIONS; i++) {
+			// dates after and before the epoch
+			long time = ((i % 2) == 0) ? 
+					(long)(random.nextDouble()*4102444800000L) 
+					: -(long)(random.nextDouble()*20000000000000L);
+			Date date = new Date(time);
+			
+			Version version = new Version(date);
+			check(version.getTime() == time, 
+					"millisecond precision", time, version.getTime());
+			
+			String formatted = format.format(date);
+			check(new Version(formatted).toString().equals(formatted), 
+					"round trip", formatted, new Version(formatted));
+			check(new Version(formatted).getTime() == format.parse(formatted).getTime(),
+					"parse", formatted);
+			
+			String shortFormatted = shortFormat.format(date);
+			check(new Version(shortFormatted).getTime() 
+					== shortFormat.parse(shortFormatted).getTime(),
+					"parse without millis", shortFormatted);
+		}
+		
+		String fixed = "2013-01-01T10:00:00.000+0100";
+		check(new Version(fixed).getTime() == format.parse(fixed).getTime(), 
+				"fixed date", fixed);
+		String lenient = "2013-02-30T10:00:00.000+0100";
+		check(new Version(lenient).getTime() == format.parse(lenient).getTime(), 
+				"lenient date", lenient);
+		
+		try {
+			new Version("garbage");
+			throw new IllegalStateException("garbage has been accepted");
+		}
+		catch (IllegalArgumentException expected) {
+			// expected
+		}
+	}
+	
+	private static void testClock() throws Exception {
+		final Set<Long> versions = Collections.newSetFromMap(
+				new ConcurrentHashMap<Long, Boolean>());
+		
+		ExecutorService executorService = Executors.newFixedThreadPool(THREADS);
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+		for (int i=0; i<THREADS; i++) {
+			futures.add(executorService.submit(new Runnable() {
+				public void run() {
+					Version last = new Version();
+					for (int i=0; i<VERSIONS_PER_THREAD; i++) {
+						Version next = new Version();
+						check(last.isNewer(next), "monotonic", last, next);
+						check(versions.add(next.getTime()), "unique", next);
+						last = next;
+					}
+				}
+			}));
+		}
+		for (Future<?> future : futures) {
+			future.get();
+		}
+		executorService.shutdown();
+		
+		// versions from the near future advance the clock
+		Version future = new Version(new Date(System.currentTimeMillis()+100000));
+		check(future.isNewer(new Version()), "observed future version", future);
+		
+		// versions from the far future do not 
+		Version farFuture = new Version(
+			new Date(System.currentTimeMillis()+Version.MAX_DRIFT+3600000));
+		check(!farFuture.isNewer(new Version()), "drift bound", farFuture);
+	}
+	
+	private static void testRoundTrip() throws Exception {
+		for (int i=0; i<ITERATIONS; i++) {
+			Version version = new Version();
+			
+			Version fromString = new Version(version.toString());
+			check(fromString.equals(version) 
+					&& (fromString.hashCode() == version.hashCode()), 
+					"string round trip", version, fromString);
+			
+			Version fromDate = new Version(version.getDate());
+			check(fromDate.equals(version) 
+					&& (fromDate.hashCode() == version.hashCode()), 
+					"date round trip", version, fromDate);
+			
+			check(!version.isNewer(fromString) && !fromString.isNewer(version), 
+					"round trip order", version, fromString);
+		}
+	}
+	
+	private static void check(boolean condition, String message, Object... context) {
+		if (!condition) {
+			StringBuilder builder = new StringBuilder(message);
+			for (Object o : context) {
+				builder.append(" ");
+				builder.append(o);
+			}
+			throw new IllegalStateException(builder.toString());
+		}
+	}
+}